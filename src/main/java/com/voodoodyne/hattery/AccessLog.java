@@ -0,0 +1,55 @@
+package com.voodoodyne.hattery;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <p>Receives one record for every completed exchange (or failed attempt to exchange). Set one with
+ * {@code HttpRequest.accessLog()}; the default writes to slf4j at INFO.</p>
+ *
+ * <p>This runs on the thread making the request, so implementations should be cheap. Wrap expensive ones
+ * in an {@link AsyncAccessLog}, and use {@link #sampled(double)} to record only a fraction of traffic.</p>
+ */
+public interface AccessLog {
+
+	/** Records nothing and costs nothing */
+	AccessLog NONE = new AccessLog() {
+		@Override
+		public boolean isSampled() {
+			return false;
+		}
+
+		@Override
+		public void record(final AccessLogRecord record) {
+		}
+	};
+
+	/**
+	 * Asked once before each exchange. If false, the exchange is not measured and no record is created.
+	 */
+	default boolean isSampled() {
+		return true;
+	}
+
+	/** Called when the exchange completes, but only if isSampled() returned true */
+	void record(final AccessLogRecord record);
+
+	/**
+	 * @param rate between 0 and 1, the fraction of exchanges to record
+	 * @return an access log which records a random sample of exchanges to this one
+	 */
+	default AccessLog sampled(final double rate) {
+		final AccessLog self = this;
+
+		return new AccessLog() {
+			@Override
+			public boolean isSampled() {
+				return ThreadLocalRandom.current().nextDouble() < rate && self.isSampled();
+			}
+
+			@Override
+			public void record(final AccessLogRecord record) {
+				self.record(record);
+			}
+		};
+	}
+}
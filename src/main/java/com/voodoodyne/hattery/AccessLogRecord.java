@@ -0,0 +1,60 @@
+package com.voodoodyne.hattery;
+
+import lombok.Value;
+
+import java.net.URI;
+
+/**
+ * <p>One completed exchange, as given to an {@link AccessLog}.</p>
+ *
+ * <p>Creating this is cheap; the url is kept as-is and only parsed if you ask for the host or path.
+ * That way, an async access log does the parsing on its own thread.</p>
+ */
+@Value
+public class AccessLogRecord {
+	/** Wall clock millis when the exchange started */
+	long timestamp;
+
+	/** */
+	String method;
+
+	/** The request url without query parameters (ie, as set by url() and path()) */
+	String url;
+
+	/** The http response code, or 0 if the exchange failed */
+	int status;
+
+	/** From the Content-Length response header, or -1 if unknown */
+	long responseBytes;
+
+	/** Time from the start of the exchange until the transport handed back a response */
+	long elapsedNanos;
+
+	/** Null unless the exchange failed */
+	Throwable failure;
+
+	/** @return the host part of the url, or null if it can't be parsed */
+	public String getHost() {
+		final URI uri = toUri();
+		return uri == null ? null : uri.getHost();
+	}
+
+	/** @return the path part of the url, or null if it can't be parsed */
+	public String getPath() {
+		final URI uri = toUri();
+		return uri == null ? null : uri.getRawPath();
+	}
+
+	/** */
+	public long getElapsedMillis() {
+		return elapsedNanos / 1_000_000;
+	}
+
+	private URI toUri() {
+		try {
+			return URI.create(url);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.voodoodyne.hattery;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Hands records to a fixed-size ring buffer and writes them to another access log on a background
+ * thread, so the requesting thread never waits on the delegate. If the buffer is full, records are
+ * dropped (and counted) rather than blocking.</p>
+ *
+ * <p>Close this to stop the background thread; anything still buffered is written first. Records that
+ * arrive after close are dropped and counted.</p>
+ */
+@Slf4j
+public class AsyncAccessLog implements AccessLog, Closeable {
+	private final AccessLog delegate;
+	private final BlockingQueue<AccessLogRecord> buffer;
+	private final Thread writer;
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile boolean closed;
+
+	/**
+	 * @param capacity the maximum number of records waiting to be written
+	 */
+	public AsyncAccessLog(final AccessLog delegate, final int capacity) {
+		this.delegate = delegate;
+		this.buffer = new ArrayBlockingQueue<>(capacity);
+
+		this.writer = new Thread(this::drain, "hattery-access-log");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	@Override
+	public boolean isSampled() {
+		return delegate.isSampled();
+	}
+
+	@Override
+	public void record(final AccessLogRecord record) {
+		if (closed || !buffer.offer(record)) {
+			dropped.incrementAndGet();
+			return;
+		}
+
+		// If we raced with close() and the writer has already gone, nobody will take it
+		if (closed && buffer.remove(record))
+			dropped.incrementAndGet();
+	}
+
+	/** @return how many records have been discarded because the buffer was full or the log was closed */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	private void drain() {
+		try {
+			while (true)
+				write(buffer.take());
+		} catch (InterruptedException e) {
+			// Closed; flush whatever is left
+			final List<AccessLogRecord> remaining = new ArrayList<>();
+			buffer.drainTo(remaining);
+			remaining.forEach(this::write);
+		}
+	}
+
+	private void write(final AccessLogRecord record) {
+		try {
+			delegate.record(record);
+		} catch (RuntimeException e) {
+			log.warn("Access log failed to record {} {}", record.getMethod(), record.getUrl(), e);
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		writer.interrupt();
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -3,13 +3,55 @@ package com.voodoodyne.hattery;
 import lombok.ToString;
 import lombok.Value;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
-/** Used as a param value when user submits binary attachments */
+/**
+ * Used as a param value when user submits binary attachments. The content comes either from
+ * a stream (which can be read only once) or from a file (which is opened when it is written).
+ */
 @Value
 @ToString(exclude = "data")
 public class BinaryAttachment {
+	/** Null if the attachment is backed by a file */
 	InputStream data;
+
+	/** Null if the attachment is backed by a stream */
+	Path path;
+
 	String contentType;
 	String filename;
+
+	/** */
+	public BinaryAttachment(final InputStream data, final String contentType, final String filename) {
+		this.data = data;
+		this.path = null;
+		this.contentType = contentType;
+		this.filename = filename;
+	}
+
+	/** */
+	public BinaryAttachment(final Path path, final String contentType, final String filename) {
+		this.data = null;
+		this.path = path;
+		this.contentType = contentType;
+		this.filename = filename;
+	}
+
+	/**
+	 * @return the exact length of the content if it can be known without reading it (ie, a file), otherwise -1
+	 */
+	public long getLength() throws IOException {
+		return path != null ? Files.size(path) : -1;
+	}
+
+	/**
+	 * For file attachments this opens a new stream which the caller must close. For stream attachments
+	 * this is the original stream, which can only be read once.
+	 */
+	public InputStream openStream() throws IOException {
+		return path != null ? Files.newInputStream(path) : data;
+	}
 }
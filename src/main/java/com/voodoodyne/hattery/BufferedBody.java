@@ -0,0 +1,190 @@
+package com.voodoodyne.hattery;
+
+import com.voodoodyne.hattery.util.BufferPool;
+import com.voodoodyne.hattery.util.ChunkedOutputStream;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>A request body that has already been serialized, so that every retry, replica, and redirect sends the
+ * same bytes without running the serializer again. Small bodies are kept in pooled chunks; large ones spill
+ * to a temporary file. Either way the content is immutable once built.</p>
+ *
+ * <p>HttpRequest substitutes one of these for an object (or form) body just before handing the request to
+ * the transport; transports that use {@code writeBody()} don't need to know about it.</p>
+ */
+@Slf4j
+public final class BufferedBody {
+	/** Bodies bigger than this go to a temp file instead of staying in memory */
+	static final long SPILL_THRESHOLD = 1024 * 1024;
+
+	/** Null if spilled */
+	private final ChunkedOutputStream chunks;
+
+	/** Null unless spilled */
+	@Getter
+	private final Path file;
+
+	/** */
+	@Getter
+	private final long length;
+
+	/** HttpRequest, plus any transport which is still sending the content after its fetch returned */
+	private final AtomicInteger holders = new AtomicInteger(1);
+
+	/** Set if any holder failed, after which the chunks can't be trusted back in the pool */
+	private volatile boolean poisoned;
+
+	/** */
+	private BufferedBody(final ChunkedOutputStream chunks, final Path file, final long length) {
+		this.chunks = chunks;
+		this.file = file;
+		this.length = length;
+	}
+
+	/**
+	 * Serialize the request's body with {@code writeBody()}, moving to a temp file if it grows past the threshold
+	 */
+	static BufferedBody of(final HttpRequest request) throws IOException {
+		final SpillingOutputStream output = new SpillingOutputStream();
+		try {
+			request.writeBody(output);
+			output.finish();
+		} catch (IOException | RuntimeException e) {
+			output.discard();
+			throw e;
+		}
+
+		return output.file == null
+				? new BufferedBody(output.chunks, null, output.count)
+				: new BufferedBody(null, output.file, output.count);
+	}
+
+	/** @return true if the content is in memory rather than a file */
+	public boolean isInMemory() {
+		return file == null;
+	}
+
+	/**
+	 * @return read-only buffers over the content, which can be published any number of times
+	 * @throws IllegalStateException if the body spilled to a file
+	 */
+	public List<ByteBuffer> toByteBuffers() {
+		if (chunks == null)
+			throw new IllegalStateException("Body is in " + file);
+
+		return chunks.toByteBuffers();
+	}
+
+	/** Copy the content to the stream */
+	public void writeTo(final OutputStream output) throws IOException {
+		if (chunks != null)
+			chunks.writeTo(output);
+		else
+			Files.copy(file, output);
+	}
+
+	/**
+	 * For a transport which may still be publishing the chunks after its fetch returns (ie, HttpClient sending
+	 * the body after the response arrived). Nothing is released until each retain() has a matching release().
+	 */
+	void retain() {
+		holders.incrementAndGet();
+	}
+
+	/**
+	 * Called by each holder once it is done. The chunks only go back to the pool if every holder is known to
+	 * be finished with them (ie, they all succeeded); after a failure they are left to the GC. A file is
+	 * always deleted when the last holder releases.
+	 */
+	void release(final boolean reuse) {
+		if (!reuse)
+			poisoned = true;
+
+		if (holders.decrementAndGet() > 0)
+			return;
+
+		if (chunks != null && !poisoned)
+			chunks.release();
+
+		if (file != null)
+			deleteQuietly(file);
+	}
+
+	/** */
+	private static void deleteQuietly(final Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			log.warn("Could not delete body spill file {}", file, e);
+		}
+	}
+
+	/** Writes to pooled chunks until the threshold, then copies them to a temp file and continues there */
+	private static class SpillingOutputStream extends OutputStream {
+		ChunkedOutputStream chunks = new ChunkedOutputStream(BufferPool.DEFAULT);
+		Path file;
+		OutputStream fileOutput;
+		long count;
+
+		@Override
+		public void write(final int b) throws IOException {
+			target(1).write(b);
+			count++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			target(len).write(b, off, len);
+			count += len;
+		}
+
+		/** */
+		private OutputStream target(final int len) throws IOException {
+			if (fileOutput == null && count + len > SPILL_THRESHOLD) {
+				file = Files.createTempFile("hattery-body", ".tmp");
+				fileOutput = new BufferedOutputStream(Files.newOutputStream(file));
+				chunks.writeTo(fileOutput);
+				chunks.release();
+				chunks = null;
+			}
+
+			return fileOutput != null ? fileOutput : chunks;
+		}
+
+		/** Serializers like to close their target; that isn't the end, finish() is */
+		@Override
+		public void close() {
+		}
+
+		/** */
+		void finish() throws IOException {
+			if (fileOutput != null)
+				fileOutput.close();
+		}
+
+		/** */
+		void discard() {
+			if (chunks != null)
+				chunks.release();
+
+			if (file != null) {
+				try {
+					fileOutput.close();
+				} catch (IOException e) {
+					// Already failing
+				}
+				deleteQuietly(file);
+			}
+		}
+	}
+}
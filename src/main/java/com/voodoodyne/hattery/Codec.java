@@ -0,0 +1,60 @@
+package com.voodoodyne.hattery;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.ToString;
+import lombok.Value;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p>A Jackson data format that bodies can be sent and received in, keyed by its content type. JSON is built in
+ * (it uses the request's mapper); binary JSON-compatible formats are plugged in by giving their mapper, ie
+ * with jackson-dataformat-smile on the classpath:</p>
+ *
+ * <pre>{@code HTTP.codec(Codec.of(Codec.APPLICATION_SMILE, new SmileMapper()))}</pre>
+ *
+ * <p>The format modules are not dependencies of hattery; add the ones you use.</p>
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@ToString(exclude = "mapper")
+public class Codec {
+	/** Jackson Smile, from jackson-dataformat-smile */
+	public static final String APPLICATION_SMILE = "application/x-jackson-smile";
+
+	/** RFC 8949 CBOR, from jackson-dataformat-cbor */
+	public static final String APPLICATION_CBOR = "application/cbor";
+
+	/** Just the media type, lowercase and without parameters */
+	String contentType;
+
+	/** */
+	ObjectMapper mapper;
+
+	/** */
+	public static Codec of(final String contentType, final ObjectMapper mapper) {
+		Preconditions.checkNotNull(contentType);
+		Preconditions.checkNotNull(mapper);
+		return new Codec(mediaType(contentType), mapper);
+	}
+
+	/** @return the mapper of the codec registered for the content type, or the fallback (json) mapper */
+	static ObjectMapper mapperFor(final Map<String, Codec> codecs, final ObjectMapper fallback, final String contentType) {
+		if (contentType == null || codecs.isEmpty())
+			return fallback;
+
+		final Codec codec = codecs.get(mediaType(contentType));
+		return codec == null ? fallback : codec.getMapper();
+	}
+
+	/** Strips parameters, ie {@code application/json; charset=utf-8} becomes {@code application/json} */
+	static String mediaType(final String contentType) {
+		final int semi = contentType.indexOf(';');
+		final String type = (semi < 0) ? contentType : contentType.substring(0, semi);
+		return type.trim().toLowerCase(Locale.ROOT);
+	}
+}
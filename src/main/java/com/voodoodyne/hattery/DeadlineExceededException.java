@@ -0,0 +1,29 @@
+package com.voodoodyne.hattery;
+
+import lombok.Getter;
+
+import java.time.Instant;
+
+/**
+ * Thrown when a request runs out of the time given by {@code HttpRequest.deadline()}, whether before an
+ * attempt could start or because the last attempt timed out against the deadline.
+ */
+public class DeadlineExceededException extends IORuntimeException {
+	private static final long serialVersionUID = -2209165853428562364L;
+
+	/** The deadline that passed */
+	@Getter
+	private final Instant deadline;
+
+	/** */
+	public DeadlineExceededException(final Instant deadline) {
+		super("Deadline of " + deadline + " exceeded");
+		this.deadline = deadline;
+	}
+
+	/** */
+	public DeadlineExceededException(final Instant deadline, final Throwable cause) {
+		super("Deadline of " + deadline + " exceeded", cause);
+		this.deadline = deadline;
+	}
+}
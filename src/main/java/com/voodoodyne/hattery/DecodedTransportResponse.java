@@ -0,0 +1,11 @@
+package com.voodoodyne.hattery;
+
+/**
+ * A response whose body was bound to an object by the transport as it arrived (see
+ * {@code Transport.fetchAsync()}). The raw content is not kept, so the content stream and bytes are empty;
+ * HttpResponse's {@code as()} methods return the bound value instead of parsing.
+ */
+public interface DecodedTransportResponse extends TransportResponse {
+	/** The bound body */
+	Object getContentValue();
+}
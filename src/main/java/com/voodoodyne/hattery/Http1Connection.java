@@ -0,0 +1,803 @@
+package com.voodoodyne.hattery;
+
+import com.google.common.collect.ListMultimap;
+import com.voodoodyne.hattery.util.CaseInsensitiveMultimapView;
+import com.voodoodyne.hattery.util.HeaderName;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>One HTTP/1.1 connection over a non-blocking SocketChannel. Requests are written with gathering writes,
+ * the head from a direct buffer and the body from wherever it already is. Responses are parsed incrementally
+ * out of a direct read buffer; a body with a known length is read straight into its final array.</p>
+ *
+ * <p>Several requests may be written before any response is read (pipelining). Responses come back in order,
+ * so writing a request takes a ticket, and the response is read when that ticket reaches the front of the
+ * line. Reads and writes have their own selectors, so a request can be written while an earlier response is
+ * still being read.</p>
+ *
+ * <p>Timeouts work like socket read timeouts: each wait for the network can take at most that long.</p>
+ */
+@Slf4j
+final class Http1Connection implements Closeable {
+	/** Thrown when a request certainly got no response, so it is safe to send it again on another connection */
+	static class UnansweredException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		UnansweredException(final String message, final Throwable cause) {
+			super(message, cause);
+		}
+	}
+
+	/** A response's status line and headers (or a chunked body's trailers) may not be bigger than this */
+	private static final int MAX_HEAD_BYTES = 64 * 1024;
+
+	/** Nor have more header lines than this */
+	private static final int MAX_HEADER_LINES = 256;
+
+	/** */
+	private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+	/** */
+	private final SocketChannel channel;
+	private final Selector readSelector;
+	private final Selector writeSelector;
+
+	/** In read mode; the unread bytes are between position and limit */
+	private final ByteBuffer readBuffer;
+
+	/** For request heads, and for bodies which are written as they are serialized */
+	private ByteBuffer writeBuffer;
+
+	/** Only one request is written at a time */
+	private final Object writeLock = new Object();
+
+	/** Tickets of requests written but not yet answered, in order; guarded by this */
+	private final Deque<Object> line = new ArrayDeque<>();
+
+	/** Set when the connection can't be used any more; guarded by this */
+	private IOException failure;
+
+	/** False once either side has said the connection closes after the current response; guarded by this */
+	private boolean keepAlive = true;
+
+	/** What is left of MAX_HEAD_BYTES for the head being read; only touched by the reader at the front of the line */
+	private int headLeft;
+
+	/** Responses read so far; guarded by this */
+	@Getter
+	private int exchanges;
+
+	/** System.nanoTime() when the last response was read (or when connected) */
+	@Getter
+	private volatile long lastUsed = System.nanoTime();
+
+	/**
+	 * @param channel must be open but not yet connected; it is made non-blocking
+	 */
+	Http1Connection(final SocketChannel channel, final int bufferSize) throws IOException {
+		this.channel = channel;
+		this.readBuffer = ByteBuffer.allocateDirect(bufferSize).flip();
+		this.writeBuffer = ByteBuffer.allocateDirect(bufferSize);
+
+		channel.configureBlocking(false);
+		this.readSelector = Selector.open();
+		this.writeSelector = Selector.open();
+	}
+
+	/** Connect, waiting at most timeout millis (0 for no limit) */
+	void connect(final SocketAddress address, final int timeout) throws IOException {
+		try {
+			if (!channel.connect(address)) {
+				final SelectionKey key = channel.register(writeSelector, SelectionKey.OP_CONNECT);
+				while (!channel.finishConnect())
+					await(writeSelector, timeout, "Connect timed out");
+
+				key.interestOps(SelectionKey.OP_WRITE);
+			} else {
+				channel.register(writeSelector, SelectionKey.OP_WRITE);
+			}
+
+			channel.register(readSelector, SelectionKey.OP_READ);
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/** @return true if no requests are waiting for a response and the connection can take another */
+	synchronized boolean isIdle() {
+		return line.isEmpty() && keepAlive && failure == null;
+	}
+
+	/** @return how many requests are waiting for their responses */
+	synchronized int getPending() {
+		return line.size();
+	}
+
+	/** @return true if more requests can be written behind the ones already waiting */
+	synchronized boolean isUsable() {
+		return keepAlive && failure == null;
+	}
+
+	/**
+	 * An idle connection should have nothing to read. If it does, the server closed it (or sent garbage),
+	 * and it must not be reused.
+	 */
+	boolean isStale() throws IOException {
+		final int ready = readSelector.selectNow();
+		readSelector.selectedKeys().clear();
+		return ready > 0 || !channel.isOpen();
+	}
+
+	/**
+	 * Write the request and take a place in line for its response.
+	 *
+	 * @param target the request target, ie {@code /path?query}
+	 * @param host the Host header, unless the request has its own
+	 * @return the ticket to pass to receive()
+	 */
+	Object send(final HttpRequest request, final String target, final String host, final int timeout) throws IOException {
+		synchronized (writeLock) {
+			final Object ticket = new Object();
+			synchronized (this) {
+				if (failure != null || !keepAlive)
+					throw new UnansweredException("Connection is closing", failure);
+
+				line.add(ticket);
+			}
+
+			try {
+				writeRequest(request, target, host, timeout);
+			} catch (IOException | RuntimeException e) {
+				fail(e instanceof IOException ? (IOException)e : new IOException(e));
+				throw e;
+			}
+
+			return ticket;
+		}
+	}
+
+	/**
+	 * Wait for the ticket's turn, then read the response. The body is read completely.
+	 */
+	TransportResponse receive(final Object ticket, final HttpRequest request, final int timeout) throws IOException {
+		awaitTurn(ticket, timeout);
+
+		try {
+			final TransportResponse response = readResponse(request, timeout);
+			finish(ticket);
+			return response;
+		} catch (IOException | RuntimeException e) {
+			fail(e instanceof IOException ? (IOException)e : new IOException(e));
+			throw e;
+		}
+	}
+
+	/** Closes the connection; requests still in line fail */
+	@Override
+	public void close() {
+		fail(new UnansweredException("Connection closed", null));
+	}
+
+	/** Mark the connection as dead and wake everyone in line */
+	private void fail(final IOException cause) {
+		synchronized (this) {
+			if (failure == null)
+				failure = cause;
+
+			keepAlive = false;
+			notifyAll();
+		}
+
+		closeQuietly(channel);
+		closeQuietly(readSelector);
+		closeQuietly(writeSelector);
+	}
+
+	/** */
+	private static void closeQuietly(final Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			log.trace("Error closing {}", closeable, e);
+		}
+	}
+
+	/** */
+	private synchronized void awaitTurn(final Object ticket, final int timeout) throws IOException {
+		final long deadline = (timeout > 0) ? System.nanoTime() + timeout * 1_000_000L : 0;
+
+		while (failure == null && line.peekFirst() != ticket) {
+			try {
+				if (deadline == 0) {
+					wait();
+				} else {
+					final long remaining = (deadline - System.nanoTime()) / 1_000_000;
+					if (remaining <= 0)
+						break;
+
+					wait(remaining);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new UnansweredException("Interrupted waiting for a pipelined response", e);
+			}
+		}
+
+		if (failure != null)
+			throw new UnansweredException("Connection failed before the response", failure);
+
+		if (line.peekFirst() != ticket) {
+			// The response will arrive eventually, but nobody can wait for it; the connection is lost. The monitor
+			// is reentrant, and closing only wakes whoever is reading, so failing here can't deadlock.
+			final SocketTimeoutException timedOut = new SocketTimeoutException("Read timed out");
+			fail(timedOut);
+			throw timedOut;
+		}
+	}
+
+	/** The response was completely read */
+	private synchronized void finish(final Object ticket) {
+		line.remove(ticket);
+		exchanges++;
+		lastUsed = System.nanoTime();
+
+		if (!keepAlive && !line.isEmpty()) {
+			// Everyone behind us will never get an answer
+			failure = new UnansweredException("Server closed the connection", null);
+			notifyAll();
+		}
+		else {
+			notifyAll();
+		}
+
+		if (!keepAlive) {
+			closeQuietly(channel);
+			closeQuietly(readSelector);
+			closeQuietly(writeSelector);
+		}
+	}
+
+	/*
+	 * Writing
+	 */
+
+	/** */
+	private void writeRequest(final HttpRequest request, final String target, final String host, final int timeout) throws IOException {
+		final String contentType = request.getContentType();
+		final Object body = request.getBody();
+
+		if (contentType == null) {
+			writeFully(timeout, head(request, target, host, -1, false));
+		}
+		else if (body instanceof BufferedBody && ((BufferedBody)body).isInMemory()) {
+			final BufferedBody buffered = (BufferedBody)body;
+			final List<ByteBuffer> buffers = buffered.toByteBuffers();
+			final ByteBuffer[] all = new ByteBuffer[buffers.size() + 1];
+			all[0] = head(request, target, host, buffered.getLength(), false);
+			for (int i = 0; i < buffers.size(); i++)
+				all[i + 1] = buffers.get(i);
+
+			writeFully(timeout, all);
+		}
+		else if (body instanceof byte[]) {
+			final byte[] bytes = (byte[])body;
+			writeFully(timeout, head(request, target, host, bytes.length, false), ByteBuffer.wrap(bytes));
+		}
+		else if (body instanceof Path || body instanceof BufferedBody) {
+			final Path file = (body instanceof Path) ? (Path)body : ((BufferedBody)body).getFile();
+			try (final FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+				writeFully(timeout, head(request, target, host, source.size(), false));
+				transferFully(source, timeout);
+			}
+		}
+		else {
+			final long length = request.getContentLength();
+			writeFully(timeout, head(request, target, host, length, length < 0));
+
+			final BodyOutputStream output = new BodyOutputStream(length < 0, timeout);
+			request.writeBody(output);
+			output.finish();
+		}
+	}
+
+	/**
+	 * @return the request line and headers, in the write buffer
+	 * @throws IllegalArgumentException if a name or value would break the head's framing, or has characters which
+	 * don't fit ISO-8859-1
+	 */
+	private ByteBuffer head(final HttpRequest request, final String target, final String host, final long contentLength, final boolean chunked) {
+		final StringBuilder head = new StringBuilder(256);
+		head.append(checkName(request.getMethod(), "method")).append(' ').append(checkValue(target, "request target")).append(" HTTP/1.1\r\n");
+
+		boolean hasHost = false;
+		for (final Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+			final String name = checkName(header.getKey(), "header name");
+			hasHost |= name.equalsIgnoreCase("Host");
+			head.append(name).append(": ").append(checkValue(header.getValue(), name)).append("\r\n");
+		}
+
+		if (!hasHost)
+			head.append("Host: ").append(checkValue(host, "Host")).append("\r\n");
+
+		if (request.getContentType() != null)
+			head.append(HeaderName.CONTENT_TYPE.getName()).append(": ").append(checkValue(request.getContentType(), HeaderName.CONTENT_TYPE.getName())).append("\r\n");
+
+		if (chunked)
+			head.append(HeaderName.TRANSFER_ENCODING.getName()).append(": chunked\r\n");
+		else if (contentLength >= 0)
+			head.append(HeaderName.CONTENT_LENGTH.getName()).append(": ").append(contentLength).append("\r\n");
+
+		head.append("\r\n");
+
+		// Every character was checked to fit, so nothing is lost here
+		final byte[] bytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+		if (bytes.length > writeBuffer.capacity())
+			writeBuffer = ByteBuffer.allocateDirect(Integer.highestOneBit(bytes.length) * 2);
+
+		writeBuffer.clear();
+		writeBuffer.put(bytes);
+
+		return writeBuffer.flip();
+	}
+
+	/** Names (and the method) are tokens: printable ASCII without separators we would trip over */
+	private static String checkName(final String name, final String what) {
+		if (name.isEmpty())
+			throw new IllegalArgumentException("Empty " + what);
+
+		for (int i = 0; i < name.length(); i++) {
+			final char c = name.charAt(i);
+			if (c <= ' ' || c >= 0x7f || c == ':')
+				throw new IllegalArgumentException("Illegal character 0x" + Integer.toHexString(c) + " in " + what + " '" + name + "'");
+		}
+
+		return name;
+	}
+
+	/** Values may not end their line early; the value itself is left out of the message, it may be a credential */
+	private static String checkValue(final String value, final String what) {
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '\r' || c == '\n' || c == 0)
+				throw new IllegalArgumentException("CR, LF, or NUL in " + what);
+
+			if (c > 0xff)
+				throw new IllegalArgumentException("Character 0x" + Integer.toHexString(c) + " in " + what + " is not ISO-8859-1");
+		}
+
+		return value;
+	}
+
+	/** Write every buffer completely, waiting for the socket to drain as necessary */
+	private void writeFully(final int timeout, final ByteBuffer... buffers) throws IOException {
+		long remaining = 0;
+		for (final ByteBuffer buffer : buffers)
+			remaining += buffer.remaining();
+
+		int first = 0;
+		while (remaining > 0) {
+			while (!buffers[first].hasRemaining())
+				first++;
+
+			final long written = channel.write(buffers, first, buffers.length - first);
+			remaining -= written;
+
+			if (remaining > 0 && written == 0)
+				await(writeSelector, timeout, "Write timed out");
+		}
+	}
+
+	/** */
+	private void transferFully(final FileChannel source, final int timeout) throws IOException {
+		final long size = source.size();
+		long position = 0;
+		while (position < size) {
+			final long transferred = source.transferTo(position, size - position, channel);
+			position += transferred;
+
+			if (position < size && transferred == 0)
+				await(writeSelector, timeout, "Write timed out");
+		}
+	}
+
+	/**
+	 * Collects the body in the write buffer and writes it out whenever it fills, framed as chunks if the length
+	 * isn't known.
+	 */
+	private class BodyOutputStream extends OutputStream {
+		private final boolean chunked;
+		private final int timeout;
+
+		BodyOutputStream(final boolean chunked, final int timeout) {
+			this.chunked = chunked;
+			this.timeout = timeout;
+			writeBuffer.clear();
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			if (!writeBuffer.hasRemaining())
+				flushBuffer();
+
+			writeBuffer.put((byte)b);
+		}
+
+		@Override
+		public void write(final byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (!writeBuffer.hasRemaining())
+					flushBuffer();
+
+				final int count = Math.min(len, writeBuffer.remaining());
+				writeBuffer.put(b, off, count);
+				off += count;
+				len -= count;
+			}
+		}
+
+		/** */
+		private void flushBuffer() throws IOException {
+			writeBuffer.flip();
+			if (writeBuffer.hasRemaining()) {
+				if (chunked) {
+					final ByteBuffer size = ascii(Integer.toHexString(writeBuffer.remaining()) + "\r\n");
+					writeFully(timeout, size, writeBuffer, ascii("\r\n"));
+				} else {
+					writeFully(timeout, writeBuffer);
+				}
+			}
+			writeBuffer.clear();
+		}
+
+		/** Serializers like to close their target; finish() is the real end */
+		@Override
+		public void close() {
+		}
+
+		/** */
+		void finish() throws IOException {
+			flushBuffer();
+			if (chunked)
+				writeFully(timeout, ByteBuffer.wrap(LAST_CHUNK));
+		}
+	}
+
+	/** */
+	private static ByteBuffer ascii(final String value) {
+		return ByteBuffer.wrap(value.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/*
+	 * Reading
+	 */
+
+	/** */
+	private TransportResponse readResponse(final HttpRequest request, final int timeout) throws IOException {
+		int code;
+		boolean http10;
+		Map<String, List<String>> headers;
+
+		headLeft = MAX_HEAD_BYTES;
+
+		boolean first = true;
+		do {
+			final String status = readHeadLine(timeout, first);
+			first = false;
+
+			if (!status.startsWith("HTTP/1.") || status.length() < 12)
+				throw new IOException("Malformed status line: " + status);
+
+			http10 = status.charAt(7) == '0';
+			try {
+				code = Integer.parseInt(status.substring(9, 12));
+			} catch (NumberFormatException e) {
+				throw new IOException("Malformed status line: " + status);
+			}
+
+			headers = readHeaders(timeout);
+		} while (code >= 100 && code < 200);
+
+		final String connection = firstValue(headers, HeaderName.CONNECTION.getName());
+		final boolean close = http10
+				? (connection == null || !connection.equalsIgnoreCase("keep-alive"))
+				: (connection != null && connection.equalsIgnoreCase("close"));
+
+		final long limit = request.getMaxResponseBytes();
+		final String transferEncoding = firstValue(headers, HeaderName.TRANSFER_ENCODING.getName());
+		final String contentLength = firstValue(headers, HeaderName.CONTENT_LENGTH.getName());
+
+		final byte[] body;
+		boolean untilClose = false;
+		if (HttpMethod.HEAD.name().equals(request.getMethod()) || code == 204 || code == 304) {
+			body = new byte[0];
+		}
+		else if (transferEncoding != null && transferEncoding.toLowerCase().endsWith("chunked")) {
+			body = readChunked(limit, timeout);
+		}
+		else if (contentLength != null) {
+			final long length;
+			try {
+				length = Long.parseLong(contentLength.trim());
+			} catch (NumberFormatException e) {
+				throw new IOException("Bad Content-Length: " + contentLength);
+			}
+
+			if (limit > 0 && length > limit)
+				throw new ResponseTooLargeException(limit);
+
+			if (length > Integer.MAX_VALUE - 8)
+				throw new IOException("Response body too large for an array: " + length);
+
+			body = readFixed((int)length, timeout);
+		}
+		else {
+			body = readUntilClose(limit, timeout);
+			untilClose = true;
+		}
+
+		if (close || untilClose) {
+			synchronized (this) {
+				keepAlive = false;
+			}
+		}
+
+		final ListMultimap<String, String> view = new CaseInsensitiveMultimapView<>(headers, true);
+		final int responseCode = code;
+
+		return new TransportResponse() {
+			@Override
+			public int getResponseCode() {
+				return responseCode;
+			}
+
+			@Override
+			public InputStream getContentStream() {
+				return new ByteArrayInputStream(body);
+			}
+
+			@Override
+			public byte[] getContentBytes() {
+				return body;
+			}
+
+			@Override
+			public ListMultimap<String, String> getHeaders() {
+				return view;
+			}
+		};
+	}
+
+	/** Header names are kept as sent, but looked up without case */
+	private Map<String, List<String>> readHeaders(final int timeout) throws IOException {
+		final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+		int count = 0;
+		String line;
+		while (!(line = readHeadLine(timeout, false)).isEmpty()) {
+			if (++count > MAX_HEADER_LINES)
+				throw new IOException("Response has more than " + MAX_HEADER_LINES + " header lines");
+
+			final int colon = line.indexOf(':');
+			if (colon <= 0)
+				throw new IOException("Malformed header: " + line);
+
+			final String name = line.substring(0, colon).trim();
+			final String value = line.substring(colon + 1).trim();
+			headers.computeIfAbsent(name, k -> new ArrayList<>(1)).add(value);
+		}
+
+		return headers;
+	}
+
+	/** */
+	private static String firstValue(final Map<String, List<String>> headers, final String name) {
+		final List<String> values = headers.get(name);
+		return (values == null || values.isEmpty()) ? null : values.get(0);
+	}
+
+	/** A line of the head, counted against what is left of MAX_HEAD_BYTES */
+	private String readHeadLine(final int timeout, final boolean first) throws IOException {
+		final String line = readLine(timeout, first, headLeft);
+		headLeft -= line.length() + 2;
+		return line;
+	}
+
+	/**
+	 * @param first if true, the connection closing before anything is read means the request was never answered
+	 * @param max the most bytes the line may have
+	 * @return the line without its CRLF
+	 */
+	private String readLine(final int timeout, final boolean first, final int max) throws IOException {
+		final StringBuilder line = new StringBuilder(64);
+
+		while (true) {
+			while (readBuffer.hasRemaining()) {
+				final byte b = readBuffer.get();
+				if (b == '\n') {
+					final int length = line.length();
+					if (length > 0 && line.charAt(length - 1) == '\r')
+						line.setLength(length - 1);
+
+					return line.toString();
+				}
+
+				if (line.length() >= max)
+					throw new IOException("Response head is larger than " + MAX_HEAD_BYTES + " bytes");
+
+				line.append((char)(b & 0xff));
+			}
+
+			if (fill(timeout) < 0) {
+				if (first && line.length() == 0)
+					throw new UnansweredException("Connection closed before the response", null);
+
+				throw new EOFException("Connection closed in the middle of the response headers");
+			}
+		}
+	}
+
+	/** Read more from the channel into the read buffer; @return the number of bytes read, or -1 at the end */
+	private int fill(final int timeout) throws IOException {
+		readBuffer.compact();
+		try {
+			int read;
+			while ((read = channel.read(readBuffer)) == 0)
+				await(readSelector, timeout, "Read timed out");
+
+			return read;
+		} finally {
+			readBuffer.flip();
+		}
+	}
+
+	/** Whatever is left in the read buffer first, then straight from the channel into the array */
+	private void readInto(final byte[] dest, int offset, final int length, final int timeout) throws IOException {
+		final int buffered = Math.min(readBuffer.remaining(), length);
+		readBuffer.get(dest, offset, buffered);
+		offset += buffered;
+
+		final int end = offset + length - buffered;
+		if (offset == end)
+			return;
+
+		final ByteBuffer target = ByteBuffer.wrap(dest, offset, end - offset);
+		while (target.hasRemaining()) {
+			final int read = channel.read(target);
+			if (read < 0)
+				throw new EOFException("Connection closed with " + target.remaining() + " bytes of the body unread");
+
+			if (read == 0)
+				await(readSelector, timeout, "Read timed out");
+		}
+	}
+
+	/** Past MAX_PREALLOCATE, the array only grows once the bytes to fill it have actually arrived */
+	private byte[] readFixed(final int length, final int timeout) throws IOException {
+		byte[] body = new byte[Math.min(length, HttpRequest.MAX_PREALLOCATE)];
+		int offset = 0;
+
+		while (true) {
+			readInto(body, offset, body.length - offset, timeout);
+			offset = body.length;
+
+			if (offset == length)
+				return body;
+
+			body = Arrays.copyOf(body, (int)Math.min(length, offset * 2L));
+		}
+	}
+
+	/** */
+	private byte[] readChunked(final long limit, final int timeout) throws IOException {
+		final List<byte[]> chunks = new ArrayList<>();
+		long total = 0;
+
+		while (true) {
+			final String sizeLine = readLine(timeout, false, MAX_HEAD_BYTES);
+			final int semi = sizeLine.indexOf(';');
+			final int size;
+			try {
+				size = Integer.parseInt((semi < 0 ? sizeLine : sizeLine.substring(0, semi)).trim(), 16);
+			} catch (NumberFormatException e) {
+				throw new IOException("Malformed chunk size: " + sizeLine);
+			}
+
+			if (size < 0)
+				throw new IOException("Malformed chunk size: " + sizeLine);
+
+			if (size == 0)
+				break;
+
+			total += size;
+			if (limit > 0 && total > limit)
+				throw new ResponseTooLargeException(limit);
+
+			chunks.add(readFixed(size, timeout));
+
+			readLine(timeout, false, MAX_HEAD_BYTES);	// the CRLF after the data
+		}
+
+		// Trailers are ignored, but limited like a head
+		headLeft = MAX_HEAD_BYTES;
+		for (int count = 0; !readHeadLine(timeout, false).isEmpty(); count++) {
+			if (count >= MAX_HEADER_LINES)
+				throw new IOException("Response has more than " + MAX_HEADER_LINES + " trailer lines");
+		}
+
+		return concat(chunks, total);
+	}
+
+	/** */
+	private byte[] readUntilClose(final long limit, final int timeout) throws IOException {
+		final List<byte[]> parts = new ArrayList<>();
+		long total = 0;
+
+		do {
+			if (readBuffer.hasRemaining()) {
+				final byte[] part = new byte[readBuffer.remaining()];
+				readBuffer.get(part);
+				parts.add(part);
+
+				total += part.length;
+				if (limit > 0 && total > limit)
+					throw new ResponseTooLargeException(limit);
+			}
+		} while (fill(timeout) >= 0);
+
+		return concat(parts, total);
+	}
+
+	/** */
+	private static byte[] concat(final List<byte[]> parts, final long total) throws IOException {
+		if (parts.size() == 1)
+			return parts.get(0);
+
+		if (total > Integer.MAX_VALUE - 8)
+			throw new IOException("Response body too large for an array: " + total);
+
+		final byte[] all = new byte[(int)total];
+		int offset = 0;
+		for (final byte[] part : parts) {
+			System.arraycopy(part, 0, all, offset, part.length);
+			offset += part.length;
+		}
+
+		return all;
+	}
+
+	/** Wait for the selector's one key to be ready; 0 timeout waits forever */
+	private static void await(final Selector selector, final int timeout, final String message) throws IOException {
+		final int ready = selector.select(timeout);
+		selector.selectedKeys().clear();
+
+		if (ready == 0 && timeout > 0)
+			throw new SocketTimeoutException(message);
+	}
+}
@@ -0,0 +1,328 @@
+package com.voodoodyne.hattery;
+
+import com.voodoodyne.hattery.util.HeaderName;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Idle Http1Connections, kept per destination. The most recently used connection is handed out first, so
+ * connections that aren't needed age out; any idle longer than the idle timeout are closed the next time the
+ * pool is touched. Idle connections are checked for a server-side close before reuse.</p>
+ *
+ * <p>A connection leased for a pipelinable request can be leased again by other pipelinable requests, up to
+ * the pipeline depth, while its earlier responses are still outstanding.</p>
+ */
+@Slf4j
+final class Http1ConnectionPool implements Closeable {
+
+	/** Opens a new connection to a destination */
+	@FunctionalInterface
+	interface Connector {
+		Http1Connection connect(String destination, int timeout) throws IOException;
+	}
+
+	/** Sends one request, without following redirects; usually exchange() on the request's destination */
+	@FunctionalInterface
+	interface Hop {
+		TransportResponse exchange(HttpRequest request) throws IOException;
+	}
+
+	/** The request which follows a redirect, or null to return the redirect response */
+	@FunctionalInterface
+	interface Redirector {
+		HttpRequest redirect(HttpRequest request, int responseCode, String location);
+	}
+
+	/** A connection handed out by the pool, to be given back with release() */
+	static final class Lease {
+		final String destination;
+		final Http1Connection connection;
+		final boolean reused;
+
+		Lease(final String destination, final Http1Connection connection, final boolean reused) {
+			this.destination = destination;
+			this.connection = connection;
+			this.reused = reused;
+		}
+	}
+
+	/** Everything for one destination; guarded by the pool */
+	private static final class Destination {
+		/** Most recently used first */
+		final Deque<Http1Connection> idle = new ArrayDeque<>();
+
+		/** Connection -> number of leases outstanding */
+		final Map<Http1Connection, Integer> leased = new IdentityHashMap<>();
+
+		/** Leased connections which only pipelinable requests are using */
+		final List<Http1Connection> shared = new ArrayList<>();
+	}
+
+	/** */
+	private final Connector connector;
+	private final int maxIdle;
+	private final long idleTimeoutNanos;
+	private final int pipelineDepth;
+
+	/** */
+	private final Map<String, Destination> destinations = new HashMap<>();
+
+	/** */
+	private final LongAdder opened = new LongAdder();
+	private final LongAdder reused = new LongAdder();
+
+	/** */
+	private boolean closed;
+
+	/**
+	 * @param pipelineDepth is the most requests outstanding on one connection; 1 disables pipelining
+	 */
+	Http1ConnectionPool(final Connector connector, final int maxIdle, final long idleTimeoutMillis, final int pipelineDepth) {
+		this.connector = connector;
+		this.maxIdle = maxIdle;
+		this.idleTimeoutNanos = idleTimeoutMillis * 1_000_000;
+		this.pipelineDepth = pipelineDepth;
+	}
+
+	/** @return how many connections have been opened */
+	long getOpenedCount() {
+		return opened.sum();
+	}
+
+	/** @return how many times an existing connection was used again */
+	long getReusedCount() {
+		return reused.sum();
+	}
+
+	/**
+	 * The whole of Transport.fetch() for transports built on a pool: each hop is sent by the transport, timeouts
+	 * of replayable requests are retried, and redirects are followed (if the request wants that) up to
+	 * MAX_REDIRECTS.
+	 */
+	static TransportResponse fetch(final HttpRequest request, final Hop hop, final Redirector redirector) throws IOException {
+		for (int i = 0; ; i++) {
+			try {
+				return follow(request, hop, redirector);
+			} catch (SocketTimeoutException ex) {
+				if (i < request.getRetries() && request.isReplayable())
+					log.warn("Timeout error, retrying");
+				else
+					throw ex;
+			}
+		}
+	}
+
+	/** */
+	private static TransportResponse follow(HttpRequest request, final Hop hop, final Redirector redirector) throws IOException {
+		for (int redirects = 0; ; redirects++) {
+			final TransportResponse response = hop.exchange(request);
+
+			if (!request.isFollowRedirects() || !HttpRequest.isRedirect(response.getResponseCode()) || redirects >= HttpRequest.MAX_REDIRECTS)
+				return response;
+
+			final List<String> location = response.getHeaders().get(HeaderName.LOCATION.getName());
+			final HttpRequest next = location.isEmpty() ? null : redirector.redirect(request, response.getResponseCode(), location.get(0));
+			if (next == null)
+				return response;
+
+			request = next;
+		}
+	}
+
+	/**
+	 * One request and response, on a pooled connection. If a reused connection turns out to have been closed
+	 * by the server before it answered, an idempotent request is sent once more on a new connection.
+	 *
+	 * @param target the request target, ie {@code /path?query}
+	 * @param host the Host header, unless the request has its own
+	 */
+	TransportResponse exchange(final HttpRequest request, final String destination, final String target, final String host) throws IOException {
+		final boolean idempotent = isIdempotent(request.getMethod()) && request.isReplayable();
+		final boolean pipelinable = pipelineDepth > 1 && idempotent;
+
+		boolean fresh = false;
+		while (true) {
+			final int timeout = request.getAttemptTimeout();
+			final Lease lease = acquire(destination, timeout, pipelinable, fresh);
+			try {
+				final Object ticket = lease.connection.send(request, target, host, timeout);
+				return lease.connection.receive(ticket, request, timeout);
+			} catch (Http1Connection.UnansweredException ex) {
+				if (!lease.reused || !idempotent || fresh)
+					throw ex;
+
+				log.debug("Connection to {} closed before answering, resending on a new one", destination, ex);
+				fresh = true;
+			} finally {
+				release(lease);
+			}
+		}
+	}
+
+	/**
+	 * @param pipelinable if the request may share a connection with others waiting for responses
+	 * @param fresh to skip idle connections and always open a new one
+	 */
+	Lease acquire(final String destination, final int timeout, final boolean pipelinable, final boolean fresh) throws IOException {
+		final List<Http1Connection> stale = new ArrayList<>();
+		try {
+			synchronized (this) {
+				if (closed)
+					throw new IOException("Transport is closed");
+
+				final Destination dest = destinations.computeIfAbsent(destination, k -> new Destination());
+				evictExpired(dest, stale);
+
+				if (!fresh) {
+					Http1Connection conn;
+					while ((conn = dest.idle.pollFirst()) != null) {
+						if (conn.isIdle() && !conn.isStale()) {
+							lease(dest, conn, pipelinable);
+							reused.increment();
+							return new Lease(destination, conn, true);
+						}
+						stale.add(conn);
+					}
+
+					if (pipelinable && pipelineDepth > 1) {
+						final Http1Connection shared = leastBusy(dest);
+						if (shared != null) {
+							lease(dest, shared, true);
+							reused.increment();
+							return new Lease(destination, shared, true);
+						}
+					}
+				}
+			}
+		} finally {
+			stale.forEach(Http1Connection::close);
+		}
+
+		final Http1Connection conn = connector.connect(destination, timeout);
+		opened.increment();
+
+		synchronized (this) {
+			if (closed) {
+				conn.close();
+				throw new IOException("Transport is closed");
+			}
+
+			lease(destinations.computeIfAbsent(destination, k -> new Destination()), conn, pipelinable);
+		}
+
+		return new Lease(destination, conn, false);
+	}
+
+	/** Give the connection back; it goes back to the idle list when nobody is using it and it is still usable */
+	void release(final Lease lease) {
+		Http1Connection toClose = null;
+
+		synchronized (this) {
+			final Destination dest = destinations.get(lease.destination);
+			final Http1Connection conn = lease.connection;
+			final int count = (dest == null) ? 0 : dest.leased.getOrDefault(conn, 1) - 1;
+
+			if (dest == null) {
+				toClose = conn;	// the pool was closed
+			} else if (count > 0) {
+				dest.leased.put(conn, count);
+				if (!conn.isUsable())
+					dest.shared.remove(conn);
+			} else {
+				dest.leased.remove(conn);
+				dest.shared.remove(conn);
+
+				if (!closed && conn.isIdle() && dest.idle.size() < maxIdle)
+					dest.idle.addFirst(conn);
+				else
+					toClose = conn;
+			}
+		}
+
+		if (toClose != null)
+			toClose.close();
+	}
+
+	/** */
+	@Override
+	public void close() {
+		final List<Http1Connection> closing = new ArrayList<>();
+
+		synchronized (this) {
+			closed = true;
+			for (final Destination dest : destinations.values()) {
+				closing.addAll(dest.idle);
+				closing.addAll(dest.leased.keySet());
+			}
+			destinations.clear();
+		}
+
+		closing.forEach(Http1Connection::close);
+	}
+
+	/** Requests which can be sent twice without harm */
+	private static boolean isIdempotent(final String method) {
+		switch (method) {
+			case "GET":
+			case "HEAD":
+			case "PUT":
+			case "DELETE":
+			case "OPTIONS":
+			case "TRACE":
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/** */
+	private void lease(final Destination dest, final Http1Connection conn, final boolean pipelinable) {
+		final int count = dest.leased.merge(conn, 1, Integer::sum);
+		if (pipelinable && count == 1)
+			dest.shared.add(conn);
+		else if (!pipelinable)
+			dest.shared.remove(conn);
+	}
+
+	/** @return the shared connection with the fewest outstanding requests, if it has room for another */
+	private Http1Connection leastBusy(final Destination dest) {
+		Http1Connection best = null;
+		int bestCount = pipelineDepth;
+
+		for (final Http1Connection conn : dest.shared) {
+			final int count = dest.leased.get(conn);
+			if (count < bestCount && conn.isUsable()) {
+				best = conn;
+				bestCount = count;
+			}
+		}
+
+		return best;
+	}
+
+	/** The oldest idle connections are at the end */
+	private void evictExpired(final Destination dest, final List<Http1Connection> evicted) {
+		final long now = System.nanoTime();
+		final Iterator<Http1Connection> it = dest.idle.descendingIterator();
+		while (it.hasNext()) {
+			final Http1Connection conn = it.next();
+			if (now - conn.getLastUsed() < idleTimeoutNanos)
+				break;
+
+			it.remove();
+			evicted.add(conn);
+		}
+	}
+}
@@ -2,5 +2,5 @@ package com.voodoodyne.hattery;
 
 /** Explicit methods */
 public enum HttpMethod {
-	GET, POST, PUT, DELETE, PATCH;
+	GET, POST, PUT, DELETE, PATCH, HEAD;
 }
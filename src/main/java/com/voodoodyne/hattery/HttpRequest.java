@@ -22,29 +22,48 @@
 
 package com.voodoodyne.hattery;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.BaseEncoding;
 import com.google.common.io.ByteStreams;
+import com.voodoodyne.hattery.util.CaptureOutputStream;
+import com.voodoodyne.hattery.util.HeaderMap;
+import com.voodoodyne.hattery.util.HeaderName;
 import com.voodoodyne.hattery.util.MultipartWriter;
 import com.voodoodyne.hattery.util.QueryBuilder;
 import com.voodoodyne.hattery.util.TeeOutputStream;
 import lombok.*;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
 import java.util.function.Function;
 
 /**
@@ -55,10 +74,13 @@ import java.util.function.Function;
 @Value
 @AllArgsConstructor(access = AccessLevel.PACKAGE)
 @Slf4j
-@ToString(exclude = {"mapper", "preflight", "postflight", "body", "errorTranslator"})	// too noisy
+@ToString(exclude = {"mapper", "preflight", "postflight", "body", "errorTranslator", "accessLog", "interceptors", "codecs"})	// too noisy
 public class HttpRequest {
-	/** The immutable starting point for any http request chain */
-	public static HttpRequest HTTP = new HttpRequest(new Java11Transport());
+	/**
+	 * The immutable starting point for any http request chain. The default Java11Transport is not created
+	 * until the first fetch, so apps which replace the transport never pay for it.
+	 */
+	public static HttpRequest HTTP = new HttpRequest(new LazyTransport(Java11Transport::new));
 
 	/** */
 	public static final String APPLICATION_JSON = "application/json";
@@ -69,6 +91,15 @@ public class HttpRequest {
 	/** Just the first part of it for matching */
 	private static final String APPLICATION_X_WWW_FORM_URLENCODED_BEGINNING = APPLICATION_X_WWW_FORM_URLENCODED.split(";")[0];
 
+	/** For transports which follow redirects themselves; same as the JDK's default for http.maxRedirects */
+	static final int MAX_REDIRECTS = 20;
+
+	/**
+	 * Transports don't trust a Content-Length (or chunk size) bigger than this enough to allocate it up front;
+	 * the array starts this big and grows as the bytes actually arrive
+	 */
+	static final int MAX_PREALLOCATE = 1024 * 1024;
+
 	/** */
 	Transport transport;
 
@@ -87,7 +118,7 @@ public class HttpRequest {
 	/** Object to be jsonfied */
 	Object body;
 
-	/** */
+	/** Always a HeaderMap, which is case insensitive */
 	Map<String, String> headers;
 
 	/** 0 for no explicit timeout (aka default), otherwise measured in millis */
@@ -110,6 +141,30 @@ public class HttpRequest {
 
 	ErrorTranslator errorTranslator;
 
+	/** Gets a record of every exchange */
+	AccessLog accessLog;
+
+	/** Null to let the transport pick */
+	HttpVersion version;
+
+	/** 0 for no limit */
+	long maxResponseBytes;
+
+	/** Run in order around the transport call */
+	List<Interceptor> interceptors;
+
+	/** Null for no deadline */
+	Instant deadline;
+
+	/** Null unless a relative deadline is waiting for fetch to start the clock */
+	Duration budget;
+
+	/** Bodies are sent in this format; null for JSON with the mapper */
+	Codec codec;
+
+	/** Formats responses can be decoded from, keyed by media type; anything else is read as JSON */
+	Map<String, Codec> codecs;
+
 	/**
 	 * Default values
 	 */
@@ -118,7 +173,7 @@ public class HttpRequest {
 		this.method = HttpMethod.GET.name();
 		this.url = null;
 		this.params = Collections.emptyMap();
-		this.headers = Collections.emptyMap();
+		this.headers = HeaderMap.empty();
 		this.timeout = 0;
 		this.retries = 0;
 		this.mapper = new ObjectMapper();
@@ -128,17 +183,25 @@ public class HttpRequest {
 		this.postflight = Function.identity();
 		this.followRedirects = true;
 		this.errorTranslator = e -> e;
+		this.accessLog = new Slf4jAccessLog();
+		this.version = null;
+		this.maxResponseBytes = 0;
+		this.interceptors = Collections.emptyList();
+		this.deadline = null;
+		this.budget = null;
+		this.codec = null;
+		this.codecs = Collections.emptyMap();
 	}
 
 	/** Replace the existing transport */
 	public HttpRequest transport(final Transport transport) {
-		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator);
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
 	}
 
 	/** */
 	public HttpRequest method(final String method) {
 		Preconditions.checkNotNull(method);
-		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator);
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
 	}
 
 	/** */
@@ -171,12 +234,17 @@ public class HttpRequest {
 		return method(HttpMethod.PATCH);
 	}
 
+	/** Shortcut for method(HttpMethod.HEAD) */
+	public HttpRequest HEAD() {
+		return method(HttpMethod.HEAD);
+	}
+
 	/**
 	 * Replaces the existing url wholesale
 	 */
 	public HttpRequest url(final String url) {
 		Preconditions.checkNotNull(url);
-		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator);
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
 	}
 
 	/**
@@ -255,11 +323,20 @@ public class HttpRequest {
 		return POST().paramAnything(name, attachment);
 	}
 
+	/**
+	 * Set/override the parameter with a binary attachment read from a file. The file is not read until the
+	 * request is written, and is streamed rather than buffered in memory when the transport allows.
+	 */
+	public HttpRequest param(final String name, final Path file, final String contentType, final String filename) {
+		final BinaryAttachment attachment = new BinaryAttachment(file, contentType, filename);
+		return POST().paramAnything(name, attachment);
+	}
+
 	/**
 	 * Replace all the params with the specified values.
 	 */
 	public HttpRequest params(final Map<String, Object> params) {
-		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator);
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
 	}
 
 	/**
@@ -324,14 +401,24 @@ public class HttpRequest {
 	/** Private implementation lets us add anything, but don't expose that to the world */
 	private HttpRequest paramAnything(final String name, final Object value) {
 		final Map<String, Object> params = combine(this.params, name, value);
-		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator);
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
 	}
 
 	/**
-	 * Provide a body that will be turned into JSON.
+	 * Provide a body that will be turned into JSON (or the format of the codec). A few types are special; byte[], InputStream, Path
+	 * (the contents of the file), and Flow.Publisher&lt;ByteBuffer&gt; are submitted as-is.
 	 */
 	public HttpRequest body(final Object body) {
-		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator);
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
+	}
+
+	/**
+	 * Provide a body as a publisher of buffers, for uploads from a reactive pipeline. Java11Transport
+	 * subscribes it directly to the connection; other transports read it as a stream. The length is
+	 * unknown, so it is sent chunked. Like an InputStream body, it can only be sent once.
+	 */
+	public HttpRequest body(final Flow.Publisher<ByteBuffer> body) {
+		return body((Object)body);
 	}
 
 	/**
@@ -339,20 +426,21 @@ public class HttpRequest {
 	 * json, form encoded, or multipart). If you're doing anything unusual, set an explicit content type.
 	 */
 	public HttpRequest contentType(final String value) {
-		return new HttpRequest(transport, method, url, params, value, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator);
+		return new HttpRequest(transport, method, url, params, value, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
 	}
 
 	/**
 	 * Sets/overrides a header.  Value is not encoded in any particular way.
+	 * Header names are case insensitive; setting "foo" replaces "Foo".
 	 * Setting Content-Type is the same as calling contentType().
 	 * @param value can be null to remove a header
 	 */
 	public HttpRequest header(final String name, final String value) {
-		if (name.toLowerCase().equals("content-type"))
+		if (HeaderName.CONTENT_TYPE.matches(name))
 			return contentType(value);
 
-		final Map<String, String> headers = combine(this.headers, name, value);
-		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator);
+		final Map<String, String> headers = HeaderMap.copyOf(this.headers).with(name, value);
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
 	}
 
 	/**
@@ -360,40 +448,97 @@ public class HttpRequest {
 	 * the contentType field is set and excluded from the actual headers.
 	 */
 	public HttpRequest headers(final Map<String, String> headers) {
-		final Map<String, String> copiedHeaders = new LinkedHashMap<>();
+		final Map<String, String> filtered = new LinkedHashMap<>();
 
 		String contentType = this.contentType;
 
 		for (final Entry<String, String> header : headers.entrySet()) {
-			if (header.getKey().toLowerCase().equals("content-type")) {
+			if (HeaderName.CONTENT_TYPE.matches(header.getKey())) {
 				contentType = header.getValue();	// don't include it
 			} else {
-				copiedHeaders.put(header.getKey(), header.getValue());
+				filtered.put(header.getKey(), header.getValue());
 			}
 		}
 
-		return new HttpRequest(transport, method, url, params, contentType, body, Collections.unmodifiableMap(copiedHeaders), timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator);
+		filtered.values().removeIf(Objects::isNull);
+		final HeaderMap<String> copiedHeaders = HeaderMap.copyOf(filtered);
+
+		return new HttpRequest(transport, method, url, params, contentType, body, copiedHeaders, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
 	}
 
 	/**
 	 * Set a connection/read timeout in milliseconds, or 0 for no/default timeout.
 	 */
 	public HttpRequest timeout(final int millis) {
-		return new HttpRequest(transport, method, url, params, contentType, body, headers, millis, retries, mapper, preflight, postflight, followRedirects, errorTranslator);
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, millis, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
+	}
+
+	/**
+	 * <p>Set an overall deadline for the fetch, covering every retry and interceptor. Each attempt gets the
+	 * smaller of timeout() and the time remaining; once the deadline passes, no further attempt is made
+	 * and the fetch fails with DeadlineExceededException. Null removes the deadline.</p>
+	 *
+	 * <p>How much of an attempt the timeout covers is up to the transport. Java11Transport can only bound
+	 * the time until the response headers arrive; a body that trickles in after that is read to the end,
+	 * however long it takes. The NIO and URLConnection transports apply it to each read of the body instead.</p>
+	 */
+	public HttpRequest deadline(final Instant deadline) {
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, null, codec, codecs);
+	}
+
+	/**
+	 * Like deadline(Instant), but relative to when the fetch starts, so the request can be reused.
+	 * Null removes the deadline.
+	 */
+	public HttpRequest deadline(final Duration budget) {
+		Preconditions.checkArgument(budget == null || !budget.isNegative(), "deadline cannot be negative");
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, null, budget, codec, codecs);
 	}
 
 	/**
 	 * Set a retry count, or 0 for no retries
 	 */
 	public HttpRequest retries(final int retries) {
-		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator);
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
+	}
+
+	/**
+	 * <p>Send bodies in this format and ask for responses in it, with JSON as the fallback. The Content-Type of
+	 * a body defaults to the codec's, and the Accept header is set (call header() afterward to change it).
+	 * The codec is also registered to decode responses, which pick their format from the response Content-Type.</p>
+	 *
+	 * <p>Pass null to send JSON again; the codec stays registered and the Accept header is left alone.</p>
+	 */
+	public HttpRequest codec(final Codec codec) {
+		if (codec == null)
+			return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, null, codecs);
+
+		final Map<String, String> headers = HeaderMap.copyOf(this.headers).with(HeaderName.ACCEPT.getName(), codec.getContentType() + ", " + APPLICATION_JSON + ";q=0.5");
+		final Map<String, Codec> codecs = combine(this.codecs, codec.getContentType(), codec);
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
+	}
+
+	/**
+	 * Accept responses in this format (when the server chooses it) without sending bodies in it
+	 * or changing the Accept header.
+	 */
+	public HttpRequest registerCodec(final Codec codec) {
+		final Map<String, Codec> codecs = combine(this.codecs, codec.getContentType(), codec);
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, this.codec, codecs);
+	}
+
+	/**
+	 * @return the mapper for a body of this content type: a registered codec's, or the json mapper
+	 */
+	public ObjectMapper getMapperFor(final String contentType) {
+		return Codec.mapperFor(codecs, mapper, contentType);
 	}
 
 	/**
 	 * Set the mapper. Be somewhat careful here, ObjectMappers are themselves not immutable (sigh).
 	 */
 	public HttpRequest mapper(final ObjectMapper mapper) {
-		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator);
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
 	}
 
 	/**
@@ -416,7 +561,7 @@ public class HttpRequest {
 	 * so you can safely {@code request.preflight(request.getPreflight().andThen(yourfunction)}</p>
 	 */
 	public HttpRequest preflight(final Function<HttpRequest, HttpRequest> preflight) {
-		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator);
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
 	}
 
 	/**
@@ -434,7 +579,7 @@ public class HttpRequest {
 	 * so you can safely {@code request.postflight(request.getPostflight().andThen(yourfunction)}</p>
 	 */
 	public HttpRequest postflight(final Function<HttpResponse, HttpResponse> postflight) {
-		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator);
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
 	}
 
 	/**
@@ -450,7 +595,7 @@ public class HttpRequest {
 	 * - the same behavior as most http libraries.</p>
 	 */
 	public HttpRequest followRedirects(final boolean followRedirects) {
-		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator);
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
 	}
 
 	/**
@@ -458,7 +603,49 @@ public class HttpRequest {
 	 * more application-meaningful.
 	 */
 	public HttpRequest errorTranslator(final ErrorTranslator errorTranslator) {
-		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator);
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
+	}
+
+	/**
+	 * Replace the access log, which receives a record of each exchange. The default logs a line per exchange
+	 * to slf4j at INFO; use {@code AccessLog.NONE} to turn it off entirely.
+	 */
+	public HttpRequest accessLog(final AccessLog accessLog) {
+		Preconditions.checkNotNull(accessLog);
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
+	}
+
+	/**
+	 * Limit the size of response bodies, success or error, or 0 for no limit. Transports check Content-Length
+	 * up front and count bytes as they read; when the limit is passed the exchange is aborted and
+	 * ResponseTooLargeException is thrown, without buffering the rest of the body.
+	 */
+	public HttpRequest maxResponseBytes(final long maxResponseBytes) {
+		Preconditions.checkArgument(maxResponseBytes >= 0, "maxResponseBytes cannot be negative");
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
+	}
+
+	/**
+	 * Force a particular protocol version, or null (the default) to let the transport negotiate.
+	 * Transports which only speak one version ignore this.
+	 */
+	public HttpRequest version(final HttpVersion version) {
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
+	}
+
+	/**
+	 * <p>Add an interceptor to the end of the chain which wraps the transport call. Interceptors run after
+	 * preflight and before postflight, for blocking and async fetches alike.</p>
+	 */
+	public HttpRequest interceptor(final Interceptor interceptor) {
+		Preconditions.checkNotNull(interceptor);
+		final List<Interceptor> interceptors = ImmutableList.<Interceptor>builder().addAll(this.interceptors).add(interceptor).build();
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
+	}
+
+	/** Replace the whole interceptor chain; an empty list removes all interceptors */
+	public HttpRequest interceptors(final List<Interceptor> interceptors) {
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, ImmutableList.copyOf(interceptors), deadline, budget, codec, codecs);
 	}
 
 	/**
@@ -466,24 +653,274 @@ public class HttpRequest {
 	 * on the transport.
 	 */
 	public HttpResponse fetch() {
-		final HttpRequest preflighted = preflight.apply(this);
-		final HttpResponse response = preflighted.doFetch();
+		final HttpRequest preflighted = preflight.apply(startClock());
+		final HttpResponse response = preflighted.doFetch(null, false);
 		return postflight.apply(response);
 	}
 
+	/**
+	 * <p>Like fetch(), but the transport returns as soon as the response headers arrive and leaves the body
+	 * on the connection. Consume it with {@code asPublisher()} (which applies backpressure to the connection
+	 * with Java11Transport) or {@code asStream()}, or close the response to release the connection.</p>
+	 *
+	 * <p>Retries only cover getting the response headers; a failure while reading the body is yours to handle.</p>
+	 */
+	public HttpResponse fetchStreaming() {
+		final HttpRequest preflighted = preflight.apply(startClock());
+		final HttpResponse response = preflighted.doFetch(null, true);
+		return postflight.apply(response);
+	}
+
+	/**
+	 * <p>Execute the request without blocking, completing with the successful body bound to the type as JSON.
+	 * With Java11Transport, the body is parsed as it arrives on the client's threads; other transports
+	 * do a blocking fetch on the common pool.</p>
+	 *
+	 * <p>Preflight runs before the request is sent and postflight runs on the response, as with fetch().
+	 * An unsuccessful response completes the future exceptionally with HttpException (after the
+	 * errorTranslator); transport failures complete it with IORuntimeException.</p>
+	 */
+	public <T> CompletableFuture<T> fetchAsync(final Class<T> type) {
+		return fetchAsync(mapper.constructType(type));
+	}
+
+	/** Like fetchAsync(Class) */
+	public <T> CompletableFuture<T> fetchAsync(final TypeReference<T> type) {
+		return fetchAsync(mapper.getTypeFactory().constructType(type));
+	}
+
+	/** Like fetchAsync(Class) */
+	public <T> CompletableFuture<T> fetchAsync(final JavaType type) {
+		final HttpRequest preflighted = preflight.apply(startClock());
+		return preflighted.doFetchAsync(type).thenApply(response -> postflight.apply(response).as(type));
+	}
+
+	/**
+	 * Execute the request, writing a successful response body straight to the destination file (replacing it
+	 * if it exists) instead of holding it in memory. An error body is never written to the file; just like
+	 * {@code succeed()}, it becomes an HttpException which passes through the errorTranslator.
+	 *
+	 * @return the response, already checked for success. The body has been consumed.
+	 * @throws HttpException if response code is not successful
+	 */
+	public HttpResponse fetchToFile(final Path destination) throws HttpException, IORuntimeException {
+		Preconditions.checkNotNull(destination);
+
+		final HttpRequest preflighted = preflight.apply(startClock());
+		final HttpResponse response = preflighted.doFetch(destination, false);
+		return postflight.apply(response).succeed();
+	}
+
+	/**
+	 * <p>Like fetchToFile(), but downloads the body as several byte ranges in parallel, each written directly
+	 * at its offset in a preallocated file. Useful for very large resources where a single connection
+	 * limits throughput.</p>
+	 *
+	 * <p>A HEAD request is sent first to learn the length and check for {@code Accept-Ranges: bytes}; if the
+	 * server doesn't support ranges (or answers one with the whole body), this quietly becomes a normal
+	 * fetchToFile(). Each range is streamed to the file in bounded chunks and retried
+	 * independently, and ranges must match the ETag of the HEAD response. Preflight and postflight
+	 * run on every one of these requests.</p>
+	 *
+	 * @param parts the number of ranges (and concurrent requests)
+	 * @return the response to the HEAD request, or the full response if ranges were not used
+	 * @throws HttpException if response code is not successful
+	 */
+	public HttpResponse fetchToFileParallel(final Path destination, final int parts) throws HttpException, IORuntimeException {
+		Preconditions.checkNotNull(destination);
+		Preconditions.checkArgument(parts > 0, "parts must be positive");
+
+		return new RangedDownload(startClock(), destination, parts).execute();
+	}
+
+	/** A relative deadline becomes absolute when the fetch starts */
+	private HttpRequest startClock() {
+		if (budget == null)
+			return this;
+
+		final Instant fromBudget = Instant.now().plus(budget);
+		final Instant earliest = (deadline != null && deadline.isBefore(fromBudget)) ? deadline : fromBudget;
+		return new HttpRequest(transport, method, url, params, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, earliest, null, codec, codecs);
+	}
+
+	/**
+	 * @return the time left before the deadline (which can be negative), or null if there is no deadline.
+	 *         Before the fetch starts, a relative deadline is returned as-is.
+	 */
+	public Duration getRemaining() {
+		if (budget != null)
+			return budget;
+
+		return deadline == null ? null : Duration.between(Instant.now(), deadline);
+	}
+
+	/**
+	 * @throws DeadlineExceededException if the deadline has passed
+	 */
+	public void checkDeadline() throws DeadlineExceededException {
+		final Duration remaining = getRemaining();
+		if (remaining != null && (remaining.isNegative() || remaining.isZero()))
+			throw new DeadlineExceededException(deadline);
+	}
+
+	/**
+	 * What transports should use as the timeout for the next attempt: the smaller of timeout() and the time
+	 * left before the deadline. 0 means no timeout, as with timeout().
+	 *
+	 * @throws DeadlineExceededException if the deadline has passed
+	 */
+	public int getAttemptTimeout() throws DeadlineExceededException {
+		checkDeadline();
+
+		final Duration remaining = getRemaining();
+		if (remaining == null)
+			return timeout;
+
+		// Round up so that we never ask for a zero (infinite) timeout
+		final long millis = Math.max(1, (remaining.toNanos() + 999_999) / 1_000_000);
+		return (timeout > 0 && timeout < millis) ? timeout : (int)Math.min(millis, Integer.MAX_VALUE);
+	}
+
 	/**
 	 * Actually do the work after preflight and before postflight
+	 * @param destination if not null, a successful body is written to this file
+	 * @param streaming if true, the body is left on the connection
 	 */
-	private HttpResponse doFetch() {
+	private HttpResponse doFetch(final Path destination, final boolean streaming) {
 		Preconditions.checkState(url != null);
 
-		log.info("Fetching {}", this);
-		log.debug("{} {}", getMethod(), toUrlString());
+		if (log.isDebugEnabled())
+			log.debug("{} {}", getMethod(), toUrlString());
+
+		// Don't measure anything unless we are going to record it
+		final boolean sampled = accessLog.isSampled();
+		final long timestamp = sampled ? System.currentTimeMillis() : 0;
+		final long start = sampled ? System.nanoTime() : 0;
 
 		try {
-			return new HttpResponse(getTransport().fetch(this), getMapper(), getErrorTranslator());
-		} catch (IOException e) {
-			throw new IORuntimeException(e);
+			final TransportResponse response = InterceptorChain.proceed(this, request -> {
+				request.checkDeadline();
+
+				final HttpRequest buffered = request.withBufferedBody();
+				final TransportResponse transportResponse;
+				try {
+					transportResponse = (destination != null) ? buffered.getTransport().fetchToFile(buffered, destination)
+							: streaming ? buffered.getTransport().fetchStreaming(buffered)
+							: buffered.getTransport().fetch(buffered);
+				} catch (IOException | RuntimeException e) {
+					releaseBody(buffered, false);
+					throw e;
+				}
+
+				releaseBody(buffered, true);
+				return transportResponse;
+			});
+
+			if (sampled)
+				recordSuccess(timestamp, start, response);
+
+			return new HttpResponse(response, getMapper(), getCodecs(), getErrorTranslator());
+		} catch (IOException | IORuntimeException e) {
+			final IORuntimeException failure = failure(e);
+			if (sampled)
+				accessLog.record(new AccessLogRecord(timestamp, method, url, 0, -1, System.nanoTime() - start, failure));
+
+			throw failure;
+		}
+	}
+
+	/**
+	 * The async version of doFetch(). Failures complete the future with the same exceptions that doFetch() throws.
+	 */
+	private CompletableFuture<HttpResponse> doFetchAsync(final JavaType type) {
+		Preconditions.checkState(url != null);
+
+		if (log.isDebugEnabled())
+			log.debug("{} {} (async)", getMethod(), toUrlString());
+
+		final boolean sampled = accessLog.isSampled();
+		final long timestamp = sampled ? System.currentTimeMillis() : 0;
+		final long start = sampled ? System.nanoTime() : 0;
+
+		final CompletableFuture<TransportResponse> future;
+		try {
+			future = InterceptorChain.proceedAsync(this, type, request -> {
+				request.checkDeadline();
+
+				final HttpRequest buffered = request.withBufferedBody();
+				try {
+					return buffered.getTransport().fetchAsync(buffered, type)
+							.whenComplete((response, ex) -> releaseBody(buffered, ex == null));
+				} catch (IOException | RuntimeException e) {
+					releaseBody(buffered, false);
+					throw e;
+				}
+			});
+		} catch (IOException | IORuntimeException e) {
+			final IORuntimeException failure = failure(e);
+			if (sampled)
+				accessLog.record(new AccessLogRecord(timestamp, method, url, 0, -1, System.nanoTime() - start, failure));
+
+			return CompletableFuture.failedFuture(failure);
+		}
+
+		return future.handle((response, ex) -> {
+			if (ex != null) {
+				final Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+				if (sampled)
+					accessLog.record(new AccessLogRecord(timestamp, method, url, 0, -1, System.nanoTime() - start, cause));
+
+				throw new CompletionException((cause instanceof IOException || cause instanceof IORuntimeException) ? failure(cause) : cause);
+			}
+
+			try {
+				if (sampled)
+					recordSuccess(timestamp, start, response);
+			} catch (IOException e) {
+				throw new CompletionException(new IORuntimeException(e));
+			}
+
+			return new HttpResponse(response, getMapper(), getCodecs(), getErrorTranslator());
+		});
+	}
+
+	/**
+	 * @return the exception a failed fetch should throw; a timeout which ran into the deadline means the
+	 *         deadline was exceeded
+	 */
+	private IORuntimeException failure(final Throwable e) {
+		if (deadline != null && !(e instanceof DeadlineExceededException) && isTimeout(e) && !Instant.now().isBefore(deadline))
+			return new DeadlineExceededException(deadline, e);
+
+		return (e instanceof IORuntimeException) ? (IORuntimeException)e : new IORuntimeException(e);
+	}
+
+	/** */
+	private static boolean isTimeout(final Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof HttpTimeoutException || cause instanceof SocketTimeoutException)
+				return true;
+		}
+
+		return false;
+	}
+
+	/** */
+	private void recordSuccess(final long timestamp, final long start, final TransportResponse response) throws IOException {
+		accessLog.record(new AccessLogRecord(timestamp, method, url, response.getResponseCode(), contentLength(response), System.nanoTime() - start, null));
+	}
+
+	/** @return the Content-Length response header, or -1 if not present */
+	private long contentLength(final TransportResponse response) throws IOException {
+		// Transport headers are not necessarily case insensitive
+		List<String> values = response.getHeaders().get(HeaderName.CONTENT_LENGTH.getName());
+		if (values.isEmpty())
+			values = response.getHeaders().get("content-length");
+
+		try {
+			return values.isEmpty() ? -1 : Long.parseLong(values.get(0).trim());
+		} catch (NumberFormatException e) {
+			return -1;
 		}
 	}
 
@@ -524,7 +961,7 @@ public class HttpRequest {
 			return contentType;
 
 		if (body != null)
-			return APPLICATION_JSON;
+			return (codec != null) ? codec.getContentType() : APPLICATION_JSON;
 
 		if (isPOST()) {
 			if (hasBinaryAttachments()) {
@@ -543,7 +980,11 @@ public class HttpRequest {
 	public void writeBody(OutputStream output) throws IOException {
 		final String ctype = getContentType();
 
-		if (MultipartWriter.CONTENT_TYPE.equals(ctype)) {
+		if (body instanceof BufferedBody) {
+			// Already serialized (and logged)
+			((BufferedBody)body).writeTo(output);
+		}
+		else if (MultipartWriter.CONTENT_TYPE.equals(ctype)) {
 			log.debug("Writing multipart body");
 			final MultipartWriter writer = new MultipartWriter(output);
 			writer.write(QueryParamValue.filterOut(params));
@@ -565,6 +1006,24 @@ public class HttpRequest {
 			final long length = ByteStreams.copy((InputStream)body, output);
 			log.debug("Wrote InputStream body of length {}", length);
 		}
+		else if (body instanceof Path) {
+			// Don't tee, probably binary
+			final long length = Files.copy((Path)body, output);
+			log.debug("Wrote Path body of length {}", length);
+		}
+		else if (body instanceof Flow.Publisher) {
+			// Don't tee, probably binary
+			@SuppressWarnings("unchecked")
+			final Flow.Publisher<ByteBuffer> publisher = (Flow.Publisher<ByteBuffer>)body;
+			try (final InputStream input = toInputStream(publisher)) {
+				final long length = ByteStreams.copy(input, output);
+				log.debug("Wrote Publisher body of length {}", length);
+			}
+		}
+		else if (ctype != null && codecs.containsKey(Codec.mediaType(ctype))) {
+			// Don't tee, probably binary
+			getMapperFor(ctype).writeValue(output, body);
+		}
 		else if (APPLICATION_JSON.equals(ctype) || APPLICATION_XML.equals(ctype) || TEXT_XML.equals(ctype)) {
 			output = tee(output);
 			mapper.writeValue(output, body);
@@ -580,19 +1039,191 @@ public class HttpRequest {
 		}
 
 		if (output instanceof TeeOutputStream) {
-			final byte[] bytes = ((ByteArrayOutputStream)((TeeOutputStream)output).getTwo()).toByteArray();
-			if (bytes.length > 0) {
-				if (log.isTraceEnabled()) {
-					log.debug("Wrote body, {} bytes: {}", bytes.length, new String(bytes, StandardCharsets.UTF_8));
-				} else if (log.isDebugEnabled()) {
-					// Put a reasonable cap on how long this can be, otherwise we might generate excessive logging
-					final int length = Math.min(1000, bytes.length);
-					log.debug("Wrote body, {} bytes: {}", bytes.length, new String(bytes, 0, length, StandardCharsets.UTF_8));
-				}
+			// The capture has a fixed size, so only the ends of a large body are kept
+			final CaptureOutputStream capture = (CaptureOutputStream)((TeeOutputStream)output).getTwo();
+			if (capture.getCount() > 0) {
+				log.debug("Wrote body, {} bytes: {}", capture.getCount(), capture);
 			}
 		}
 	}
 
+	/**
+	 * @return the exact number of bytes writeBody() will produce, if that can be known without actually
+	 * writing the body; otherwise -1.
+	 */
+	public long getContentLength() throws IOException {
+		if (isMultipart())
+			return MultipartWriter.contentLength(QueryParamValue.filterOut(params));
+		else if (body instanceof byte[])
+			return ((byte[])body).length;
+		else if (body instanceof BufferedBody)
+			return ((BufferedBody)body).getLength();
+		else if (body == null && paramsAreInContent())
+			return getQuery(QueryParamValue.filterOut(params)).getBytes(StandardCharsets.UTF_8).length;
+		else if (body instanceof Path)
+			return Files.size((Path)body);
+		else
+			return -1;
+	}
+
+	/**
+	 * @return false if the body is an InputStream or Flow.Publisher, which can only be sent once. Transports
+	 *         must not retry such requests.
+	 */
+	public boolean isReplayable() {
+		return !(body instanceof InputStream || body instanceof Flow.Publisher);
+	}
+
+	/**
+	 * Serialize an object (or form) body once, so that the transport's retries and redirects replay the bytes
+	 * instead of running the serializer again. Bodies that are already bytes or files, streams (which can't be
+	 * replayed anyway), and multipart (which streams its attachments) are left alone. So are the bodies of
+	 * requests to transports which don't want them serialized, ie InProcessTransport, whose handlers get the
+	 * body object itself.
+	 *
+	 * @return a request with a BufferedBody, or this request if there is nothing to serialize
+	 */
+	HttpRequest withBufferedBody() throws IOException {
+		final String ctype = getContentType();
+		if (ctype == null || isMultipart() || body instanceof BufferedBody || body instanceof byte[] || body instanceof Path || !isReplayable()
+				|| !transport.wantsSerializedBody())
+			return this;
+
+		// Pin the content type; with a body, it would no longer be inferred as form encoded
+		return new HttpRequest(transport, method, url, params, ctype, BufferedBody.of(this), headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
+	}
+
+	/** @return true for the response codes redirect() follows */
+	static boolean isRedirect(final int responseCode) {
+		return responseCode == 301 || responseCode == 302 || responseCode == 303 || responseCode == 307 || responseCode == 308;
+	}
+
+	/**
+	 * The request to send next, for transports which follow redirects themselves. As browsers do, a 303 (or
+	 * a 301 or 302 of a POST) becomes a GET without a body (or content headers); otherwise the method and
+	 * body are repeated. The location replaces the url, including any query parameters. Like HttpURLConnection,
+	 * a redirect from https to http is not followed, and credentials (Authorization, Proxy-Authorization, and
+	 * Cookie) are dropped when the scheme, host, or port changes.
+	 *
+	 * @return null if the redirect shouldn't be followed, or the body would have to be repeated but can't be
+	 */
+	HttpRequest redirect(final int responseCode, final String location) {
+		final URI from = URI.create(toUrlString());
+		final URI to = from.resolve(location);
+		return redirect(responseCode, to.toString(), isSameOrigin(from, to));
+	}
+
+	/**
+	 * Like redirect(int, String), for transports with their own idea of an origin
+	 *
+	 * @param target the absolute url to go to
+	 * @param sameOrigin false to drop credentials
+	 */
+	HttpRequest redirect(final int responseCode, final String target, final boolean sameOrigin) {
+		if ("https".equalsIgnoreCase(URI.create(toUrlString()).getScheme()) && "http".equalsIgnoreCase(URI.create(target).getScheme()))
+			return null;
+
+		final boolean toGet = !HttpMethod.HEAD.name().equals(method) && (responseCode == 303 || ((responseCode == 301 || responseCode == 302) && isPOST()));
+		final Map<String, String> headers = redirectHeaders(sameOrigin, toGet);
+
+		if (toGet)
+			return new HttpRequest(transport, HttpMethod.GET.name(), target, Collections.emptyMap(), null, null, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
+
+		if (!isReplayable())
+			return null;
+
+		// Parameters which are part of the body still are
+		final Map<String, Object> content = paramsAreInContent() ? QueryParamValue.filterOut(params) : Collections.emptyMap();
+		return new HttpRequest(transport, method, target, content, contentType, body, headers, timeout, retries, mapper, preflight, postflight, followRedirects, errorTranslator, accessLog, version, maxResponseBytes, interceptors, deadline, budget, codec, codecs);
+	}
+
+	/** Same scheme, host, and (effective) port. A url without a host is never the same origin as another. */
+	static boolean isSameOrigin(final URI from, final URI to) {
+		return from.getHost() != null
+				&& from.getScheme().equalsIgnoreCase(to.getScheme())
+				&& from.getHost().equalsIgnoreCase(to.getHost())
+				&& effectivePort(from) == effectivePort(to);
+	}
+
+	/** */
+	private static int effectivePort(final URI uri) {
+		if (uri.getPort() >= 0)
+			return uri.getPort();
+
+		return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+	}
+
+	/** The headers to send along with a redirect, minus credentials for another origin and content headers of a dropped body */
+	private Map<String, String> redirectHeaders(final boolean sameOrigin, final boolean bodyDropped) {
+		if (sameOrigin && !bodyDropped)
+			return headers;
+
+		final Map<String, String> kept = new LinkedHashMap<>();
+		for (final Entry<String, String> header : headers.entrySet()) {
+			final String name = header.getKey();
+
+			final boolean credential = HeaderName.AUTHORIZATION.matches(name) || HeaderName.PROXY_AUTHORIZATION.matches(name) || HeaderName.COOKIE.matches(name);
+			final boolean content = name.regionMatches(true, 0, "Content-", 0, "Content-".length()) || HeaderName.TRANSFER_ENCODING.matches(name);
+
+			if ((credential && !sameOrigin) || (content && bodyDropped))
+				continue;
+
+			kept.put(name, header.getValue());
+		}
+
+		return HeaderMap.copyOf(kept);
+	}
+
+	/** Once the transport is done with the request; see BufferedBody.release() */
+	private static void releaseBody(final HttpRequest request, final boolean succeeded) {
+		if (request.body instanceof BufferedBody)
+			((BufferedBody)request.body).release(succeeded);
+	}
+
+	/** @return true if the body is multipart/form-data */
+	public boolean isMultipart() {
+		return MultipartWriter.CONTENT_TYPE.equals(getContentType());
+	}
+
+	/**
+	 * For multipart requests, the body as a stream that is produced while it is read. Files are opened only
+	 * when reading reaches them, so large attachments never need to be held in memory.
+	 */
+	public InputStream openMultipartStream() {
+		Preconditions.checkState(isMultipart(), "Not a multipart request");
+		Preconditions.checkState(body == null, "Cannot specify body() for type %s", getContentType());
+		return MultipartWriter.toInputStream(QueryParamValue.filterOut(params));
+	}
+
+	/** Subscribes to the publisher, requesting buffers as the stream is read */
+	private static InputStream toInputStream(final Flow.Publisher<ByteBuffer> publisher) {
+		final BodySubscriber<InputStream> subscriber = BodySubscribers.ofInputStream();
+
+		publisher.subscribe(new Flow.Subscriber<ByteBuffer>() {
+			@Override
+			public void onSubscribe(final Flow.Subscription subscription) {
+				subscriber.onSubscribe(subscription);
+			}
+
+			@Override
+			public void onNext(final ByteBuffer item) {
+				subscriber.onNext(List.of(item));
+			}
+
+			@Override
+			public void onError(final Throwable throwable) {
+				subscriber.onError(throwable);
+			}
+
+			@Override
+			public void onComplete() {
+				subscriber.onComplete();
+			}
+		});
+
+		return subscriber.getBody().toCompletableFuture().join();
+	}
+
 	private Charset guessCharset(final String ctype) {
 		if (ctype == null)
 			return StandardCharsets.UTF_8;
@@ -607,8 +1238,9 @@ public class HttpRequest {
 	}
 
 	private OutputStream tee(final OutputStream output) {
-		if (log.isDebugEnabled()) {
-			return new TeeOutputStream(output, new ByteArrayOutputStream());
+		final CaptureOutputStream capture = CaptureOutputStream.forLogger(log);
+		if (capture != null) {
+			return new TeeOutputStream(output, capture);
 		} else {
 			return output;
 		}
@@ -1,39 +1,64 @@
 package com.voodoodyne.hattery;
 
+import com.fasterxml.jackson.core.JsonPointer;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ListMultimap;
-import com.voodoodyne.hattery.util.CaseInsensitiveListMultimap;
+import com.google.common.collect.Multimaps;
+import com.voodoodyne.hattery.util.CaptureOutputStream;
+import com.voodoodyne.hattery.util.CaseInsensitiveMultimapView;
+import com.voodoodyne.hattery.util.HeaderName;
+import com.voodoodyne.hattery.util.TeeInputStream;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Flow;
 
 /**
  * Returned by request execution.
  *
  * Because of header caching, this object is not thread safe.
+ *
+ * If you stream the content (or don't read it at all), close the response when you are done with it
+ * so the underlying connection can be reused. Closing is harmless if the body was already consumed.
  */
 @RequiredArgsConstructor
-@ToString(exclude = "mapper")
-public class HttpResponse {
+@ToString(exclude = {"mapper", "codecs"})
+@Slf4j
+public class HttpResponse implements AutoCloseable {
 	@Getter
 	private final TransportResponse transportResponse;
 
 	@Getter
 	private final ObjectMapper mapper;
 
+	/** Formats the body can be decoded from, keyed by media type */
+	private final Map<String, Codec> codecs;
+
 	private final ErrorTranslator errorTranslator;
 
-	private CaseInsensitiveListMultimap<String> cachedHeaders;
+	private CaseInsensitiveMultimapView<String> cachedHeaders;
+
+	/** For responses to requests with no codecs; everything is JSON */
+	public HttpResponse(final TransportResponse transportResponse, final ObjectMapper mapper, final ErrorTranslator errorTranslator) {
+		this(transportResponse, mapper, Collections.emptyMap(), errorTranslator);
+	}
 
 	/** The http response code */
 	public int getResponseCode() throws IORuntimeException {
@@ -49,8 +74,24 @@ public class HttpResponse {
 	 * @return a collection that is case insensitive, case preserving, unmodifiable
 	 */
 	public ListMultimap<String, String> getHeaders() throws IORuntimeException {
+		return headerView();
+	}
+
+	/** The values of a well-known header; the name is already hashed */
+	List<String> getHeaders(final HeaderName name) throws IORuntimeException {
+		return headerView().get(name);
+	}
+
+	/** */
+	@SuppressWarnings("unchecked")
+	private CaseInsensitiveMultimapView<String> headerView() {
 		if (cachedHeaders == null) {
-			cachedHeaders = new CaseInsensitiveListMultimap<>(getTransportHeaders());
+			final ListMultimap<String, String> headers = getTransportHeaders();
+
+			// Our own transports already provide a case insensitive view; anything else gets wrapped, not copied
+			cachedHeaders = (headers instanceof CaseInsensitiveMultimapView)
+					? (CaseInsensitiveMultimapView<String>)headers
+					: new CaseInsensitiveMultimapView<>(Multimaps.asMap(headers), false);
 		}
 
 		return cachedHeaders;
@@ -69,7 +110,7 @@ public class HttpResponse {
 	 * @return the value of the Location header, if it exists
 	 */
 	public Optional<String> getLocation() throws IORuntimeException {
-		final List<String> location = getHeaders().get("Location");
+		final List<String> location = getHeaders(HeaderName.LOCATION);
 		return location.isEmpty() ? Optional.empty() : Optional.of(location.get(0));
 	}
 
@@ -78,8 +119,8 @@ public class HttpResponse {
 	 * @return the value of the Content-Type header, if it exists
 	 */
 	public Optional<String> getContentType() throws IORuntimeException {
-		final List<String> location = getHeaders().get("Content-Type");
-		return location.isEmpty() ? Optional.empty() : Optional.of(location.get(0));
+		final List<String> contentType = getHeaders(HeaderName.CONTENT_TYPE);
+		return contentType.isEmpty() ? Optional.empty() : Optional.of(contentType.get(0));
 	}
 
 	/**
@@ -88,14 +129,20 @@ public class HttpResponse {
 	 * @throws HttpException if response code is not successful
 	 */
 	public HttpResponse succeed() throws HttpException {
-		if (getResponseCode() < 200 || getResponseCode() >= 400)
+		if (!isSuccess(getResponseCode()))
 			throw errorTranslator.translate(new HttpException(getResponseCode(), getHeaders(), getContentBytes()));
 
 		return this;
 	}
 
+	/** The same definition of success that succeed() uses */
+	static boolean isSuccess(final int responseCode) {
+		return responseCode >= 200 && responseCode < 400;
+	}
+
 	/**
-	 * Convert the response to a JSON object using Jackson
+	 * Convert the response to a JSON object using Jackson. If the response Content-Type is one of the
+	 * request's codecs (ie Smile), that format is decoded instead.
 	 * @throws HttpException if there was a nonsuccess error code
 	 */
 	public <T> T as(final Class<T> type) throws HttpException, IORuntimeException {
@@ -123,11 +170,33 @@ public class HttpResponse {
 		return succeed().getContentStream();
 	}
 
+	/**
+	 * The body content of the response as a publisher, throwing HttpException if response code is not successful.
+	 * After {@code HttpRequest.fetchStreaming()} with Java11Transport, demand is applied to the connection
+	 * itself; otherwise buffers are read from the content stream as they are requested.
+	 */
+	public Flow.Publisher<ByteBuffer> asPublisher() throws HttpException, IORuntimeException {
+		return succeed().getContentPublisher();
+	}
+
 	/** The body content of the response, throwing HttpException if response code is not successful */
 	public byte[] asBytes() throws HttpException, IORuntimeException {
 		return succeed().getContentBytes();
 	}
 
+	/**
+	 * Write the body content of the response to a file, replacing it if it exists. If you know up front that
+	 * you want the body in a file, {@code HttpRequest.fetchToFile()} avoids holding it in memory at all.
+	 * @throws HttpException if there was a nonsuccess error code
+	 */
+	public void asFile(final Path destination) throws HttpException, IORuntimeException {
+		try (final InputStream content = asStream()) {
+			Files.copy(content, destination, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			throw new IORuntimeException(e);
+		}
+	}
+
 	/**
 	 * Convert the response to a string.
 	 * @throws HttpException if there was a nonsuccess error code
@@ -149,10 +218,79 @@ public class HttpResponse {
 		return as(JsonNode.class);
 	}
 
+	/**
+	 * <p>Pull just these values out of a JSON response. The body is parsed as a stream: subtrees which no
+	 * pointer leads into are skipped without being built, and reading stops as soon as every pointer has
+	 * been found. Much cheaper than asNode() when you want a few fields of a large document.</p>
+	 *
+	 * @return a value for every pointer, in the order given; MissingNode if it is not in the document
+	 * @throws HttpException if there was a nonsuccess error code
+	 */
+	public Map<JsonPointer, JsonNode> extract(final JsonPointer... pointers) throws HttpException, IORuntimeException {
+		succeed();
+
+		if (transportResponse instanceof DecodedTransportResponse)
+			return new JsonPointerExtractor(mapper, pointers).extract(((DecodedTransportResponse)transportResponse).getContentValue());
+
+		try {
+			return new JsonPointerExtractor(getContentMapper(), pointers).extract(getContentStream());
+		} catch (IOException e) {
+			throw new IORuntimeException(e);
+		}
+	}
+
+	/**
+	 * Extract a single value, ie {@code at("/data/total", Long.class)}, and convert it using Jackson.
+	 * @return null if the pointer is not in the document
+	 * @throws HttpException if there was a nonsuccess error code
+	 */
+	public <T> T at(final String pointer, final Class<T> type) throws HttpException, IORuntimeException {
+		return at(pointer, mapper.constructType(type));
+	}
+
+	/** Like at(String, Class) */
+	public <T> T at(final String pointer, final TypeReference<T> type) throws HttpException, IORuntimeException {
+		return at(pointer, mapper.getTypeFactory().constructType(type));
+	}
+
+	/** Like at(String, Class) */
+	public <T> T at(final String pointer, final JavaType type) throws HttpException, IORuntimeException {
+		final JsonPointer compiled = JsonPointer.compile(pointer);
+		final JsonNode node = extract(compiled).get(compiled);
+
+		if (node.isMissingNode())
+			return null;
+
+		try {
+			return mapper.readerFor(type).readValue(node);
+		} catch (IOException e) {
+			throw new IORuntimeException(e);
+		}
+	}
+
 	/** The body content of the response, whether it was success or error */
 	public InputStream getContentStream() throws IORuntimeException {
 		try {
-			return transportResponse.getContentStream();
+			final InputStream content = transportResponse.getContentStream();
+
+			// The capture has a fixed size, so only the ends of a large body are kept
+			final CaptureOutputStream capture = CaptureOutputStream.forLogger(log);
+			if (capture == null)
+				return content;
+
+			return new TeeInputStream(content, capture, () -> log.debug("Read body, {} bytes: {}", capture.getCount(), capture));
+		} catch (IOException e) {
+			throw new IORuntimeException(e);
+		}
+	}
+
+	/**
+	 * The body content of the response as a publisher, whether it was success or error.
+	 * Normally you should use {@code asPublisher()} instead to check success.
+	 */
+	public Flow.Publisher<ByteBuffer> getContentPublisher() throws IORuntimeException {
+		try {
+			return transportResponse.getContentPublisher();
 		} catch (IOException e) {
 			throw new IORuntimeException(e);
 		}
@@ -164,7 +302,15 @@ public class HttpResponse {
 	 */
 	public byte[] getContentBytes() throws IORuntimeException {
 		try {
-			return transportResponse.getContentBytes();
+			final byte[] content = transportResponse.getContentBytes();
+
+			final CaptureOutputStream capture = CaptureOutputStream.forLogger(log);
+			if (capture != null) {
+				capture.write(content, 0, content.length);
+				log.debug("Read body, {} bytes: {}", capture.getCount(), capture);
+			}
+
+			return content;
 		} catch (IOException e) {
 			throw new IORuntimeException(e);
 		}
@@ -191,8 +337,11 @@ public class HttpResponse {
 	 * Normally you should use {@code as()} instead to check success.
 	 */
 	public <T> T getContentAs(final Class<T> type) throws IORuntimeException {
+		if (transportResponse instanceof DecodedTransportResponse)
+			return decoded(mapper.constructType(type));
+
 		try {
-			return mapper.readValue(getContentStream(), type);
+			return getContentMapper().readValue(getContentStream(), type);
 		} catch (IOException e) {
 			throw new IORuntimeException(e);
 		}
@@ -203,8 +352,11 @@ public class HttpResponse {
 	 * Normally you should use {@code as()} instead to check success.
 	 */
 	public <T> T getContentAs(final TypeReference<T> type) throws IORuntimeException {
+		if (transportResponse instanceof DecodedTransportResponse)
+			return decoded(mapper.getTypeFactory().constructType(type));
+
 		try {
-			return mapper.readValue(getContentStream(), type);
+			return getContentMapper().readValue(getContentStream(), type);
 		} catch (IOException e) {
 			throw new IORuntimeException(e);
 		}
@@ -215,10 +367,39 @@ public class HttpResponse {
 	 * Normally you should use {@code as()} instead to check success.
 	 */
 	public <T> T getContentAs(final JavaType type) throws IORuntimeException {
+		if (transportResponse instanceof DecodedTransportResponse)
+			return decoded(type);
+
 		try {
-			return mapper.readValue(getContentStream(), type);
+			return getContentMapper().readValue(getContentStream(), type);
 		} catch (IOException e) {
 			throw new IORuntimeException(e);
 		}
 	}
+
+	/**
+	 * Release the underlying connection. With transports that keep connections alive, any small unread
+	 * remainder of the body is drained so the connection can go back to the pool; large remainders
+	 * cause the connection to be dropped instead. Don't use the content stream after closing.
+	 */
+	@Override
+	public void close() throws IORuntimeException {
+		try {
+			transportResponse.close();
+		} catch (IOException e) {
+			throw new IORuntimeException(e);
+		}
+	}
+
+	/** @return the mapper for the response Content-Type; a registered codec's, or the json mapper */
+	public ObjectMapper getContentMapper() throws IORuntimeException {
+		return Codec.mapperFor(codecs, mapper, getContentType().orElse(null));
+	}
+
+	/** The transport already bound the body; only convert it if a different type is asked for */
+	@SuppressWarnings("unchecked")
+	private <T> T decoded(final JavaType type) {
+		final Object value = ((DecodedTransportResponse)transportResponse).getContentValue();
+		return (value == null || type.getRawClass().isInstance(value)) ? (T)value : mapper.convertValue(value, type);
+	}
 }
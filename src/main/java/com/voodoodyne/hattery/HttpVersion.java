@@ -0,0 +1,16 @@
+package com.voodoodyne.hattery;
+
+/**
+ * Explicit protocol versions, for transports which can speak more than one. Transports which can't
+ * (ie URLConnectionTransport) ignore this.
+ */
+public enum HttpVersion {
+	/** Never negotiate h2 */
+	HTTP_1_1,
+
+	/**
+	 * h2 via ALPN for https. For plain http, the Java11Transport upgrades to h2c with an {@code Upgrade}
+	 * header; the JDK client does not support h2c with prior knowledge.
+	 */
+	HTTP_2;
+}
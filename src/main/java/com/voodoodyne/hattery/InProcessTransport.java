@@ -0,0 +1,599 @@
+package com.voodoodyne.hattery;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ListMultimap;
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import com.sun.net.httpserver.HttpServer;
+import com.voodoodyne.hattery.util.CaseInsensitiveMultimapView;
+import com.voodoodyne.hattery.util.HeaderName;
+import lombok.ToString;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+
+/**
+ * <p>Sends requests to handlers in the same JVM, without sockets or HTTP framing. Use it for modules which
+ * talk over http but happen to be deployed together (so they can be split apart later without changing the
+ * calling code), and for tests and benchmarks which shouldn't depend on the network.</p>
+ *
+ * <p>Handlers are registered for url prefixes, like {@code http://users} or {@code http://localhost/api}; the
+ * longest matching prefix wins, and a url with no handler fails like a refused connection. There are two kinds:</p>
+ *
+ * <ul>
+ *     <li>A {@link Handler} gets the HttpRequest itself, with its body object as given to {@code body()}.
+ *     It can return {@link #respond(int, Object)}, whose value is handed to {@code as()} without ever being
+ *     serialized (it is converted if a different type is asked for, and serialized only if the bytes are).</li>
+ *     <li>A {@code com.sun.net.httpserver.HttpHandler}, as written for the JDK's server, gets an HttpExchange
+ *     whose request body streams from the request's bytes or serialized buffers, and whose response body is
+ *     collected in memory.</li>
+ * </ul>
+ *
+ * <p>Either way the result is an ordinary HttpResponse: {@code succeed()}, the error translator, codecs, and
+ * {@code maxResponseBytes()} behave as they do over the network. Exceptions thrown by handlers reach the caller
+ * as IORuntimeExceptions, with the handler's exception as the cause. Timeouts and redirects are not
+ * applied; handlers run on the calling thread.</p>
+ */
+@ToString(of = "routes")
+public class InProcessTransport implements Transport {
+
+	/** Handles a request in the same JVM */
+	@FunctionalInterface
+	public interface Handler {
+		/**
+		 * @return usually one of the {@code respond()} responses
+		 */
+		TransportResponse handle(HttpRequest request) throws IOException;
+	}
+
+	/** A registered handler; exactly one of the two is set */
+	@ToString(of = "prefix")
+	private static class Route {
+		final String prefix;
+		final Handler handler;
+		final HttpHandler httpHandler;
+
+		Route(final String prefix, final Handler handler, final HttpHandler httpHandler) {
+			this.prefix = prefix;
+			this.handler = handler;
+			this.httpHandler = httpHandler;
+		}
+	}
+
+	/** Longest prefix first */
+	private final List<Route> routes = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Route requests for urls starting with the prefix to the handler. A prefix matches whole path segments,
+	 * so {@code http://users} does not match {@code http://users2}.
+	 *
+	 * @return this, for chaining
+	 */
+	public InProcessTransport register(final String prefix, final Handler handler) {
+		return add(new Route(prefix, handler, null));
+	}
+
+	/** Like register(), for handlers written for the JDK's HttpServer */
+	public InProcessTransport registerHttpHandler(final String prefix, final HttpHandler handler) {
+		return add(new Route(prefix, null, handler));
+	}
+
+	/** */
+	private synchronized InProcessTransport add(final Route route) {
+		routes.removeIf(existing -> existing.prefix.equals(route.prefix));
+		routes.add(route);
+		routes.sort(Comparator.comparingInt((Route r) -> r.prefix.length()).reversed());
+		return this;
+	}
+
+	/**
+	 * A response carrying an object, which becomes the result of {@code as()} as-is. The caller gets the same
+	 * instance, not a copy, so don't respond with objects you will go on changing. It is serialized as json
+	 * with the request's mapper only if the content bytes or stream are read.
+	 */
+	public static TransportResponse respond(final int code, final Object value) {
+		return new ValueResponse(code, value, null);
+	}
+
+	/** A response with a body that is already bytes */
+	public static TransportResponse respond(final int code, final String contentType, final byte[] content) {
+		return new BytesResponse(code, contentTypeHeader(contentType), content);
+	}
+
+	/** */
+	private static ListMultimap<String, String> contentTypeHeader(final String contentType) {
+		final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		if (contentType != null)
+			headers.put(HeaderName.CONTENT_TYPE.getName(), List.of(contentType));
+
+		return new CaseInsensitiveMultimapView<>(headers, true);
+	}
+
+	/**
+	 * The request body as the type. An object body of that type is returned as-is; any other object is
+	 * converted with the request's mapper, and bytes, files, and streams are parsed by Content-Type.
+	 */
+	public static <T> T bodyAs(final HttpRequest request, final Class<T> type) throws IOException {
+		return bodyAs(request, request.getMapper().constructType(type));
+	}
+
+	/** */
+	public static <T> T bodyAs(final HttpRequest request, final TypeReference<T> type) throws IOException {
+		return bodyAs(request, request.getMapper().getTypeFactory().constructType(type));
+	}
+
+	/** */
+	@SuppressWarnings("unchecked")
+	public static <T> T bodyAs(final HttpRequest request, final JavaType type) throws IOException {
+		final Object body = request.getBody();
+		if (body == null || type.getRawClass().isInstance(body))
+			return (T)body;
+
+		final ObjectMapper mapper = request.getMapperFor(request.getContentType());
+
+		if (isSerialized(body)) {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			request.writeBody(bytes);
+			return mapper.readValue(bytes.toByteArray(), type);
+		}
+
+		return mapper.convertValue(body, type);
+	}
+
+	/** Bodies which are already bytes, rather than objects */
+	private static boolean isSerialized(final Object body) {
+		return body instanceof byte[] || body instanceof InputStream || body instanceof Path
+				|| body instanceof Flow.Publisher || body instanceof BufferedBody;
+	}
+
+	/** Handlers get the body object itself */
+	@Override
+	public boolean wantsSerializedBody() {
+		return false;
+	}
+
+	@Override
+	public TransportResponse fetch(final HttpRequest request) throws IOException {
+		final String url = request.toUrlString();
+		final Route route = route(url);
+
+		final TransportResponse response;
+		try {
+			response = route.handler != null
+					? route.handler.handle(request)
+					: exchange(route, request, URI.create(url));
+		} catch (IOException | RuntimeException ex) {
+			if (ex instanceof ResponseTooLargeException)
+				throw ex;
+
+			throw new IOException("In-process handler for " + route.prefix + " failed", ex);
+		}
+
+		if (response == null)
+			throw new IOException("In-process handler for " + route.prefix + " returned no response");
+
+		if (response instanceof ValueResponse)
+			return ((ValueResponse)response).withMapper(request.getMapper());
+
+		final long limit = request.getMaxResponseBytes();
+		if (limit > 0 && response instanceof BytesResponse && ((BytesResponse)response).content.length > limit)
+			throw new ResponseTooLargeException(limit);
+
+		return response;
+	}
+
+	/** */
+	private Route route(final String url) throws ConnectException {
+		for (final Route route : routes) {
+			if (matches(url, route.prefix))
+				return route;
+		}
+
+		throw new ConnectException("No in-process handler for " + url);
+	}
+
+	/** The prefix must end at a path segment (or query) boundary */
+	private static boolean matches(final String url, final String prefix) {
+		if (!url.startsWith(prefix))
+			return false;
+
+		if (url.length() == prefix.length() || prefix.endsWith("/"))
+			return true;
+
+		final char next = url.charAt(prefix.length());
+		return next == '/' || next == '?';
+	}
+
+	/** Run an HttpHandler against an in-memory exchange */
+	private TransportResponse exchange(final Route route, final HttpRequest request, final URI uri) throws IOException {
+		BufferedBody buffered = null;
+		final InputStream requestBody;
+
+		final Object body = request.getBody();
+		if (request.getContentType() == null) {
+			requestBody = InputStream.nullInputStream();
+		} else if (body instanceof byte[]) {
+			requestBody = new ByteArrayInputStream((byte[])body);
+		} else if (body instanceof InputStream) {
+			requestBody = (InputStream)body;
+		} else if (body instanceof Path) {
+			requestBody = Files.newInputStream((Path)body);
+		} else {
+			buffered = (body instanceof BufferedBody) ? null : BufferedBody.of(request);
+			final BufferedBody source = (body instanceof BufferedBody) ? (BufferedBody)body : buffered;
+			requestBody = source.isInMemory() ? new BuffersInputStream(source.toByteBuffers()) : Files.newInputStream(source.getFile());
+		}
+
+		final Headers requestHeaders = new Headers();
+		requestHeaders.add("Host", uri.getPort() < 0 ? uri.getHost() : uri.getHost() + ":" + uri.getPort());
+		request.getHeaders().forEach(requestHeaders::add);
+		if (request.getContentType() != null) {
+			requestHeaders.set(HeaderName.CONTENT_TYPE.getName(), request.getContentType());
+			final long length = (buffered != null) ? buffered.getLength() : request.getContentLength();
+			if (length >= 0)
+				requestHeaders.set(HeaderName.CONTENT_LENGTH.getName(), Long.toString(length));
+		}
+
+		final Exchange exchange = new Exchange(route, request, URI.create(NioTransport.target(uri)), requestHeaders, requestBody);
+		try {
+			route.httpHandler.handle(exchange);
+		} finally {
+			requestBody.close();
+			if (buffered != null)
+				buffered.release(true);
+		}
+
+		if (exchange.responseCode < 0)
+			throw new IOException("In-process handler for " + route.prefix + " did not send a response");
+
+		return new BytesResponse(exchange.responseCode, new CaseInsensitiveMultimapView<>(exchange.responseHeaders, true), exchange.responseBody.toByteArray());
+	}
+
+	/** Responds with an object; the mapper is the request's, set once the response comes back from the handler */
+	private static class ValueResponse implements DecodedTransportResponse {
+		private final int code;
+		private final Object value;
+		private final ObjectMapper mapper;
+		private final ListMultimap<String, String> headers;
+
+		/** Serialized on demand */
+		private byte[] content;
+
+		ValueResponse(final int code, final Object value, final ObjectMapper mapper) {
+			this.code = code;
+			this.value = value;
+			this.mapper = mapper;
+			this.headers = contentTypeHeader(HttpRequest.APPLICATION_JSON);
+		}
+
+		ValueResponse withMapper(final ObjectMapper mapper) {
+			return new ValueResponse(code, value, mapper);
+		}
+
+		@Override
+		public Object getContentValue() {
+			return value;
+		}
+
+		@Override
+		public int getResponseCode() {
+			return code;
+		}
+
+		@Override
+		public InputStream getContentStream() throws IOException {
+			return new ByteArrayInputStream(getContentBytes());
+		}
+
+		@Override
+		public synchronized byte[] getContentBytes() throws IOException {
+			if (content == null)
+				content = mapper.writeValueAsBytes(value);
+
+			return content;
+		}
+
+		@Override
+		public ListMultimap<String, String> getHeaders() {
+			return headers;
+		}
+	}
+
+	/** */
+	private static class BytesResponse implements TransportResponse {
+		private final int code;
+		private final ListMultimap<String, String> headers;
+		private final byte[] content;
+
+		BytesResponse(final int code, final ListMultimap<String, String> headers, final byte[] content) {
+			this.code = code;
+			this.headers = headers;
+			this.content = content;
+		}
+
+		@Override
+		public int getResponseCode() {
+			return code;
+		}
+
+		@Override
+		public InputStream getContentStream() {
+			return new ByteArrayInputStream(content);
+		}
+
+		@Override
+		public byte[] getContentBytes() {
+			return content;
+		}
+
+		@Override
+		public ListMultimap<String, String> getHeaders() {
+			return headers;
+		}
+	}
+
+	/** Reads through a list of buffers without copying them first */
+	private static class BuffersInputStream extends InputStream {
+		private final List<ByteBuffer> buffers;
+		private int index;
+
+		BuffersInputStream(final List<ByteBuffer> buffers) {
+			this.buffers = buffers;
+		}
+
+		/** @return the current buffer, or null at the end */
+		private ByteBuffer current() {
+			while (index < buffers.size() && !buffers.get(index).hasRemaining())
+				index++;
+
+			return index < buffers.size() ? buffers.get(index) : null;
+		}
+
+		@Override
+		public int read() {
+			final ByteBuffer buffer = current();
+			return buffer == null ? -1 : (buffer.get() & 0xff);
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) {
+			if (len == 0)
+				return 0;
+
+			final ByteBuffer buffer = current();
+			if (buffer == null)
+				return -1;
+
+			final int count = Math.min(len, buffer.remaining());
+			buffer.get(b, off, count);
+			return count;
+		}
+	}
+
+	/** The response body, limited to the request's maxResponseBytes */
+	private static class ResponseBody extends ByteArrayOutputStream {
+		private final long limit;
+
+		ResponseBody(final long limit) {
+			this.limit = limit;
+		}
+
+		@Override
+		public synchronized void write(final int b) {
+			check(1);
+			super.write(b);
+		}
+
+		@Override
+		public synchronized void write(final byte[] b, final int off, final int len) {
+			check(len);
+			super.write(b, off, len);
+		}
+
+		/** */
+		private void check(final int len) {
+			if (limit > 0 && count + len > limit)
+				throw new ResponseTooLargeException(limit);
+		}
+	}
+
+	/** An exchange that never touches a socket */
+	private static class Exchange extends HttpExchange {
+		private final Route route;
+		private final HttpRequest request;
+		private final URI requestUri;
+		private final Headers requestHeaders;
+		private final Headers responseHeaders = new Headers();
+		private final Map<String, Object> attributes = new HashMap<>();
+
+		private InputStream requestBody;
+		private OutputStream responseStream;
+		private final ResponseBody responseBody;
+
+		/** -1 until sendResponseHeaders() */
+		private int responseCode = -1;
+
+		Exchange(final Route route, final HttpRequest request, final URI requestUri, final Headers requestHeaders, final InputStream requestBody) {
+			this.route = route;
+			this.request = request;
+			this.requestUri = requestUri;
+			this.requestHeaders = requestHeaders;
+			this.requestBody = requestBody;
+			this.responseBody = new ResponseBody(request.getMaxResponseBytes());
+			this.responseStream = responseBody;
+		}
+
+		@Override
+		public Headers getRequestHeaders() {
+			return requestHeaders;
+		}
+
+		@Override
+		public Headers getResponseHeaders() {
+			return responseHeaders;
+		}
+
+		@Override
+		public URI getRequestURI() {
+			return requestUri;
+		}
+
+		@Override
+		public String getRequestMethod() {
+			return request.getMethod();
+		}
+
+		@Override
+		public HttpContext getHttpContext() {
+			return new Context(route);
+		}
+
+		@Override
+		public void close() {
+			// Nothing to release; the body stays in memory for the response
+		}
+
+		@Override
+		public InputStream getRequestBody() {
+			return requestBody;
+		}
+
+		@Override
+		public OutputStream getResponseBody() {
+			return responseStream;
+		}
+
+		/** As with the JDK server, a length of -1 means there is no body */
+		@Override
+		public void sendResponseHeaders(final int code, final long length) throws IOException {
+			if (responseCode >= 0)
+				throw new IOException("Headers already sent");
+
+			final long limit = request.getMaxResponseBytes();
+			if (limit > 0 && length > limit)
+				throw new ResponseTooLargeException(limit);
+
+			responseCode = code;
+		}
+
+		@Override
+		public InetSocketAddress getRemoteAddress() {
+			return new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+		}
+
+		@Override
+		public int getResponseCode() {
+			return responseCode;
+		}
+
+		@Override
+		public InetSocketAddress getLocalAddress() {
+			return new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+		}
+
+		@Override
+		public String getProtocol() {
+			return "HTTP/1.1";
+		}
+
+		@Override
+		public Object getAttribute(final String name) {
+			return attributes.get(name);
+		}
+
+		@Override
+		public void setAttribute(final String name, final Object value) {
+			attributes.put(name, value);
+		}
+
+		@Override
+		public void setStreams(final InputStream input, final OutputStream output) {
+			if (input != null)
+				requestBody = input;
+			if (output != null)
+				responseStream = output;
+		}
+
+		@Override
+		public HttpPrincipal getPrincipal() {
+			return null;
+		}
+	}
+
+	/** The context of a registered HttpHandler; its path is the path of the prefix */
+	private static class Context extends HttpContext {
+		private final Route route;
+		private final Map<String, Object> attributes = new HashMap<>();
+		private final List<Filter> filters = new ArrayList<>();
+
+		Context(final Route route) {
+			this.route = route;
+		}
+
+		@Override
+		public HttpHandler getHandler() {
+			return route.httpHandler;
+		}
+
+		@Override
+		public void setHandler(final HttpHandler handler) {
+			throw new UnsupportedOperationException("Register handlers with the InProcessTransport");
+		}
+
+		@Override
+		public String getPath() {
+			final String path = URI.create(route.prefix).getRawPath();
+			return path == null || path.isEmpty() ? "/" : path;
+		}
+
+		@Override
+		public HttpServer getServer() {
+			return null;
+		}
+
+		@Override
+		public Map<String, Object> getAttributes() {
+			return attributes;
+		}
+
+		@Override
+		public List<Filter> getFilters() {
+			return filters;
+		}
+
+		@Override
+		public Authenticator setAuthenticator(final Authenticator auth) {
+			throw new UnsupportedOperationException("Authenticators are not supported in-process");
+		}
+
+		@Override
+		public Authenticator getAuthenticator() {
+			return null;
+		}
+	}
+}
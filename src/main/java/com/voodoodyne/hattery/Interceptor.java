@@ -0,0 +1,77 @@
+package com.voodoodyne.hattery;
+
+import com.fasterxml.jackson.databind.JavaType;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * <p>Wraps the transport call, after preflight and before postflight. An interceptor sees the request and the
+ * raw response together, so it can time the exchange, retry it, rewrite either side, or skip the transport
+ * entirely and return a response of its own (ie, from a cache).</p>
+ *
+ * <p>Interceptors run in the order they were added; each one calls {@code chain.proceed(request)} to
+ * pass control to the next, and the last one hands the request to its transport.</p>
+ */
+public interface Interceptor {
+
+	/** What an interceptor gets for a blocking fetch */
+	interface Chain {
+		/** The request as it was handed to this interceptor */
+		HttpRequest request();
+
+		/** Run the rest of the chain (and eventually the transport) with this request */
+		TransportResponse proceed(final HttpRequest request) throws IOException;
+	}
+
+	/** What an interceptor gets for fetchAsync() */
+	interface AsyncChain {
+		/** The request as it was handed to this interceptor */
+		HttpRequest request();
+
+		/** The type that a successful body will be bound to */
+		JavaType type();
+
+		/** Run the rest of the chain (and eventually the transport) with this request */
+		CompletableFuture<TransportResponse> proceed(final HttpRequest request) throws IOException;
+	}
+
+	/** */
+	TransportResponse intercept(final Chain chain) throws IOException;
+
+	/**
+	 * The async version of intercept(). The default runs intercept() on the common pool, blocking that thread
+	 * while the rest of the chain completes. Interceptors which can work with futures should override this.
+	 */
+	default CompletableFuture<TransportResponse> interceptAsync(final AsyncChain chain) throws IOException {
+		final Chain blocking = new Chain() {
+			@Override
+			public HttpRequest request() {
+				return chain.request();
+			}
+
+			@Override
+			public TransportResponse proceed(final HttpRequest request) throws IOException {
+				try {
+					return chain.proceed(request).join();
+				} catch (CompletionException e) {
+					if (e.getCause() instanceof IOException)
+						throw (IOException)e.getCause();
+					if (e.getCause() instanceof RuntimeException)
+						throw (RuntimeException)e.getCause();
+
+					throw e;
+				}
+			}
+		};
+
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return intercept(blocking);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		});
+	}
+}
@@ -0,0 +1,100 @@
+package com.voodoodyne.hattery;
+
+import com.fasterxml.jackson.databind.JavaType;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The chains handed to interceptors. Each link knows its position; proceeding creates the next link,
+ * and proceeding past the last interceptor calls the terminal (the transport).
+ */
+final class InterceptorChain {
+
+	/** The blocking transport call at the end of the chain */
+	interface Terminal {
+		TransportResponse fetch(final HttpRequest request) throws IOException;
+	}
+
+	/** The async transport call at the end of the chain */
+	interface AsyncTerminal {
+		CompletableFuture<TransportResponse> fetch(final HttpRequest request) throws IOException;
+	}
+
+	private InterceptorChain() {
+	}
+
+	/** Run the request's interceptors and then the terminal */
+	static TransportResponse proceed(final HttpRequest request, final Terminal terminal) throws IOException {
+		return new Blocking(request.getInterceptors(), 0, request, terminal).proceed(request);
+	}
+
+	/** Run the request's interceptors and then the terminal */
+	static CompletableFuture<TransportResponse> proceedAsync(final HttpRequest request, final JavaType type, final AsyncTerminal terminal) throws IOException {
+		return new Async(request.getInterceptors(), 0, request, type, terminal).proceed(request);
+	}
+
+	/** */
+	private static final class Blocking implements Interceptor.Chain {
+		private final List<Interceptor> interceptors;
+		private final int index;
+		private final HttpRequest request;
+		private final Terminal terminal;
+
+		Blocking(final List<Interceptor> interceptors, final int index, final HttpRequest request, final Terminal terminal) {
+			this.interceptors = interceptors;
+			this.index = index;
+			this.request = request;
+			this.terminal = terminal;
+		}
+
+		@Override
+		public HttpRequest request() {
+			return request;
+		}
+
+		@Override
+		public TransportResponse proceed(final HttpRequest request) throws IOException {
+			if (index == interceptors.size())
+				return terminal.fetch(request);
+
+			return interceptors.get(index).intercept(new Blocking(interceptors, index + 1, request, terminal));
+		}
+	}
+
+	/** */
+	private static final class Async implements Interceptor.AsyncChain {
+		private final List<Interceptor> interceptors;
+		private final int index;
+		private final HttpRequest request;
+		private final JavaType type;
+		private final AsyncTerminal terminal;
+
+		Async(final List<Interceptor> interceptors, final int index, final HttpRequest request, final JavaType type, final AsyncTerminal terminal) {
+			this.interceptors = interceptors;
+			this.index = index;
+			this.request = request;
+			this.type = type;
+			this.terminal = terminal;
+		}
+
+		@Override
+		public HttpRequest request() {
+			return request;
+		}
+
+		@Override
+		public JavaType type() {
+			return type;
+		}
+
+		@Override
+		public CompletableFuture<TransportResponse> proceed(final HttpRequest request) throws IOException {
+			if (index == interceptors.size())
+				return terminal.fetch(request);
+
+			return interceptors.get(index).interceptAsync(new Async(interceptors, index + 1, request, type, terminal));
+		}
+	}
+}
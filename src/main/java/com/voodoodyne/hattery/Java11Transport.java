@@ -1,38 +1,100 @@
 package com.voodoodyne.hattery;
 
-import com.google.common.collect.ArrayListMultimap;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ListMultimap;
+import com.voodoodyne.hattery.util.BufferPool;
+import com.voodoodyne.hattery.util.ByteBufferPublisher;
+import com.voodoodyne.hattery.util.CaseInsensitiveMultimapView;
+import com.voodoodyne.hattery.util.ChunkedOutputStream;
+import com.voodoodyne.hattery.util.ReleasingPublisher;
+import com.voodoodyne.hattery.util.FlatteningPublisher;
+import com.voodoodyne.hattery.util.HeaderName;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpClient.Redirect;
+import java.net.http.HttpClient.Version;
+import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest.BodyPublisher;
 import java.net.http.HttpRequest.BodyPublishers;
-import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.net.http.HttpResponse.ResponseInfo;
 import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
  * <p>Transport impl that uses the Java11 HTTP Client.</p>
  *
- * <p>Holds two HttpClient instances, which are shared among all requests so that we get connection
- * pool caching. There are two instances because clients are built with follow/nofollow and this
+ * <p>Holds pairs of HttpClient instances, which are shared among all requests so that we get connection
+ * pool caching. There are two instances per pair because clients are built with follow/nofollow and this
  * can't be adjusted on a per-request basis (as Hattery allows).</p>
  *
+ * <p>Each HttpClient multiplexes all h2 traffic to a host over one connection, serviced by one selector
+ * thread. For very high request rates you can construct the transport with several shards (pairs of
+ * clients); each request is sent through one shard, chosen by host hash or round-robin.</p>
+ *
+ * <p>Closing the transport closes the clients it built (on JDKs where HttpClient is closeable, 21+).
+ * Clients passed in to the constructor, and any executor set on a builder, belong to the caller and
+ * can be shared among several transports.</p>
+ *
+ * <p>The HttpClient's request timeout only covers the wait for the response headers, so timeout() and
+ * deadline() do not bound reading the body here; use another transport if a slow body must be cut off.</p>
+ *
  * <p>This is now the default transport.</p>
  */
 @Slf4j
 public class Java11Transport implements Transport {
 
-	private final HttpClient normalFollow;
-	private final HttpClient neverFollow;
+	/** How a request picks its shard */
+	public enum ShardSelection {
+		/** All requests to a host use the same shard; spreads different hosts across shards */
+		HOST_HASH,
+
+		/** Requests rotate through all shards; spreads a single busy host across several connections */
+		ROUND_ROBIN
+	}
+
+	/** Indexed by shard */
+	private final HttpClient[] normalFollow;
+	private final HttpClient[] neverFollow;
+
+	private final ShardSelection selection;
+
+	/** For round-robin selection */
+	private final AtomicInteger next = new AtomicInteger();
+
+	/** Number of requests sent through each shard */
+	private final AtomicLongArray shardRequests;
+
+	/** False if the clients were given to us */
+	private final boolean ownsClients;
 
 	/** Constructs the transport with basic client configuration */
 	public Java11Transport() {
@@ -45,10 +107,29 @@ public class Java11Transport implements Transport {
 	 * once to generate a client that follows redirects, once to generate a client that does not follow redirects.
 	 */
 	public Java11Transport(final HttpClient.Builder clientBuilder) {
-		this(
-				clientBuilder.followRedirects(Redirect.ALWAYS).build(),
-				clientBuilder.followRedirects(Redirect.NEVER).build()
-		);
+		this(clientBuilder, 1, ShardSelection.HOST_HASH);
+	}
+
+	/**
+	 * Constructs this transport with several shards. The builder will be modified with followRedirects() and
+	 * built() twice per shard. Each client has its own connection pool and selector thread; if you set an
+	 * executor on the builder, it is shared by all of them.
+	 */
+	public Java11Transport(final HttpClient.Builder clientBuilder, final int shards, final ShardSelection selection) {
+		Preconditions.checkArgument(shards > 0, "Must have at least one shard");
+		Preconditions.checkNotNull(selection);
+
+		this.normalFollow = new HttpClient[shards];
+		this.neverFollow = new HttpClient[shards];
+
+		for (int i = 0; i < shards; i++) {
+			normalFollow[i] = clientBuilder.followRedirects(Redirect.ALWAYS).build();
+			neverFollow[i] = clientBuilder.followRedirects(Redirect.NEVER).build();
+		}
+
+		this.selection = selection;
+		this.shardRequests = new AtomicLongArray(shards);
+		this.ownsClients = true;
 	}
 
 	/**
@@ -61,8 +142,69 @@ public class Java11Transport implements Transport {
 	 * @param neverFollow should be built with {@code followRedirects(Redirect.NEVER)}
 	 */
 	public Java11Transport(final HttpClient normalFollow, final HttpClient neverFollow) {
-		this.normalFollow = normalFollow;
-		this.neverFollow = neverFollow;
+		this.normalFollow = new HttpClient[] { normalFollow };
+		this.neverFollow = new HttpClient[] { neverFollow };
+		this.selection = ShardSelection.HOST_HASH;
+		this.shardRequests = new AtomicLongArray(1);
+		this.ownsClients = false;
+	}
+
+	/** @return the number of shards (pairs of clients) */
+	public int getShardCount() {
+		return shardRequests.length();
+	}
+
+	/** @return a snapshot of how many requests have been sent through each shard */
+	public long[] getShardRequests() {
+		final long[] counts = new long[shardRequests.length()];
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = shardRequests.get(i);
+
+		return counts;
+	}
+
+	/** Pick the shard for this request and count it */
+	private int shard(final URI uri) {
+		final int shards = shardRequests.length();
+		final int shard;
+
+		if (shards == 1)
+			shard = 0;
+		else if (selection == ShardSelection.ROUND_ROBIN)
+			shard = Math.floorMod(next.getAndIncrement(), shards);
+		else
+			shard = Math.floorMod(Objects.hashCode(uri.getHost()) * 31 + uri.getPort(), shards);
+
+		shardRequests.incrementAndGet(shard);
+		return shard;
+	}
+
+	/**
+	 * Closes the clients this transport built. HttpClient only became closeable in JDK 21; on older
+	 * JDKs there is nothing to release explicitly, and the clients' threads exit once they are unreachable.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!ownsClients)
+			return;
+
+		for (int i = 0; i < normalFollow.length; i++) {
+			close(normalFollow[i]);
+			close(neverFollow[i]);
+		}
+	}
+
+	/** Closes the client if this JDK allows it */
+	private static void close(final HttpClient client) throws IOException {
+		if (client instanceof AutoCloseable) {
+			try {
+				((AutoCloseable)client).close();
+			} catch (IOException | RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IOException(e);
+			}
+		}
 	}
 
 	/** Override this to add any additional custom configuration for each request */
@@ -72,11 +214,22 @@ public class Java11Transport implements Transport {
 
 	@Override
 	public TransportResponse fetch(final HttpRequest request) throws IOException {
+		return fetchWithRetries(request, null);
+	}
+
+	/** Successful bodies are written by the HttpClient directly to the file */
+	@Override
+	public TransportResponse fetchToFile(final HttpRequest request, final Path destination) throws IOException {
+		return fetchWithRetries(request, destination);
+	}
+
+	/** @param destination can be null to keep the body in memory */
+	private TransportResponse fetchWithRetries(final HttpRequest request, final Path destination) throws IOException {
 		for (int i = 0; i <= request.getRetries(); i++) {
 			try {
-				return fetchOnce(request);
+				return fetchOnce(request, destination);
 			} catch (IOException ex) {
-				if (i < request.getRetries() && ex instanceof HttpTimeoutException) {
+				if (i < request.getRetries() && ex instanceof HttpTimeoutException && request.isReplayable()) {
 					log.warn("Timeout error, retrying");
 				} else {
 					throw ex;
@@ -88,22 +241,398 @@ public class Java11Transport implements Transport {
 		return null;
 	}
 
-	@SneakyThrows
-	private TransportResponse fetchOnce(final HttpRequest request) throws IOException {
-		final HttpClient client = request.isFollowRedirects() ? normalFollow : neverFollow;
+	/**
+	 * Files are published straight from disk, and multipart bodies made of files are streamed with an
+	 * exact Content-Length. Bodies HttpRequest has already serialized are published from their chunks (or
+	 * spill file), so redirects and retries replay them. Anything else is serialized into pooled chunks,
+	 * which are published as-is; the caller must finish() the buffers once the exchange is complete.
+	 */
+	private BodyPublisher bodyPublisher(final HttpRequest request, final RequestBuffers buffers) throws IOException {
+		if (request.isMultipart()) {
+			final long length = request.getContentLength();
+			if (length >= 0)
+				return BodyPublishers.fromPublisher(BodyPublishers.ofInputStream(request::openMultipartStream), length);
+		}
+		else if (request.getBody() instanceof BufferedBody) {
+			final BufferedBody body = (BufferedBody)request.getBody();
+			if (!body.isInMemory())
+				return BodyPublishers.ofFile(body.getFile());
+			else if (body.getLength() > 0)
+				return BodyPublishers.fromPublisher(buffers.publish(body), body.getLength());
+			else
+				return BodyPublishers.noBody();
+		}
+		else if (request.getBody() instanceof byte[]) {
+			return BodyPublishers.ofByteArray((byte[])request.getBody());
+		}
+		else if (request.getBody() instanceof Path) {
+			return BodyPublishers.ofFile((Path)request.getBody());
+		}
+		else if (request.getBody() instanceof Flow.Publisher) {
+			@SuppressWarnings("unchecked")
+			final Flow.Publisher<ByteBuffer> publisher = (Flow.Publisher<ByteBuffer>)request.getBody();
+			return BodyPublishers.fromPublisher(publisher);
+		}
 
-		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1024);
-		request.writeBody(outputStream);
-		final BodyPublisher bodyPublisher = (outputStream.size() > 0)
-				? BodyPublishers.ofByteArray(outputStream.toByteArray())
+		request.writeBody(buffers.chunks);
+		return (buffers.chunks.size() > 0)
+				? BodyPublishers.fromPublisher(buffers.publish(), buffers.chunks.size())
 				: BodyPublishers.noBody();
+	}
+
+	/**
+	 * Pooled chunks a request body was serialized into, or the BufferedBody whose chunks are published. They
+	 * go back to the pool once the exchange is over and the client has finished with every subscription to
+	 * the body. After a failure we can't be sure of that, so they are left to the GC.
+	 */
+	private static class RequestBuffers {
+		final ChunkedOutputStream chunks = new ChunkedOutputStream(BufferPool.DEFAULT);
+
+		/** Retained until the client is done with it; null unless we are publishing one */
+		private BufferedBody body;
+
+		/** Null if nothing was published from pooled chunks */
+		private ReleasingPublisher publisher;
+
+		/** Publish our own chunks */
+		Flow.Publisher<ByteBuffer> publish() {
+			publisher = new ReleasingPublisher(new ByteBufferPublisher(chunks.toByteBuffers()), chunks::release);
+			return publisher;
+		}
+
+		/** Publish the chunks of an in-memory BufferedBody, which HttpRequest would otherwise release when fetch returns */
+		Flow.Publisher<ByteBuffer> publish(final BufferedBody body) {
+			body.retain();
+			this.body = body;
+			publisher = new ReleasingPublisher(new ByteBufferPublisher(body.toByteBuffers()), () -> body.release(true));
+			return publisher;
+		}
+
+		/** The exchange succeeded; the chunks are released as soon as the client is done sending them */
+		void finish() {
+			if (publisher != null)
+				publisher.finish();
+			else
+				chunks.release();
+		}
+
+		/** The exchange failed */
+		void abandon() {
+			if (body != null)
+				body.release(false);
+		}
+	}
+
+	/**
+	 * When there is a destination, only successful bodies go to the file; error bodies stay in memory so
+	 * they can become an HttpException. File bodies are reported as empty content. Either way, the
+	 * request's maxResponseBytes is enforced as the body arrives.
+	 */
+	private BodyHandler<byte[]> bodyHandler(final HttpRequest request, final Path destination) {
+		final BodyHandler<byte[]> handler = (destination == null)
+				? info -> ofByteArray(request, info)
+				: info -> HttpResponse.isSuccess(info.statusCode())
+						? BodySubscribers.mapping(BodySubscribers.ofFile(destination, CREATE, WRITE, TRUNCATE_EXISTING), path -> new byte[0])
+						: ofByteArray(request, info);
+
+		return limited(request, handler);
+	}
+
+	/** Enforce the request's maxResponseBytes on whatever the handler produces */
+	private static <T> BodyHandler<T> limited(final HttpRequest request, final BodyHandler<T> handler) {
+		final long limit = request.getMaxResponseBytes();
+		if (limit <= 0)
+			return handler;
+
+		return info -> {
+			final long length = contentLength(info);
+
+			// Don't let the inner subscriber allocate for a body we are about to reject
+			return (length > limit)
+					? new LimitedBodySubscriber<>(BodySubscribers.replacing(null), limit, length)
+					: new LimitedBodySubscriber<>(handler.apply(info), limit, length);
+		};
+	}
+
+	/** Collects into an exactly sized array when the length is known; see SizedByteArraySubscriber for how big ones grow */
+	private static BodySubscriber<byte[]> ofByteArray(final HttpRequest request, final ResponseInfo info) {
+		final long length = contentLength(info);
+		final boolean hasBody = !HttpMethod.HEAD.name().equals(request.getMethod()) && info.statusCode() != 204 && info.statusCode() != 304;
+
+		return (hasBody && length >= 0 && length <= Integer.MAX_VALUE - 8)
+				? new SizedByteArraySubscriber((int)length)
+				: BodySubscribers.ofByteArray();
+	}
+
+	/** @return -1 if unknown */
+	private static long contentLength(final ResponseInfo info) {
+		return info.headers().firstValueAsLong(HeaderName.CONTENT_LENGTH.getName()).orElse(-1);
+	}
+
+	@SneakyThrows
+	private TransportResponse fetchOnce(final HttpRequest request, final Path destination) throws IOException {
+		final URI uri = request.toUrl().toURI();
+		final HttpClient client = client(request, uri);
+
+		final RequestBuffers buffers = new RequestBuffers();
+		final java.net.http.HttpRequest javaRequest = buildRequest(request, uri, buffers);
+
+		final java.net.http.HttpResponse<byte[]> response;
+		try {
+			response = client.send(javaRequest, bodyHandler(request, destination));
+		} catch (IOException ex) {
+			buffers.abandon();
+
+			final ResponseTooLargeException tooLarge = findTooLarge(ex);
+			if (tooLarge != null) {
+				if (destination != null)
+					Files.deleteIfExists(destination);
+
+				throw tooLarge;
+			}
+			throw ex;
+		}
+
+		buffers.finish();
+
+		return toTransportResponse(response);
+	}
+
+	/**
+	 * The body is left as the client's publisher, so whoever consumes it controls how fast it is read
+	 * from the connection. Timeouts only cover the headers.
+	 */
+	@Override
+	@SneakyThrows
+	public TransportResponse fetchStreaming(final HttpRequest request) throws IOException {
+		final URI uri = request.toUrl().toURI();
+		final HttpClient client = client(request, uri);
+
+		final RequestBuffers buffers = new RequestBuffers();
+		final java.net.http.HttpRequest javaRequest = buildRequest(request, uri, buffers);
+
+		final java.net.http.HttpResponse<Flow.Publisher<List<ByteBuffer>>> response;
+		try {
+			response = client.send(javaRequest, limited(request, info -> BodySubscribers.ofPublisher()));
+		} catch (IOException ex) {
+			buffers.abandon();
+
+			final ResponseTooLargeException tooLarge = findTooLarge(ex);
+			throw tooLarge != null ? tooLarge : ex;
+		}
+
+		buffers.finish();
+
+		return new StreamingTransportResponse(response);
+	}
+
+	/**
+	 * A successful JSON body is parsed by Jackson's non-blocking parser as it arrives, on the client's
+	 * threads. Error bodies, empty bodies, and bodies in a format we have no mapper for are collected as
+	 * bytes like a normal fetch, so that postflights and interceptors can read them.
+	 */
+	@Override
+	public CompletableFuture<TransportResponse> fetchAsync(final HttpRequest request, final JavaType type) throws IOException {
+		return fetchAsyncWithRetries(request, type, 0);
+	}
+
+	/** */
+	private CompletableFuture<TransportResponse> fetchAsyncWithRetries(final HttpRequest request, final JavaType type, final int attempt) throws IOException {
+		return fetchAsyncOnce(request, type)
+				.handle((response, ex) -> {
+					if (ex == null)
+						return CompletableFuture.completedFuture(response);
+
+					final Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+					if (attempt < request.getRetries() && cause instanceof HttpTimeoutException && request.isReplayable()) {
+						log.warn("Timeout error, retrying");
+						try {
+							return fetchAsyncWithRetries(request, type, attempt + 1);
+						} catch (IOException e) {
+							return CompletableFuture.<TransportResponse>failedFuture(e);
+						}
+					}
+
+					final ResponseTooLargeException tooLarge = findTooLarge(cause);
+					return CompletableFuture.<TransportResponse>failedFuture(tooLarge != null ? tooLarge : cause);
+				})
+				.thenCompose(Function.identity());
+	}
+
+	/** */
+	@SneakyThrows
+	private CompletableFuture<TransportResponse> fetchAsyncOnce(final HttpRequest request, final JavaType type) throws IOException {
+		final URI uri = request.toUrl().toURI();
+		final HttpClient client = client(request, uri);
+
+		final RequestBuffers buffers = new RequestBuffers();
+		final java.net.http.HttpRequest javaRequest = buildRequest(request, uri, buffers);
+
+		final BodyHandler<Object> handler = info -> {
+			if (!HttpResponse.isSuccess(info.statusCode()) || !isDecodable(request, info))
+				return BodySubscribers.mapping(ofByteArray(request, info), Undecoded::new);
+
+			// Binary formats without a non-blocking parser are decoded once the whole body is here
+			final ObjectMapper mapper = request.getMapperFor(info.headers().firstValue(HeaderName.CONTENT_TYPE.getName()).orElse(null));
+			if (!mapper.getFactory().canParseAsync())
+				return BodySubscribers.mapping(ofByteArray(request, info), bytes -> readValue(mapper, bytes, type));
+
+			try {
+				return new JsonBodySubscriber<>(mapper, type);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		};
+
+		return client.sendAsync(javaRequest, limited(request, handler))
+				.whenComplete((response, ex) -> {
+					if (ex == null)
+						buffers.finish();
+					else
+						buffers.abandon();
+				})
+				.thenApply(response -> (response.body() instanceof Undecoded)
+						? toTransportResponse(response.statusCode(), response.headers(), ((Undecoded)response.body()).bytes)
+						: toDecodedTransportResponse(response));
+	}
+
+	/** A body which fetchAsync() collected as bytes rather than decoding */
+	private static final class Undecoded {
+		final byte[] bytes;
+
+		Undecoded(final byte[] bytes) {
+			this.bytes = bytes;
+		}
+	}
+
+	/** Only a non-empty body in json or one of the request's codecs is decoded as it arrives */
+	private static boolean isDecodable(final HttpRequest request, final ResponseInfo info) {
+		final boolean hasBody = !HttpMethod.HEAD.name().equals(request.getMethod()) && info.statusCode() != 204 && info.statusCode() != 304;
+		if (!hasBody || contentLength(info) == 0)
+			return false;
+
+		final String contentType = info.headers().firstValue(HeaderName.CONTENT_TYPE.getName()).orElse(null);
+		if (contentType == null)
+			return false;
+
+		final String mediaType = Codec.mediaType(contentType);
+		return mediaType.equals(HttpRequest.APPLICATION_JSON) || mediaType.endsWith("+json") || request.getCodecs().containsKey(mediaType);
+	}
+
+	/** */
+	private static Object readValue(final ObjectMapper mapper, final byte[] bytes, final JavaType type) {
+		try {
+			return mapper.readValue(bytes, type);
+		} catch (IOException e) {
+			throw new IORuntimeException(e);
+		}
+	}
+
+	/**
+	 * The body publisher can only be subscribed once, by whichever of the content methods is called first.
+	 * If none is, closing subscribes and cancels so the connection is released.
+	 */
+	private static class StreamingTransportResponse implements TransportResponse {
+		private final java.net.http.HttpResponse<Flow.Publisher<List<ByteBuffer>>> response;
+		private final ListMultimap<String, String> headers;
+		private boolean consumed;
+
+		/** */
+		StreamingTransportResponse(final java.net.http.HttpResponse<Flow.Publisher<List<ByteBuffer>>> response) {
+			this.response = response;
+			this.headers = new CaseInsensitiveMultimapView<>(response.headers().map(), true);
+		}
+
+		/** */
+		private Flow.Publisher<List<ByteBuffer>> consume() {
+			Preconditions.checkState(!consumed, "You can only consume the body once");
+			consumed = true;
+			return response.body();
+		}
+
+		@Override
+		public int getResponseCode() throws IOException {
+			return response.statusCode();
+		}
+
+		@Override
+		public Flow.Publisher<ByteBuffer> getContentPublisher() throws IOException {
+			return new FlatteningPublisher(consume());
+		}
+
+		@Override
+		public InputStream getContentStream() throws IOException {
+			final BodySubscriber<InputStream> subscriber = BodySubscribers.ofInputStream();
+			consume().subscribe(subscriber);
+			return subscriber.getBody().toCompletableFuture().join();
+		}
+
+		@Override
+		public byte[] getContentBytes() throws IOException {
+			final BodySubscriber<byte[]> subscriber = BodySubscribers.ofByteArray();
+			consume().subscribe(subscriber);
+			try {
+				return subscriber.getBody().toCompletableFuture().join();
+			} catch (CompletionException ex) {
+				final ResponseTooLargeException tooLarge = findTooLarge(ex);
+				if (tooLarge != null)
+					throw tooLarge;
+
+				throw ex.getCause() instanceof IOException ? (IOException)ex.getCause() : new IOException(ex.getCause());
+			}
+		}
+
+		@Override
+		public ListMultimap<String, String> getHeaders() throws IOException {
+			return headers;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (consumed)
+				return;
+
+			consume().subscribe(new Flow.Subscriber<List<ByteBuffer>>() {
+				@Override
+				public void onSubscribe(final Flow.Subscription subscription) {
+					subscription.cancel();
+				}
+
+				@Override
+				public void onNext(final List<ByteBuffer> item) {
+				}
+
+				@Override
+				public void onError(final Throwable throwable) {
+				}
+
+				@Override
+				public void onComplete() {
+				}
+			});
+		}
+	}
+
+	/** Pick the shard, then the client within it */
+	private HttpClient client(final HttpRequest request, final URI uri) {
+		final int shard = shard(uri);
+		return request.isFollowRedirects() ? normalFollow[shard] : neverFollow[shard];
+	}
+
+	/** Translate our request into the client's, serializing the body into the buffers if necessary */
+	private java.net.http.HttpRequest buildRequest(final HttpRequest request, final URI uri, final RequestBuffers buffers) throws IOException {
+		final BodyPublisher bodyPublisher = bodyPublisher(request, buffers);
 
 		final java.net.http.HttpRequest.Builder requestBuilder = java.net.http.HttpRequest.newBuilder()
-				.uri(request.toUrl().toURI())
+				.uri(uri)
 				.method(request.getMethod(), bodyPublisher);
 
-		if (request.getTimeout() > 0)
-			requestBuilder.timeout(Duration.ofMillis(request.getTimeout()));
+		if (request.getVersion() != null)
+			requestBuilder.version(request.getVersion() == HttpVersion.HTTP_2 ? Version.HTTP_2 : Version.HTTP_1_1);
+
+		final int timeout = request.getAttemptTimeout();
+		if (timeout > 0)
+			requestBuilder.timeout(Duration.ofMillis(timeout));
 
 		for (final Entry<String, String> header : request.getHeaders().entrySet()) {
 			requestBuilder.header(header.getKey(), header.getValue());
@@ -114,34 +643,78 @@ public class Java11Transport implements Transport {
 		}
 
 		configure(requestBuilder);
-		final java.net.http.HttpRequest javaRequest = requestBuilder.build();
+		return requestBuilder.build();
+	}
 
-		final java.net.http.HttpResponse<byte[]> response = client.send(javaRequest, BodyHandlers.ofByteArray());
+	/** The client wraps whatever a body subscriber failed with; dig out our limit exception if it's in there */
+	private static ResponseTooLargeException findTooLarge(final Throwable ex) {
+		for (final Throwable cause : Throwables.getCausalChain(ex)) {
+			if (cause instanceof ResponseTooLargeException)
+				return (ResponseTooLargeException)cause;
+		}
+		return null;
+	}
+
+	/** */
+	private static TransportResponse toTransportResponse(final java.net.http.HttpResponse<byte[]> response) {
+		return toTransportResponse(response.statusCode(), response.headers(), response.body());
+	}
+
+	/** */
+	private static TransportResponse toTransportResponse(final int code, final HttpHeaders httpHeaders, final byte[] body) {
+		// HttpHeaders are already immutable and case insensitive, so there is no need to copy them
+		final ListMultimap<String, String> headers = new CaseInsensitiveMultimapView<>(httpHeaders.map(), true);
 
 		return new TransportResponse() {
 			@Override
 			public int getResponseCode() throws IOException {
-				return response.statusCode();
+				return code;
 			}
 
 			@Override
 			public InputStream getContentStream() throws IOException {
-				return new ByteArrayInputStream(response.body());
+				return new ByteArrayInputStream(body);
 			}
 
 			@Override
 			public byte[] getContentBytes() throws IOException {
-				return response.body();
+				return body;
 			}
 
 			@Override
 			public ListMultimap<String, String> getHeaders() throws IOException {
-				final ListMultimap<String, String> headers = ArrayListMultimap.create();
+				return headers;
+			}
+		};
+	}
 
-				for (final Entry<String, List<String>> header : response.headers().map().entrySet()) {
-					headers.putAll(header.getKey(), header.getValue());
-				}
+	/** */
+	private static TransportResponse toDecodedTransportResponse(final java.net.http.HttpResponse<Object> response) {
+		final ListMultimap<String, String> headers = new CaseInsensitiveMultimapView<>(response.headers().map(), true);
 
+		return new DecodedTransportResponse() {
+			@Override
+			public Object getContentValue() {
+				return response.body();
+			}
+
+			@Override
+			public int getResponseCode() throws IOException {
+				return response.statusCode();
+			}
+
+			@Override
+			public InputStream getContentStream() throws IOException {
+				return InputStream.nullInputStream();
+			}
+
+			@Override
+			public byte[] getContentBytes() throws IOException {
+				return new byte[0];
+			}
+
+			@Override
+			public ListMultimap<String, String> getHeaders() throws IOException {
 				return headers;
 			}
 		};
@@ -0,0 +1,105 @@
+package com.voodoodyne.hattery;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * <p>Parses a JSON body with Jackson's non-blocking parser as the buffers arrive, so no thread waits on
+ * the body and the raw bytes are never collected. Tokens are kept in a TokenBuffer (Jackson can't bind
+ * directly from a non-blocking parser) and bound to the type once the body is complete.</p>
+ */
+class JsonBodySubscriber<T> implements BodySubscriber<T> {
+
+	private final CompletableFuture<T> result = new CompletableFuture<>();
+
+	private final ObjectMapper mapper;
+	private final JavaType type;
+
+	private final JsonParser parser;
+	private final ByteArrayFeeder feeder;
+	private final TokenBuffer tokens;
+
+	/** The feeder needs an array; HttpClient buffers are often read-only or direct */
+	private byte[] scratch = new byte[0];
+
+	private Flow.Subscription subscription;
+
+	/** */
+	JsonBodySubscriber(final ObjectMapper mapper, final JavaType type) throws IOException {
+		this.mapper = mapper;
+		this.type = type;
+		this.parser = mapper.getFactory().createNonBlockingByteArrayParser();
+		this.feeder = (ByteArrayFeeder)parser.getNonBlockingInputFeeder();
+		this.tokens = new TokenBuffer(parser);
+	}
+
+	@Override
+	public CompletionStage<T> getBody() {
+		return result;
+	}
+
+	@Override
+	public void onSubscribe(final Flow.Subscription subscription) {
+		this.subscription = subscription;
+		subscription.request(Long.MAX_VALUE);
+	}
+
+	@Override
+	public void onNext(final List<ByteBuffer> items) {
+		if (result.isDone())
+			return;
+
+		try {
+			for (final ByteBuffer item : items) {
+				final int length = item.remaining();
+				if (scratch.length < length)
+					scratch = new byte[length];
+
+				item.get(scratch, 0, length);
+				feeder.feedInput(scratch, 0, length);
+				copyAvailableTokens();
+			}
+		} catch (IOException | RuntimeException e) {
+			subscription.cancel();
+			result.completeExceptionally(e);
+		}
+	}
+
+	@Override
+	public void onError(final Throwable throwable) {
+		result.completeExceptionally(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		if (result.isDone())
+			return;
+
+		try {
+			feeder.endOfInput();
+			copyAvailableTokens();
+			result.complete(mapper.readValue(tokens.asParser(mapper), type));
+		} catch (IOException | RuntimeException e) {
+			result.completeExceptionally(e);
+		}
+	}
+
+	/** Move everything the parser can make of the input so far into the token buffer */
+	private void copyAvailableTokens() throws IOException {
+		JsonToken token;
+		while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE)
+			tokens.copyCurrentEvent(parser);
+	}
+}
@@ -0,0 +1,160 @@
+package com.voodoodyne.hattery;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Pulls a few values out of a JSON document by pointer, without building a tree of the rest of it.
+ * Subtrees that no pointer leads into are skipped token by token, and parsing stops as soon as every
+ * pointer has been resolved.</p>
+ *
+ * <p>Not thread safe; use one per document.</p>
+ */
+final class JsonPointerExtractor {
+
+	/** One pointer, and how much of it is left to match at the current position */
+	private static final class Target {
+		final JsonPointer pointer;
+		final JsonPointer remaining;
+
+		Target(final JsonPointer pointer, final JsonPointer remaining) {
+			this.pointer = pointer;
+			this.remaining = remaining;
+		}
+	}
+
+	private final ObjectMapper mapper;
+
+	/** In the order they were asked for */
+	private final Map<JsonPointer, JsonNode> results = new LinkedHashMap<>();
+
+	/** Pointers which have been found, or can no longer be */
+	private final Set<JsonPointer> settled = new HashSet<>();
+
+	private int unresolved;
+
+	/** */
+	JsonPointerExtractor(final ObjectMapper mapper, final JsonPointer... pointers) {
+		this.mapper = mapper;
+
+		for (final JsonPointer pointer : pointers)
+			results.put(pointer, MissingNode.getInstance());
+
+		this.unresolved = results.size();
+	}
+
+	/**
+	 * Parse the stream (and close it).
+	 * @return a value for every pointer, MissingNode if it isn't in the document
+	 */
+	Map<JsonPointer, JsonNode> extract(final InputStream content) throws IOException {
+		try (final JsonParser parser = mapper.getFactory().createParser(content)) {
+			final List<Target> targets = new ArrayList<>();
+			for (final JsonPointer pointer : results.keySet())
+				targets.add(new Target(pointer, pointer));
+
+			if (!targets.isEmpty() && parser.nextToken() != null)
+				walk(parser, targets);
+		}
+
+		return results;
+	}
+
+	/**
+	 * An already decoded value (ie, from fetchAsync()) just gets looked up in its tree.
+	 * @return a value for every pointer, MissingNode if it isn't in the document
+	 */
+	Map<JsonPointer, JsonNode> extract(final Object value) {
+		final JsonNode tree = mapper.valueToTree(value);
+		for (final JsonPointer pointer : results.keySet())
+			results.put(pointer, tree == null ? MissingNode.getInstance() : tree.at(pointer));
+
+		return results;
+	}
+
+	/**
+	 * The parser is on the first token of a value that each of the targets leads into (or is).
+	 * Returns with the parser on the last token of that value, or wherever it was when the last
+	 * target was resolved. Either way, every target is settled.
+	 */
+	private void walk(final JsonParser parser, final List<Target> targets) throws IOException {
+		for (final Target target : targets) {
+			if (target.remaining.matches()) {
+				// Someone wants this whole value; anyone who wants part of it can find that in the tree
+				final JsonNode tree = mapper.readTree(parser);
+				final JsonNode node = (tree == null) ? NullNode.getInstance() : tree;
+				for (final Target resolved : targets)
+					resolve(resolved.pointer, node.at(resolved.remaining));
+
+				return;
+			}
+		}
+
+		final JsonToken start = parser.currentToken();
+		if (start == JsonToken.START_OBJECT) {
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				final String name = parser.getCurrentName();
+
+				final List<Target> matching = new ArrayList<>();
+				for (final Target target : targets) {
+					final JsonPointer tail = target.remaining.matchProperty(name);
+					if (tail != null)
+						matching.add(new Target(target.pointer, tail));
+				}
+
+				parser.nextToken();
+				if (matching.isEmpty()) {
+					parser.skipChildren();
+				} else {
+					walk(parser, matching);
+					if (unresolved == 0)
+						return;
+				}
+			}
+		}
+		else if (start == JsonToken.START_ARRAY) {
+			for (int index = 0; parser.nextToken() != JsonToken.END_ARRAY; index++) {
+				final List<Target> matching = new ArrayList<>();
+				for (final Target target : targets) {
+					final JsonPointer tail = target.remaining.matchElement(index);
+					if (tail != null)
+						matching.add(new Target(target.pointer, tail));
+				}
+
+				if (matching.isEmpty()) {
+					parser.skipChildren();
+				} else {
+					walk(parser, matching);
+					if (unresolved == 0)
+						return;
+				}
+			}
+		}
+
+		// The value is over, so whatever wasn't found in it is not in the document
+		for (final Target target : targets)
+			resolve(target.pointer, MissingNode.getInstance());
+	}
+
+	/** The first answer for a pointer is final */
+	private void resolve(final JsonPointer pointer, final JsonNode node) {
+		if (settled.add(pointer)) {
+			results.put(pointer, node);
+			unresolved--;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package com.voodoodyne.hattery;
+
+import com.fasterxml.jackson.databind.JavaType;
+import lombok.ToString;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * <p>Creates the real transport on the first fetch. This is what {@code HttpRequest.HTTP} uses, so that
+ * merely loading Hattery doesn't start HttpClient selector threads in apps which bring their own transport.</p>
+ *
+ * <p>Closing releases the real transport (if it was ever created); a later fetch creates a new one.</p>
+ */
+@ToString(exclude = "factory")
+final class LazyTransport implements Transport {
+
+	private final Supplier<Transport> factory;
+
+	private volatile Transport delegate;
+
+	/** */
+	LazyTransport(final Supplier<Transport> factory) {
+		this.factory = factory;
+	}
+
+	/** Create the delegate if necessary */
+	private Transport delegate() {
+		Transport transport = delegate;
+		if (transport == null) {
+			synchronized (this) {
+				transport = delegate;
+				if (transport == null) {
+					transport = factory.get();
+					delegate = transport;
+				}
+			}
+		}
+		return transport;
+	}
+
+	@Override
+	public TransportResponse fetch(final HttpRequest request) throws IOException {
+		return delegate().fetch(request);
+	}
+
+	@Override
+	public TransportResponse fetchToFile(final HttpRequest request, final Path destination) throws IOException {
+		return delegate().fetchToFile(request, destination);
+	}
+
+	@Override
+	public TransportResponse fetchStreaming(final HttpRequest request) throws IOException {
+		return delegate().fetchStreaming(request);
+	}
+
+	@Override
+	public CompletableFuture<TransportResponse> fetchAsync(final HttpRequest request, final JavaType type) throws IOException {
+		return delegate().fetchAsync(request, type);
+	}
+
+	@Override
+	public boolean wantsSerializedBody() {
+		return delegate().wantsSerializedBody();
+	}
+
+	@Override
+	public void close() throws IOException {
+		final Transport closing;
+		synchronized (this) {
+			closing = delegate;
+			delegate = null;
+		}
+
+		if (closing != null)
+			closing.close();
+	}
+}
@@ -0,0 +1,79 @@
+package com.voodoodyne.hattery;
+
+import java.net.http.HttpResponse.BodySubscriber;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Wraps another BodySubscriber, counting bytes as they arrive. If the declared Content-Length or the
+ * running count passes the limit, the subscription is cancelled (which aborts the exchange) and the
+ * body completes with ResponseTooLargeException. The overflowing buffers are never passed on.
+ */
+class LimitedBodySubscriber<T> implements BodySubscriber<T> {
+
+	private final BodySubscriber<T> delegate;
+	private final long limit;
+
+	/** -1 if unknown */
+	private final long declaredLength;
+
+	private Flow.Subscription subscription;
+	private long count;
+	private boolean failed;
+
+	/** */
+	LimitedBodySubscriber(final BodySubscriber<T> delegate, final long limit, final long declaredLength) {
+		this.delegate = delegate;
+		this.limit = limit;
+		this.declaredLength = declaredLength;
+	}
+
+	@Override
+	public CompletionStage<T> getBody() {
+		return delegate.getBody();
+	}
+
+	@Override
+	public void onSubscribe(final Flow.Subscription subscription) {
+		this.subscription = subscription;
+		delegate.onSubscribe(subscription);
+
+		if (declaredLength > limit)
+			fail();
+	}
+
+	@Override
+	public void onNext(final List<ByteBuffer> items) {
+		if (failed)
+			return;
+
+		for (final ByteBuffer item : items)
+			count += item.remaining();
+
+		if (count > limit)
+			fail();
+		else
+			delegate.onNext(items);
+	}
+
+	@Override
+	public void onError(final Throwable throwable) {
+		if (!failed)
+			delegate.onError(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		if (!failed)
+			delegate.onComplete();
+	}
+
+	/** */
+	private void fail() {
+		failed = true;
+		subscription.cancel();
+		delegate.onError(new ResponseTooLargeException(limit));
+	}
+}
@@ -0,0 +1,68 @@
+package com.voodoodyne.hattery;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts bytes as they are read and throws ResponseTooLargeException as soon as the count passes the limit.
+ * Unlike Guava's ByteStreams.limit(), an oversized body is an error rather than being silently truncated.
+ */
+class LimitedInputStream extends FilterInputStream {
+
+	private final long limit;
+
+	/** Called once when the limit is exceeded, to abort the underlying exchange */
+	private final Runnable abort;
+
+	private long count;
+
+	/** */
+	LimitedInputStream(final InputStream in, final long limit, final Runnable abort) {
+		super(in);
+		this.limit = limit;
+		this.abort = abort;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int b = super.read();
+		if (b >= 0)
+			counted(1);
+
+		return b;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		// Never ask for more than one byte past the limit, so the overflow isn't read into the caller's buffer
+		final int read = super.read(b, off, (int)Math.min(len, limit - count + 1));
+		if (read > 0)
+			counted(read);
+
+		return read;
+	}
+
+	@Override
+	public long skip(final long n) throws IOException {
+		final long skipped = super.skip(Math.min(n, limit - count + 1));
+		if (skipped > 0)
+			counted(skipped);
+
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	/** */
+	private void counted(final long bytes) {
+		count += bytes;
+		if (count > limit) {
+			abort.run();
+			throw new ResponseTooLargeException(limit);
+		}
+	}
+}
@@ -0,0 +1,432 @@
+package com.voodoodyne.hattery;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * <p>Spreads requests across several replicas of the same service, for services which sit behind nothing
+ * but DNS. Each attempt rewrites the scheme, host and port of the request url to one of the origins and
+ * sends it through the delegate transport. Request urls can be absolute (the origin is replaced) or
+ * just a path.</p>
+ *
+ * <p>Replicas are picked with power-of-two-choices: two are sampled at random and the one with the lower
+ * {@code (in-flight + 1) * latency} wins, where latency is an exponentially weighted moving average.
+ * A replica which fails (connection error, timeout, or 5xx) several times in a row is ejected for a
+ * while, longer each time it happens again; each ejection time it then stays in service forgives one of
+ * those ejections. When it comes back it is weighted down and ramped up over the slow-start window.
+ * No more than half the replicas are ever ejected; if every replica is ejected or failing, requests go
+ * to all of them anyway.</p>
+ *
+ * <p>This transport does the retrying itself, each retry on a different replica when there is one.
+ * Connection failures and timeouts are retried (within the request's deadline, if any); responses
+ * (even 5xx) are returned.</p>
+ */
+@Slf4j
+public class LoadBalancingTransport implements Transport {
+
+	/** */
+	public static final int DEFAULT_CONSECUTIVE_FAILURES = 5;
+	public static final Duration DEFAULT_EJECTION_TIME = Duration.ofSeconds(30);
+	public static final Duration DEFAULT_SLOW_START = Duration.ofSeconds(30);
+
+	/** How much a new latency sample counts against the running average */
+	private static final double EWMA_ALPHA = 0.3;
+
+	/** A replica fresh out of ejection gets this fraction of its normal share */
+	private static final double MIN_WEIGHT = 0.1;
+
+	/** Ejection time stops growing after this many ejections */
+	private static final int MAX_EJECTION_MULTIPLIER = 10;
+
+	/** Snapshot of one replica, for monitoring */
+	@Value
+	public static class ReplicaStatus {
+		String origin;
+		int inFlight;
+		double latencyMillis;
+		boolean ejected;
+		long requests;
+		long failures;
+	}
+
+	/** */
+	private final Transport delegate;
+
+	private final List<Replica> replicas;
+
+	private final int consecutiveFailures;
+	private final long ejectionNanos;
+	private final long slowStartNanos;
+
+	/** Never eject more than this many at once */
+	private final int maxEjected;
+
+	/**
+	 * Uses the default outlier detection settings.
+	 * @param origins are like {@code https://host:port}, without a path
+	 */
+	public LoadBalancingTransport(final Transport delegate, final Collection<String> origins) {
+		this(delegate, origins, DEFAULT_CONSECUTIVE_FAILURES, DEFAULT_EJECTION_TIME, DEFAULT_SLOW_START);
+	}
+
+	/**
+	 * @param origins are like {@code https://host:port}, without a path
+	 * @param consecutiveFailures is how many failures in a row get a replica ejected
+	 * @param ejectionTime is how long the first ejection lasts; each further ejection of the same replica
+	 *                     lasts this much longer, and each period this long back in service takes one off
+	 * @param slowStart is how long a replica takes to get back to full weight after an ejection (can be zero)
+	 */
+	public LoadBalancingTransport(final Transport delegate, final Collection<String> origins, final int consecutiveFailures, final Duration ejectionTime, final Duration slowStart) {
+		Preconditions.checkNotNull(delegate);
+		Preconditions.checkArgument(!origins.isEmpty(), "Must have at least one origin");
+		Preconditions.checkArgument(consecutiveFailures > 0, "consecutiveFailures must be positive");
+
+		final List<Replica> replicas = new ArrayList<>();
+		for (final String origin : origins)
+			replicas.add(new Replica(normalizeOrigin(origin)));
+
+		this.delegate = delegate;
+		this.replicas = ImmutableList.copyOf(replicas);
+		this.consecutiveFailures = consecutiveFailures;
+		this.ejectionNanos = ejectionTime.toNanos();
+		this.slowStartNanos = slowStart.toNanos();
+		this.maxEjected = replicas.size() / 2;
+	}
+
+	/** Checks that it really is just an origin and strips any trailing slash */
+	private static String normalizeOrigin(final String origin) {
+		final URI uri = URI.create(origin);
+		Preconditions.checkArgument(uri.getScheme() != null && uri.getRawAuthority() != null, "Origin must be like https://host:port: %s", origin);
+		Preconditions.checkArgument(uri.getRawPath() == null || uri.getRawPath().isEmpty() || uri.getRawPath().equals("/"), "Origin must not have a path: %s", origin);
+		Preconditions.checkArgument(uri.getRawQuery() == null, "Origin must not have a query: %s", origin);
+
+		return uri.getScheme() + "://" + uri.getRawAuthority();
+	}
+
+	/** @return a snapshot of every replica */
+	public List<ReplicaStatus> getStatus() {
+		final long now = System.nanoTime();
+		final List<ReplicaStatus> status = new ArrayList<>();
+		for (final Replica replica : replicas)
+			status.add(replica.status(now));
+
+		return status;
+	}
+
+	@Override
+	public TransportResponse fetch(final HttpRequest request) throws IOException {
+		return fetchWithRetries(request, replica -> delegate.fetch(replica));
+	}
+
+	@Override
+	public TransportResponse fetchToFile(final HttpRequest request, final Path destination) throws IOException {
+		return fetchWithRetries(request, replica -> delegate.fetchToFile(replica, destination));
+	}
+
+	@Override
+	public TransportResponse fetchStreaming(final HttpRequest request) throws IOException {
+		return fetchWithRetries(request, replica -> delegate.fetchStreaming(replica));
+	}
+
+	/** One attempt against the delegate */
+	private interface Attempt {
+		TransportResponse fetch(final HttpRequest request) throws IOException;
+	}
+
+	/** */
+	private TransportResponse fetchWithRetries(final HttpRequest request, final Attempt attempt) throws IOException {
+		final List<Replica> tried = new ArrayList<>();
+
+		for (int i = 0; ; i++) {
+			request.checkDeadline();
+
+			final Replica replica = choose(tried);
+			tried.add(replica);
+
+			final long start = replica.begin();
+			final TransportResponse response;
+			final int responseCode;
+			try {
+				response = attempt.fetch(rewrite(request, replica));
+				responseCode = response.getResponseCode();
+			} catch (IOException | RuntimeException ex) {
+				finish(replica, start, 0);
+
+				if (i >= request.getRetries() || !isRetryable(request, ex))
+					throw ex;
+
+				log.warn("Error from {}, retrying: {}", replica.origin, ex.toString());
+				continue;
+			}
+
+			finish(replica, start, responseCode);
+			return response;
+		}
+	}
+
+	@Override
+	public CompletableFuture<TransportResponse> fetchAsync(final HttpRequest request, final JavaType type) throws IOException {
+		return fetchAsyncWithRetries(request, type, new ArrayList<>());
+	}
+
+	/** @param tried is only ever touched by one attempt at a time */
+	private CompletableFuture<TransportResponse> fetchAsyncWithRetries(final HttpRequest request, final JavaType type, final List<Replica> tried) throws IOException {
+		request.checkDeadline();
+
+		final Replica replica = choose(tried);
+		tried.add(replica);
+
+		final long start = replica.begin();
+		final CompletableFuture<TransportResponse> future;
+		try {
+			future = delegate.fetchAsync(rewrite(request, replica), type);
+		} catch (IOException | RuntimeException ex) {
+			finish(replica, start, 0);
+			throw ex;
+		}
+
+		return future
+				.handle((response, ex) -> {
+					if (ex == null) {
+						try {
+							finish(replica, start, response.getResponseCode());
+						} catch (IOException e) {
+							return CompletableFuture.<TransportResponse>failedFuture(e);
+						}
+						return CompletableFuture.completedFuture(response);
+					}
+
+					finish(replica, start, 0);
+
+					final Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+					if (tried.size() <= request.getRetries() && isRetryable(request, cause)) {
+						log.warn("Error from {}, retrying: {}", replica.origin, cause.toString());
+						try {
+							return fetchAsyncWithRetries(request, type, tried);
+						} catch (IOException e) {
+							return CompletableFuture.<TransportResponse>failedFuture(e);
+						}
+					}
+
+					return CompletableFuture.<TransportResponse>failedFuture(cause);
+				})
+				.thenCompose(Function.identity());
+	}
+
+	@Override
+	public boolean wantsSerializedBody() {
+		return delegate.wantsSerializedBody();
+	}
+
+	/** Closes the delegate */
+	@Override
+	public void close() throws IOException {
+		delegate.close();
+	}
+
+	/**
+	 * Errors which mean the request never got a response, so it is safe to try elsewhere. A body which can
+	 * only be sent once is still unsent if the connection was refused, but not after a timeout.
+	 */
+	private static boolean isRetryable(final HttpRequest request, final Throwable ex) {
+		Throwable cause = ex;
+		if (cause instanceof IORuntimeException && cause.getCause() != null)
+			cause = cause.getCause();
+
+		return cause instanceof ConnectException
+				|| ((cause instanceof HttpTimeoutException || cause instanceof SocketTimeoutException) && request.isReplayable());
+	}
+
+	/** Point the request at the replica; retries are ours, not the delegate's */
+	private static HttpRequest rewrite(final HttpRequest request, final Replica replica) {
+		return request.url(replica.origin + pathOf(request.getUrl())).retries(0);
+	}
+
+	/** @return everything after the authority (path, query, fragment), or the whole thing if it is not absolute */
+	static String pathOf(final String url) {
+		final int scheme = url.indexOf("://");
+		if (scheme < 0)
+			return url.startsWith("/") ? url : ("/" + url);
+
+		final int authorityStart = scheme + 3;
+		for (int i = authorityStart; i < url.length(); i++) {
+			final char c = url.charAt(i);
+			if (c == '/')
+				return url.substring(i);
+			if (c == '?' || c == '#')
+				return "/" + url.substring(i);
+		}
+
+		return "";
+	}
+
+	/**
+	 * Power-of-two-choices among the replicas which are not ejected, preferring ones not already tried
+	 * by this request.
+	 */
+	private Replica choose(final List<Replica> tried) {
+		final long now = System.nanoTime();
+
+		List<Replica> candidates = new ArrayList<>(replicas.size());
+		for (final Replica replica : replicas)
+			if (!replica.isEjected(now) && !tried.contains(replica))
+				candidates.add(replica);
+
+		if (candidates.isEmpty()) {
+			for (final Replica replica : replicas)
+				if (!replica.isEjected(now))
+					candidates.add(replica);
+		}
+
+		// Panic; everything is ejected, so spread the load over all of it
+		if (candidates.isEmpty())
+			candidates = replicas;
+
+		if (candidates.size() == 1)
+			return candidates.get(0);
+
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final int first = random.nextInt(candidates.size());
+		final int second = (first + 1 + random.nextInt(candidates.size() - 1)) % candidates.size();
+
+		final Replica a = candidates.get(first);
+		final Replica b = candidates.get(second);
+		return a.cost(now) <= b.cost(now) ? a : b;
+	}
+
+	/**
+	 * Record the outcome of an attempt, ejecting the replica if it has failed too many times in a row.
+	 * @param responseCode is 0 if there was no response
+	 */
+	private void finish(final Replica replica, final long start, final int responseCode) {
+		final long now = System.nanoTime();
+		replica.inFlight.decrementAndGet();
+
+		final boolean failed = responseCode == 0 || responseCode >= 500;
+		if (!failed) {
+			replica.succeeded(now - start);
+			return;
+		}
+
+		if (replica.failed(now - start) >= consecutiveFailures)
+			eject(replica, now);
+	}
+
+	/** Eject unless too many replicas are already out */
+	private synchronized void eject(final Replica replica, final long now) {
+		if (replica.isEjected(now))
+			return;
+
+		int ejected = 0;
+		for (final Replica other : replicas)
+			if (other.isEjected(now))
+				ejected++;
+
+		if (ejected >= maxEjected)
+			return;
+
+		replica.eject(now, ejectionNanos, slowStartNanos);
+		log.warn("Ejected {} after {} consecutive failures", replica.origin, consecutiveFailures);
+	}
+
+	/**
+	 * The live state of one origin. Counters are atomic; everything else is guarded by the replica's monitor.
+	 */
+	static class Replica {
+		final String origin;
+
+		final AtomicInteger inFlight = new AtomicInteger();
+
+		/** Nanos; 0 until the first sample */
+		private double latency;
+
+		private long requests;
+		private long failures;
+		private int consecutiveFailures;
+
+		/** Recent ejections, which set how long the next one lasts; at most MAX_EJECTION_MULTIPLIER */
+		private int ejections;
+
+		/** Meaningful only when ejections > 0 */
+		private long ejectedUntil;
+		private long slowStartUntil;
+
+		Replica(final String origin) {
+			this.origin = origin;
+		}
+
+		/** @return the start time */
+		long begin() {
+			inFlight.incrementAndGet();
+			synchronized (this) {
+				requests++;
+			}
+			return System.nanoTime();
+		}
+
+		synchronized void succeeded(final long elapsed) {
+			consecutiveFailures = 0;
+			latency = (latency == 0) ? elapsed : latency + EWMA_ALPHA * (elapsed - latency);
+		}
+
+		/**
+		 * Failures also count against latency, so a replica which fails fast doesn't look attractive.
+		 * @return the number of consecutive failures, including this one
+		 */
+		synchronized int failed(final long elapsed) {
+			failures++;
+			latency = Math.max(latency * 2, elapsed);
+			return ++consecutiveFailures;
+		}
+
+		/** Each full ejection time spent back in service since the last ejection forgives one earlier ejection */
+		synchronized void eject(final long now, final long ejectionNanos, final long slowStartNanos) {
+			if (ejections > 0 && ejectionNanos > 0 && now - ejectedUntil > 0)
+				ejections = (int)Math.max(0, ejections - (now - ejectedUntil) / ejectionNanos);
+
+			ejections = Math.min(ejections + 1, MAX_EJECTION_MULTIPLIER);
+			consecutiveFailures = 0;
+			ejectedUntil = now + ejectionNanos * ejections;
+			slowStartUntil = ejectedUntil + slowStartNanos;
+		}
+
+		synchronized boolean isEjected(final long now) {
+			return ejections > 0 && now - ejectedUntil < 0;
+		}
+
+		/** Lower is better. Unmeasured replicas are cheap, so they get measured. */
+		synchronized double cost(final long now) {
+			final double load = (inFlight.get() + 1) * Math.max(latency, 1);
+
+			if (ejections > 0 && now - slowStartUntil < 0 && slowStartUntil != ejectedUntil) {
+				final double ramp = (double)(now - ejectedUntil) / (slowStartUntil - ejectedUntil);
+				return load / Math.max(MIN_WEIGHT, ramp);
+			}
+
+			return load;
+		}
+
+		synchronized ReplicaStatus status(final long now) {
+			return new ReplicaStatus(origin, inFlight.get(), latency / 1_000_000, isEjected(now), requests, failures);
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package com.voodoodyne.hattery;
+
+import com.google.common.base.Preconditions;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Speaks HTTP/1.1 itself over non-blocking SocketChannels, for low-latency calls to plain http services
+ * (typically sidecars and internal services on a fast network). There are no threads of its own: each request
+ * is written and its response read by the calling thread, using selectors only to wait.</p>
+ *
+ * <ul>
+ *     <li>Connections are pooled per host and port, reused most-recent-first, and closed after sitting idle
+ *     too long. TCP_NODELAY is on by default, since requests are written in as few packets as possible anyway.</li>
+ *     <li>The request head and an already-serialized body go out in one gathering write; file bodies are sent
+ *     with {@code transferTo()}.</li>
+ *     <li>Responses are parsed straight out of a direct buffer. A body with a Content-Length is read into an
+ *     array of exactly that size without intermediate copies.</li>
+ *     <li>With pipelining enabled, idempotent requests with replayable bodies may be written onto a connection
+ *     which is still waiting for earlier responses. Many servers handle this poorly, so it is off by default.</li>
+ * </ul>
+ *
+ * <p>Response bodies are always read completely into memory before fetch() returns. fetchToFile(),
+ * fetchStreaming() and fetchAsync() are Transport's defaults on top of that: they copy out of the buffered body,
+ * wait for all of it, or block a pool thread. The latency this saves is per-request overhead on small exchanges;
+ * for large bodies, use Java11Transport.</p>
+ *
+ * <p>Only plain http is spoken here. https requests (including redirects to https) go to the Transport passed
+ * to the constructor, or fail with IllegalArgumentException if there isn't one.</p>
+ */
+public class NioTransport implements Transport {
+
+	/**
+	 * Configuration for the transport. Start with {@code Options.DEFAULT} and change what you need; each
+	 * method returns a new instance.
+	 */
+	@Value
+	@AllArgsConstructor(access = AccessLevel.PRIVATE)
+	public static class Options {
+		/** */
+		public static final Options DEFAULT = new Options(8, 60_000, true, 0, 0, 16 * 1024, 30_000, false, 8);
+
+		/** Idle connections kept for each host and port */
+		int maxIdlePerHost;
+
+		/** Idle connections are closed after this long */
+		long idleTimeoutMillis;
+
+		/** */
+		boolean tcpNoDelay;
+
+		/** SO_SNDBUF and SO_RCVBUF; 0 leaves the OS default */
+		int sendBufferSize;
+		int receiveBufferSize;
+
+		/** Size of each connection's direct buffers; a request head must fit, or the buffer is grown */
+		int bufferSize;
+
+		/** How long a DNS lookup is used before looking again */
+		long dnsTtlMillis;
+
+		/** */
+		boolean pipelining;
+
+		/** The most requests waiting for responses on one connection when pipelining */
+		int pipelineDepth;
+
+		/** */
+		public Options maxIdlePerHost(final int value) {
+			Preconditions.checkArgument(value >= 0, "maxIdlePerHost cannot be negative");
+			return new Options(value, idleTimeoutMillis, tcpNoDelay, sendBufferSize, receiveBufferSize, bufferSize, dnsTtlMillis, pipelining, pipelineDepth);
+		}
+
+		/** */
+		public Options idleTimeoutMillis(final long value) {
+			return new Options(maxIdlePerHost, value, tcpNoDelay, sendBufferSize, receiveBufferSize, bufferSize, dnsTtlMillis, pipelining, pipelineDepth);
+		}
+
+		/** */
+		public Options tcpNoDelay(final boolean value) {
+			return new Options(maxIdlePerHost, idleTimeoutMillis, value, sendBufferSize, receiveBufferSize, bufferSize, dnsTtlMillis, pipelining, pipelineDepth);
+		}
+
+		/** */
+		public Options socketBufferSizes(final int send, final int receive) {
+			return new Options(maxIdlePerHost, idleTimeoutMillis, tcpNoDelay, send, receive, bufferSize, dnsTtlMillis, pipelining, pipelineDepth);
+		}
+
+		/** */
+		public Options bufferSize(final int value) {
+			Preconditions.checkArgument(value >= 256, "bufferSize is too small");
+			return new Options(maxIdlePerHost, idleTimeoutMillis, tcpNoDelay, sendBufferSize, receiveBufferSize, value, dnsTtlMillis, pipelining, pipelineDepth);
+		}
+
+		/** */
+		public Options dnsTtlMillis(final long value) {
+			return new Options(maxIdlePerHost, idleTimeoutMillis, tcpNoDelay, sendBufferSize, receiveBufferSize, bufferSize, value, pipelining, pipelineDepth);
+		}
+
+		/** */
+		public Options pipelining(final boolean value) {
+			return new Options(maxIdlePerHost, idleTimeoutMillis, tcpNoDelay, sendBufferSize, receiveBufferSize, bufferSize, dnsTtlMillis, value, pipelineDepth);
+		}
+
+		/** */
+		public Options pipelineDepth(final int value) {
+			Preconditions.checkArgument(value > 0, "pipelineDepth must be positive");
+			return new Options(maxIdlePerHost, idleTimeoutMillis, tcpNoDelay, sendBufferSize, receiveBufferSize, bufferSize, dnsTtlMillis, pipelining, value);
+		}
+	}
+
+	/** */
+	@Value
+	private static class Resolved {
+		InetAddress[] addresses;
+		long expires;
+	}
+
+	/** */
+	private final Options options;
+
+	/** */
+	private final Http1ConnectionPool pool;
+
+	/** host -> addresses */
+	private final Map<String, Resolved> dns = new ConcurrentHashMap<>();
+
+	/** For https; null to reject it */
+	private final Transport secure;
+
+	/** Without https */
+	public NioTransport() {
+		this(Options.DEFAULT);
+	}
+
+	/** Without https */
+	public NioTransport(final Options options) {
+		this(options, null);
+	}
+
+	/**
+	 * @param secure handles https requests, ie a Java11Transport; it is closed along with this transport.
+	 *               If null, https requests are rejected.
+	 */
+	public NioTransport(final Options options, final Transport secure) {
+		this.options = options;
+		this.secure = secure;
+		this.pool = new Http1ConnectionPool(this::connect, options.getMaxIdlePerHost(), options.getIdleTimeoutMillis(),
+				options.isPipelining() ? options.getPipelineDepth() : 1);
+	}
+
+	/** @return how many connections have been opened */
+	public long getConnectionsOpened() {
+		return pool.getOpenedCount();
+	}
+
+	/** @return how many requests were sent on a connection that was already open */
+	public long getConnectionsReused() {
+		return pool.getReusedCount();
+	}
+
+	@Override
+	public TransportResponse fetch(final HttpRequest request) throws IOException {
+		return Http1ConnectionPool.fetch(request, this::exchange, HttpRequest::redirect);
+	}
+
+	/** Closes all pooled connections, and the https transport */
+	@Override
+	public void close() throws IOException {
+		pool.close();
+		if (secure != null)
+			secure.close();
+	}
+
+	/** One hop; https goes to the secure transport, which follows its own redirects */
+	private TransportResponse exchange(final HttpRequest request) throws IOException {
+		final URI uri = URI.create(request.toUrlString());
+		if ("https".equalsIgnoreCase(uri.getScheme())) {
+			Preconditions.checkArgument(secure != null, "NioTransport has no Transport for https: %s", uri);
+			return secure.fetch(request);
+		}
+
+		Preconditions.checkArgument("http".equalsIgnoreCase(uri.getScheme()), "Unsupported url: %s", uri);
+
+		final int port = uri.getPort() < 0 ? 80 : uri.getPort();
+		final String host = port == 80 ? uri.getHost() : uri.getHost() + ":" + port;
+		final String target = target(uri);
+
+		return pool.exchange(request, uri.getHost() + ":" + port, target, host);
+	}
+
+	/** The path and query, as they go on the request line */
+	static String target(final URI uri) {
+		final String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+		return uri.getRawQuery() == null ? path : path + "?" + uri.getRawQuery();
+	}
+
+	/** Open a connection to host:port, trying each of the host's addresses in turn */
+	private Http1Connection connect(final String destination, final int timeout) throws IOException {
+		final int colon = destination.lastIndexOf(':');
+		final String host = destination.substring(0, colon);
+		final int port = Integer.parseInt(destination.substring(colon + 1));
+
+		IOException failure = null;
+		for (final InetAddress address : resolve(host)) {
+			final SocketChannel channel = SocketChannel.open();
+			try {
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, options.isTcpNoDelay());
+				channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+				if (options.getSendBufferSize() > 0)
+					channel.setOption(StandardSocketOptions.SO_SNDBUF, options.getSendBufferSize());
+				if (options.getReceiveBufferSize() > 0)
+					channel.setOption(StandardSocketOptions.SO_RCVBUF, options.getReceiveBufferSize());
+
+				final Http1Connection conn = new Http1Connection(channel, options.getBufferSize());
+				conn.connect(new InetSocketAddress(address, port), timeout);
+				return conn;
+			} catch (IOException ex) {
+				channel.close();
+				if (failure == null)
+					failure = ex;
+				else
+					failure.addSuppressed(ex);
+			}
+		}
+
+		throw failure;
+	}
+
+	/** */
+	private InetAddress[] resolve(final String host) throws IOException {
+		final long now = System.currentTimeMillis();
+
+		final Resolved cached = dns.get(host);
+		if (cached != null && cached.getExpires() > now)
+			return cached.getAddresses();
+
+		final InetAddress[] addresses = InetAddress.getAllByName(host);
+		dns.put(host, new Resolved(addresses, now + options.getDnsTtlMillis()));
+		return addresses;
+	}
+}
@@ -26,6 +26,7 @@ import lombok.Data;
 import lombok.Value;
 
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 
@@ -70,6 +71,13 @@ public class Param {
 		this.value = new BinaryAttachment(stream, contentType, filename);
 	}
 
+	/**
+	 */
+	public Param(final String name, final Path file, final String contentType, final String filename) {
+		this.name = name;
+		this.value = new BinaryAttachment(file, contentType, filename);
+	}
+
 	/**
 	 * @return a version useful for debugging.
 	 */
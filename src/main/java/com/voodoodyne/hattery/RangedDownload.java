@@ -0,0 +1,211 @@
+package com.voodoodyne.hattery;
+
+import com.voodoodyne.hattery.util.HeaderName;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * <p>Downloads a resource as several concurrent Range requests, each streamed in bounded chunks to its own
+ * offset in a preallocated file. This is the implementation of {@code HttpRequest.fetchToFileParallel()}.</p>
+ *
+ * <p>A HEAD request discovers the length and whether the server accepts byte ranges; if it does not (or it
+ * says it does but then answers a range with the whole body), we fall back to a plain {@code fetchToFile()}.
+ * Each range is retried independently. Every range response must agree with the ETag of the HEAD
+ * response (if there is one) so that we never stitch together pieces of different versions, and its
+ * Content-Range must be exactly the range we asked for, so that no piece lands at the wrong offset.</p>
+ */
+@Slf4j
+@RequiredArgsConstructor
+class RangedDownload {
+	/** Each range gets this many tries before the whole download fails */
+	private static final int MAX_ATTEMPTS = 3;
+
+	/** How much of a range we copy into the file at a time */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** bytes first-last/total */
+	private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d{1,18})-(\\d{1,18})/(\\d{1,18})", Pattern.CASE_INSENSITIVE);
+
+	/** Failures which another attempt at the range won't fix */
+	private static class FatalRangeException extends IORuntimeException {
+		FatalRangeException(final String message) {
+			super(message);
+		}
+	}
+
+	/** The server answered a range with the whole resource */
+	private static class RangeIgnoredException extends FatalRangeException {
+		RangeIgnoredException(final String message) {
+			super(message);
+		}
+	}
+
+	private final HttpRequest request;
+	private final Path destination;
+	private final int parts;
+
+	/**
+	 * @return the response to the HEAD probe, or the full response if we had to fall back to a single fetch
+	 */
+	public HttpResponse execute() {
+		final HttpResponse probe = request.method(HttpMethod.HEAD).fetch().succeed();
+
+		final long length = contentLength(probe);
+		final boolean acceptsRanges = probe.getHeaders(HeaderName.ACCEPT_RANGES).contains("bytes");
+
+		if (parts < 2 || length <= 0 || !acceptsRanges) {
+			log.debug("Not using ranges (length {}, Accept-Ranges {}), fetching in one piece", length, acceptsRanges);
+			return request.fetchToFile(destination);
+		}
+
+		final String etag = header(probe, HeaderName.ETAG);
+
+		try (final FileChannel file = FileChannel.open(destination, CREATE, WRITE, TRUNCATE_EXISTING)) {
+			// Preallocate by writing the last byte; the rest of the file is filled in by the ranges
+			file.write(ByteBuffer.allocate(1), length - 1);
+
+			fetchAll(file, length, etag);
+		} catch (RangeIgnoredException e) {
+			log.debug("Server ignored the Range header, fetching in one piece: {}", e.getMessage());
+			return request.fetchToFile(destination);
+		} catch (IOException e) {
+			throw new IORuntimeException(e);
+		}
+
+		return probe;
+	}
+
+	/** Splits the length into (at most) parts ranges and fetches them concurrently */
+	private void fetchAll(final FileChannel file, final long length, final String etag) throws IOException {
+		final long size = (length + parts - 1) / parts;
+		final ExecutorService executor = Executors.newFixedThreadPool(parts);
+
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+
+			for (long first = 0; first < length; first += size) {
+				final long start = first;
+				final long last = Math.min(length, first + size) - 1;
+
+				futures.add(executor.submit(() -> {
+					fetchRangeWithRetries(file, start, last, length, etag);
+					return null;
+				}));
+			}
+
+			for (final Future<?> future : futures)
+				future.get();
+
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			else if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			else
+				throw new IORuntimeException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IORuntimeException(e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/** Server errors and I/O problems are retried; client errors, a changed resource, and a passed deadline won't get any better so they fail immediately */
+	private void fetchRangeWithRetries(final FileChannel file, final long first, final long last, final long length, final String etag) throws IOException {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				fetchRange(file, first, last, length, etag);
+				return;
+			} catch (IOException | IORuntimeException e) {
+				final boolean clientError = e instanceof HttpException && ((HttpException)e).getCode() < 500;
+
+				if (clientError || e instanceof FatalRangeException || e instanceof DeadlineExceededException || attempt >= MAX_ATTEMPTS)
+					throw e;
+
+				log.warn("Range {}-{} failed, retrying: {}", first, last, e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Fetch bytes first through last (inclusive) and write them at the same position in the file. The body is
+	 * streamed, so a range never has to fit in memory.
+	 *
+	 * @param length of the whole resource, which the Content-Range must agree with
+	 */
+	private void fetchRange(final FileChannel file, final long first, final long last, final long length, final String etag) throws IOException {
+		try (final HttpResponse response = request.header(HeaderName.RANGE.getName(), "bytes=" + first + "-" + last).fetchStreaming().succeed()) {
+			if (response.getResponseCode() == 200)
+				throw new RangeIgnoredException("Range " + first + "-" + last + " was answered with 200");
+
+			if (response.getResponseCode() != 206)
+				throw new IORuntimeException("Expected 206 Partial Content for range " + first + "-" + last + " but got " + response.getResponseCode());
+
+			final String rangeEtag = header(response, HeaderName.ETAG);
+			if (etag != null && rangeEtag != null && !Objects.equals(etag, rangeEtag))
+				throw new FatalRangeException("Resource changed during download; ETag was " + etag + " but range " + first + "-" + last + " has " + rangeEtag);
+
+			// Anything else (a shifted or coalesced range, multipart/byteranges) would land at the wrong offset
+			final String contentRange = header(response, HeaderName.CONTENT_RANGE);
+			final Matcher matcher = contentRange == null ? null : CONTENT_RANGE.matcher(contentRange.trim());
+			if (matcher == null || !matcher.matches()
+					|| Long.parseLong(matcher.group(1)) != first || Long.parseLong(matcher.group(2)) != last || Long.parseLong(matcher.group(3)) != length)
+				throw new FatalRangeException("Expected Content-Range bytes " + first + "-" + last + "/" + length + " but got " + contentRange);
+
+			long position = first;
+
+			try (final InputStream content = response.getContentStream()) {
+				final byte[] buffer = new byte[BUFFER_SIZE];
+				int read;
+
+				while ((read = content.read(buffer)) >= 0) {
+					if (position + read > last + 1)
+						throw new IORuntimeException("Range " + first + "-" + last + " returned too many bytes");
+
+					final ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+					while (chunk.hasRemaining())
+						position += file.write(chunk, position);
+				}
+			}
+
+			if (position != last + 1)
+				throw new IORuntimeException("Range " + first + "-" + last + " ended early at " + position);
+		}
+	}
+
+	/** @return -1 if there is no usable Content-Length */
+	private static long contentLength(final HttpResponse response) {
+		final String value = header(response, HeaderName.CONTENT_LENGTH);
+		try {
+			return value == null ? -1 : Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/** @return the first value of the header, or null */
+	private static String header(final HttpResponse response, final HeaderName name) {
+		final List<String> values = response.getHeaders(name);
+		return values.isEmpty() ? null : values.get(0);
+	}
+}
@@ -0,0 +1,21 @@
+package com.voodoodyne.hattery;
+
+import lombok.Getter;
+
+/**
+ * Thrown when a response body (success or error) is bigger than {@code HttpRequest.maxResponseBytes()}.
+ * The exchange has been aborted and nothing past the limit was buffered.
+ */
+public class ResponseTooLargeException extends IORuntimeException {
+	private static final long serialVersionUID = 5105716262981393537L;
+
+	/** The limit that was exceeded */
+	@Getter
+	private final long limit;
+
+	/** */
+	public ResponseTooLargeException(final long limit) {
+		super("Response body exceeds limit of " + limit + " bytes");
+		this.limit = limit;
+	}
+}
@@ -0,0 +1,79 @@
+package com.voodoodyne.hattery;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Collects a body whose Content-Length is known into an array of exactly that size, copying each buffer
+ * in as it arrives. BodySubscribers.ofByteArray() holds on to every buffer and then joins them, which
+ * briefly needs twice the memory. The Content-Length is only trusted up to MAX_PREALLOCATE; past that the
+ * array starts there and doubles (up to the length) as bytes arrive.
+ */
+class SizedByteArraySubscriber implements BodySubscriber<byte[]> {
+
+	private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+	private final int length;
+	private byte[] content;
+	private int position;
+
+	private Flow.Subscription subscription;
+
+	/** */
+	SizedByteArraySubscriber(final int length) {
+		this.length = length;
+		this.content = new byte[Math.min(length, HttpRequest.MAX_PREALLOCATE)];
+	}
+
+	@Override
+	public CompletionStage<byte[]> getBody() {
+		return result;
+	}
+
+	@Override
+	public void onSubscribe(final Flow.Subscription subscription) {
+		this.subscription = subscription;
+		subscription.request(Long.MAX_VALUE);
+	}
+
+	@Override
+	public void onNext(final List<ByteBuffer> items) {
+		if (result.isDone())
+			return;
+
+		for (final ByteBuffer item : items) {
+			final int count = item.remaining();
+			if (count > length - position) {
+				subscription.cancel();
+				result.completeExceptionally(new IOException("Body is longer than its Content-Length of " + length));
+				return;
+			}
+
+			if (count > content.length - position)
+				content = Arrays.copyOf(content, (int)Math.min(length, Math.max(position + count, content.length * 2L)));
+
+			item.get(content, position, count);
+			position += count;
+		}
+	}
+
+	@Override
+	public void onError(final Throwable throwable) {
+		result.completeExceptionally(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		if (position == length)
+			result.complete(content);
+		else
+			result.completeExceptionally(new EOFException("Body ended after " + position + " of " + length + " bytes"));
+	}
+}
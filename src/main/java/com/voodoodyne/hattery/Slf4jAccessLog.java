@@ -0,0 +1,25 @@
+package com.voodoodyne.hattery;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The default access log; one line per exchange at INFO. Exchanges are not even measured unless
+ * INFO is enabled for this class.
+ */
+@Slf4j
+public class Slf4jAccessLog implements AccessLog {
+
+	@Override
+	public boolean isSampled() {
+		return log.isInfoEnabled();
+	}
+
+	@Override
+	public void record(final AccessLogRecord record) {
+		if (record.getFailure() == null) {
+			log.info("{} {} {} {}b {}ms", record.getMethod(), record.getUrl(), record.getStatus(), record.getResponseBytes(), record.getElapsedMillis());
+		} else {
+			log.info("{} {} failed after {}ms: {}", record.getMethod(), record.getUrl(), record.getElapsedMillis(), record.getFailure().toString());
+		}
+	}
+}
@@ -22,17 +22,95 @@
 
 package com.voodoodyne.hattery;
 
+import com.fasterxml.jackson.databind.JavaType;
+
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * <p>Allows requests to be executed using a particular platform or http library.</p>
+ *
+ * <p>Transports are meant to be long-lived and shared. Close a transport when you are done with it to
+ * release any clients, threads, or pooled connections it owns. Resources that were handed to the
+ * transport by the caller (ie, a shared HttpClient) are not closed.</p>
  * 
  * @author Jeff Schnitzer
  */
-public interface Transport {
+public interface Transport extends Closeable {
 
 	/**
 	 * Executes the specified request once. Does not need to handle retries.
 	 */
 	TransportResponse fetch(final HttpRequest request) throws IOException;
+
+	/**
+	 * Executes the specified request once, writing a successful response body to the destination file
+	 * (replacing it if it exists). An unsuccessful response body is not written; it remains available
+	 * in the returned response. Does not need to handle retries.
+	 *
+	 * The default implementation fetches normally and then copies the content stream. Transports should
+	 * override this if they can write to the file without holding the body in memory.
+	 */
+	default TransportResponse fetchToFile(final HttpRequest request, final Path destination) throws IOException {
+		final TransportResponse response = fetch(request);
+
+		if (HttpResponse.isSuccess(response.getResponseCode())) {
+			try (final InputStream content = response.getContentStream()) {
+				Files.copy(content, destination, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+
+		return response;
+	}
+
+	/**
+	 * Executes the specified request, returning as soon as the response headers are available and leaving
+	 * the body on the connection to be consumed (or closed) through the response. Does not need to handle
+	 * retries.
+	 *
+	 * The default implementation is just fetch(), which is right for transports that already do this.
+	 */
+	default TransportResponse fetchStreaming(final HttpRequest request) throws IOException {
+		return fetch(request);
+	}
+
+	/**
+	 * Executes the specified request without blocking the caller. If the response is successful, the body
+	 * should be bound to the type with the request's mapper and returned as a DecodedTransportResponse.
+	 * An unsuccessful body is returned as-is so it can become an HttpException.
+	 *
+	 * The default implementation runs fetch() on the common pool and leaves the body to be parsed later.
+	 * Transports should override this if they can parse without blocking a thread.
+	 */
+	default CompletableFuture<TransportResponse> fetchAsync(final HttpRequest request, final JavaType type) throws IOException {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return fetch(request);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		});
+	}
+
+	/**
+	 * Whether object and form bodies should be serialized (once, so retries and redirects replay the bytes)
+	 * before requests are handed to this transport. Transports which pass the body object along, like
+	 * InProcessTransport, return false; transports which wrap another should ask it. The default is true.
+	 */
+	default boolean wantsSerializedBody() {
+		return true;
+	}
+
+	/**
+	 * Release whatever this transport owns. The default does nothing.
+	 */
+	@Override
+	default void close() throws IOException {
+	}
 }
\ No newline at end of file
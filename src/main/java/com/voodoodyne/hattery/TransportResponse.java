@@ -1,13 +1,18 @@
 package com.voodoodyne.hattery;
 
 import com.google.common.collect.ListMultimap;
+import com.voodoodyne.hattery.util.InputStreamPublisher;
+
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
 
 /**
  * Returned by transports when requests are executed
  */
-public interface TransportResponse {
+public interface TransportResponse extends Closeable {
 	/** The http response code */
 	int getResponseCode() throws IOException;
 
@@ -17,6 +22,23 @@ public interface TransportResponse {
 	/** Raw bytes of response. Might be more efficient, might not */
 	byte[] getContentBytes() throws IOException;
 
+	/**
+	 * The body content as a publisher. The default reads the content stream as buffers are requested;
+	 * transports which can apply backpressure to the connection itself should override this.
+	 */
+	default Flow.Publisher<ByteBuffer> getContentPublisher() throws IOException {
+		return new InputStreamPublisher(getContentStream());
+	}
+
 	/** Response headers */
 	ListMultimap<String, String> getHeaders() throws IOException;
+
+	/**
+	 * Release any connection held by this response. Transports which keep connections alive should
+	 * make a reasonable effort to leave the connection reusable. Safe to call more than once.
+	 * The default does nothing, which is right for responses that are already fully buffered.
+	 */
+	@Override
+	default void close() throws IOException {
+	}
 }
@@ -23,23 +23,44 @@
 package com.voodoodyne.hattery;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.io.ByteStreams;
+import com.voodoodyne.hattery.util.CaseInsensitiveMultimapView;
+import com.voodoodyne.hattery.util.HeaderName;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.util.List;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
  * <p>Uses the legacy HttpURLConnection in the JDK.</p>
+ *
+ * <p>The JDK keeps idle connections in a process-wide keep-alive cache, but a connection only goes
+ * back into the cache when its response body has been read to the end. When a response is closed,
+ * we drain up to {@code drainLimit} bytes of unread body so the connection can be reused; if there
+ * is more than that left, it's cheaper to drop the connection than to read the rest.</p>
+ *
+ * <p>Request bodies are streamed rather than buffered by HttpURLConnection: with a Content-Length when
+ * the request can say how long the body is, otherwise chunked. In streaming mode HttpURLConnection can't
+ * follow redirects of requests with a body, so this transport follows those itself.</p>
  * 
  * @author Jeff Schnitzer
  */
@@ -47,15 +68,85 @@ import java.util.Map;
 @Slf4j
 public class URLConnectionTransport implements Transport {
 
+	/** Default maximum number of unread body bytes we will read and discard to save a connection */
+	public static final long DEFAULT_DRAIN_LIMIT = 64 * 1024;
+
+	/** Read and discard at most this many leftover bytes on close; beyond that we disconnect */
+	private final long drainLimit;
+
+	/** Responses which were closed with their body fully read, leaving the connection reusable */
+	private final LongAdder reusable = new LongAdder();
+
+	/** Responses which were closed by disconnecting because too much body was left */
+	private final LongAdder disconnected = new LongAdder();
+
+	/** */
+	public URLConnectionTransport() {
+		this(DEFAULT_DRAIN_LIMIT);
+	}
+
+	/**
+	 * @param drainLimit is the maximum number of unread body bytes to discard when a response is closed.
+	 *                   Zero means never drain; responses with unread content will disconnect.
+	 */
+	public URLConnectionTransport(final long drainLimit) {
+		Preconditions.checkArgument(drainLimit >= 0, "drainLimit cannot be negative");
+		this.drainLimit = drainLimit;
+	}
+
+	/**
+	 * Configures the JDK's process-wide keep-alive cache. This sets the {@code http.keepAlive} and
+	 * {@code http.maxConnections} system properties, which the JDK reads only once, so it must be
+	 * called before the first HttpURLConnection is opened.
+	 *
+	 * @param maxConnectionsPerHost is the number of idle connections kept per destination (JDK default 5)
+	 */
+	public static void configureKeepAlive(final boolean enabled, final int maxConnectionsPerHost) {
+		Preconditions.checkArgument(maxConnectionsPerHost > 0, "maxConnectionsPerHost must be positive");
+		System.setProperty("http.keepAlive", Boolean.toString(enabled));
+		System.setProperty("http.maxConnections", Integer.toString(maxConnectionsPerHost));
+	}
+
+	/** @return whether the JDK keep-alive cache is enabled */
+	public static boolean isKeepAlive() {
+		return Boolean.parseBoolean(System.getProperty("http.keepAlive", "true"));
+	}
+
+	/** @return the number of idle connections the JDK keeps per destination */
+	public static int getMaxConnectionsPerHost() {
+		return Integer.getInteger("http.maxConnections", 5);
+	}
+
+	/** @return how many closed responses left their connection reusable */
+	public long getReusableCount() {
+		return reusable.sum();
+	}
+
+	/** @return how many closed responses had to disconnect because too much body was unread */
+	public long getDisconnectedCount() {
+		return disconnected.sum();
+	}
+
 	@Override
 	public TransportResponse fetch(final HttpRequest request) throws IOException {
+		return fetchWithRetries(request, null);
+	}
+
+	/** Successful bodies are transferred from the connection stream directly into a FileChannel */
+	@Override
+	public TransportResponse fetchToFile(final HttpRequest request, final Path destination) throws IOException {
+		return fetchWithRetries(request, destination);
+	}
+
+	/** @param destination can be null to leave the body in the connection stream */
+	private TransportResponse fetchWithRetries(final HttpRequest request, final Path destination) throws IOException {
 		for (int i = 0; i <= request.getRetries(); i++) {
 			try {
-				return executeOnce(request);
+				return executeOnce(request, destination, HttpRequest.MAX_REDIRECTS);
 			} catch (IOException ex) {
 				// This should just be a check for SocketTimeoutException, but GAE is not
 				// throwing the right exception - it's just IOException with "Timeout while fetching..."
-				if (i < request.getRetries() && (ex instanceof SocketTimeoutException || ex.getMessage().startsWith("Timeout"))) {
+				if (i < request.getRetries() && request.isReplayable() && (ex instanceof SocketTimeoutException || ex.getMessage().startsWith("Timeout"))) {
 					log.warn("Timeout error, retrying");
 				} else {
 					throw ex;
@@ -77,13 +168,56 @@ public class URLConnectionTransport implements Transport {
 		// default do nothing
 	}
 
-	/** */
-	private TransportResponse executeOnce(final HttpRequest request) throws IOException {
+	/** Copies the whole stream into the file, replacing any previous content */
+	private void transferToFile(final InputStream content, final Path destination) throws IOException {
+		try (final ReadableByteChannel source = Channels.newChannel(content);
+			 final FileChannel file = FileChannel.open(destination, CREATE, WRITE, TRUNCATE_EXISTING)) {
+
+			long position = 0;
+			long transferred;
+			while ((transferred = file.transferFrom(source, position, Long.MAX_VALUE)) > 0)
+				position += transferred;
+		}
+	}
+
+	/**
+	 * Reads the whole stream. If the length is known we read into an array of exactly that size rather than
+	 * growing and copying a buffer, except that past MAX_PREALLOCATE the array only grows (by doubling) once
+	 * the bytes to fill it have actually arrived.
+	 *
+	 * @param length is -1 if unknown
+	 */
+	private static byte[] readBytes(final InputStream content, final long length) throws IOException {
+		if (length < 0 || length > Integer.MAX_VALUE - 8)
+			return ByteStreams.toByteArray(content);
+
+		byte[] bytes = new byte[(int)Math.min(length, HttpRequest.MAX_PREALLOCATE)];
+		int offset = 0;
+
+		while (true) {
+			ByteStreams.readFully(content, bytes, offset, bytes.length - offset);
+			offset = bytes.length;
+
+			if (offset == length)
+				return bytes;
+
+			bytes = Arrays.copyOf(bytes, (int)Math.min(length, offset * 2L));
+		}
+	}
+
+	/** Enforce the request's maxResponseBytes on the stream, disconnecting if it is exceeded */
+	private static InputStream limit(final InputStream in, final long limit, final HttpURLConnection conn) {
+		return limit > 0 ? new LimitedInputStream(in, limit, conn::disconnect) : in;
+	}
+
+	/** @param redirectsLeft how many more redirects of a request with a body we will follow ourselves */
+	private TransportResponse executeOnce(final HttpRequest request, final Path destination, final int redirectsLeft) throws IOException {
 
 		final HttpURLConnection conn = openConnection(request.toUrl());
 		conn.setRequestMethod(request.getMethod());
-		conn.setConnectTimeout(request.getTimeout());
-		conn.setReadTimeout(request.getTimeout());
+		final int timeout = request.getAttemptTimeout();
+		conn.setConnectTimeout(timeout);
+		conn.setReadTimeout(timeout);
 		conn.setInstanceFollowRedirects(request.isFollowRedirects());
 
 		for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
@@ -97,10 +231,17 @@ public class URLConnectionTransport implements Transport {
 		prepareConnection(conn);
 
 		// This whole setDoOutput() thing is retarded
+		final long contentLength = request.getContentLength();
 		request.writeBody(new OutputStream() {
 			private OutputStream real;
 			private OutputStream output() throws IOException {
 				if (real == null) {
+					// Otherwise HttpURLConnection buffers the whole body to learn its length
+					if (contentLength >= 0)
+						conn.setFixedLengthStreamingMode(contentLength);
+					else
+						conn.setChunkedStreamingMode(0);
+
 					conn.setDoOutput(true);
 					real = conn.getOutputStream();
 				}
@@ -130,17 +271,47 @@ public class URLConnectionTransport implements Transport {
 		});
 
 		final int responseCode = conn.getResponseCode();
-		final InputStream content = conn.getErrorStream() != null ? conn.getErrorStream() : conn.getInputStream();
 
-		final ListMultimap<String, String> headers = ArrayListMultimap.create();
-		for (Map.Entry<String, List<String>> entry : conn.getHeaderFields().entrySet()) {
-			// Weird, seems to pass us null -> "HTTP/1.1 200 OK" which we don't want
-			if (entry.getKey() != null)
-				headers.putAll(entry.getKey(), entry.getValue());
+		// A streamed body can't be resent by HttpURLConnection, so it leaves redirects to us
+		final String location = conn.getHeaderField(HeaderName.LOCATION.getName());
+		if (conn.getDoOutput() && request.isFollowRedirects() && HttpRequest.isRedirect(responseCode) && location != null && redirectsLeft > 0) {
+			final HttpRequest next = request.redirect(responseCode, location);
+			if (next != null) {
+				conn.disconnect();
+				return executeOnce(next, destination, redirectsLeft - 1);
+			}
+		}
+
+		final long limit = request.getMaxResponseBytes();
+		if (limit > 0 && conn.getContentLengthLong() > limit) {
+			conn.disconnect();
+			throw new ResponseTooLargeException(limit);
+		}
+
+		final boolean toFile = destination != null && HttpResponse.isSuccess(responseCode);
+		final InputStream raw;
+		if (toFile) {
+			try {
+				transferToFile(limit(conn.getInputStream(), limit, conn), destination);
+			} catch (ResponseTooLargeException ex) {
+				Files.deleteIfExists(destination);
+				throw ex;
+			}
+			raw = InputStream.nullInputStream();
+		} else {
+			raw = conn.getErrorStream() != null ? conn.getErrorStream() : conn.getInputStream();
 		}
 
+		final ContentStream content = new ContentStream(limit(raw, limit, conn));
+		final boolean hasBody = !toFile && !HttpMethod.HEAD.name().equals(request.getMethod()) && responseCode != 204 && responseCode != 304;
+
+		// The header map is unmodifiable so we can view it rather than copy it. The view hides the
+		// weird null -> "HTTP/1.1 200 OK" entry.
+		final ListMultimap<String, String> headers = new CaseInsensitiveMultimapView<>(conn.getHeaderFields(), false);
+
 		return new TransportResponse() {
 			private boolean streamed;
+			private boolean closed;
 
 			@Override
 			public int getResponseCode() throws IOException {
@@ -156,14 +327,77 @@ public class URLConnectionTransport implements Transport {
 
 			@Override
 			public byte[] getContentBytes() throws IOException {
-				return ByteStreams.toByteArray(getContentStream());
+				return readBytes(getContentStream(), hasBody ? conn.getContentLengthLong() : 0);
 			}
 
 			@Override
 			public ListMultimap<String, String> getHeaders() throws IOException {
 				return headers;
 			}
+
+			@Override
+			public void close() throws IOException {
+				if (closed)
+					return;
+
+				closed = true;
+				release(conn, raw, content.closed);
+			}
 		};
 	}
 
+	/**
+	 * Drain whatever is left of the body (up to the limit) and close the stream, which returns the
+	 * connection to the JDK's keep-alive cache. If there's too much left, or draining fails, disconnect.
+	 * If the caller already closed the stream, the JDK has decided for itself whether to keep the
+	 * connection, and disconnecting now could kill one it has already cached.
+	 */
+	private void release(final HttpURLConnection conn, final InputStream content, final boolean alreadyClosed) {
+		if (alreadyClosed)
+			return;
+
+		try {
+			if (drain(content, drainLimit)) {
+				content.close();
+				reusable.increment();
+				return;
+			}
+		} catch (IOException ex) {
+			log.debug("Error draining response, disconnecting", ex);
+		}
+
+		conn.disconnect();
+		disconnected.increment();
+	}
+
+	/** The body stream handed to the caller, which remembers whether they closed it */
+	private static class ContentStream extends FilterInputStream {
+		private boolean closed;
+
+		ContentStream(final InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			super.close();
+		}
+	}
+
+	/** @return true if the stream reached EOF within the limit */
+	private static boolean drain(final InputStream content, final long limit) throws IOException {
+		final byte[] buffer = new byte[(int)Math.min(8192, limit + 1)];
+		long total = 0;
+		int read;
+
+		while ((read = content.read(buffer)) >= 0) {
+			total += read;
+			if (total > limit)
+				return false;
+		}
+
+		return true;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,218 @@
+package com.voodoodyne.hattery;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.URI;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * <p>Speaks HTTP/1.1 over unix domain sockets, for sidecars and local daemons (service mesh proxies, metrics
+ * agents, Docker) that listen on a socket file. It avoids loopback TCP (and TLS) setup, but per-request
+ * latency measures about the same as NioTransport over TCP loopback; the point is reaching services which only
+ * listen on a socket, not speed.</p>
+ *
+ * <p>Requests are addressed either with a url naming the socket, where everything after the first colon
+ * is the request path:</p>
+ *
+ * <pre>HTTP.transport(new UnixSocketTransport()).url("unix:///var/run/docker.sock:/containers/json")</pre>
+ *
+ * <p>or by giving the transport a socket, to which it sends all plain http requests regardless of host:</p>
+ *
+ * <pre>HTTP.transport(new UnixSocketTransport(Paths.get("/var/run/docker.sock"))).url("http://localhost/containers/json")</pre>
+ *
+ * <p>Each socket gets a small pool of connections. Unix domain sockets need Java 16+; the JDK classes are
+ * looked up at runtime so that this library still runs on Java 11, where {@link #isSupported()} is false.</p>
+ */
+public class UnixSocketTransport implements Transport {
+
+	/** */
+	public static final String SCHEME = "unix";
+
+	/** Default number of idle connections kept per socket */
+	public static final int DEFAULT_MAX_IDLE = 4;
+
+	/** */
+	private static final long IDLE_TIMEOUT_MILLIS = 60_000;
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	/** StandardProtocolFamily.UNIX, or null before Java 16 */
+	private static final ProtocolFamily UNIX = unixFamily();
+
+	/** UnixDomainSocketAddress.of(Path) and SocketChannel.open(ProtocolFamily), or null before Java 16 */
+	private static final Method ADDRESS_OF = method("java.net.UnixDomainSocketAddress", "of", Path.class);
+	private static final Method OPEN = method("java.nio.channels.SocketChannel", "open", ProtocolFamily.class);
+
+	/** Where http urls go; null if only unix urls are allowed */
+	private final Path socket;
+
+	/** */
+	private final Http1ConnectionPool pool;
+
+	/** Only handles unix: urls */
+	public UnixSocketTransport() {
+		this(null);
+	}
+
+	/** Sends http urls to the socket as well */
+	public UnixSocketTransport(final Path socket) {
+		this(socket, DEFAULT_MAX_IDLE);
+	}
+
+	/**
+	 * @param socket can be null to only handle unix: urls
+	 * @param maxIdle is the number of idle connections kept for each socket
+	 */
+	public UnixSocketTransport(final Path socket, final int maxIdle) {
+		Preconditions.checkState(isSupported(), "Unix domain sockets require Java 16+");
+		Preconditions.checkArgument(maxIdle >= 0, "maxIdle cannot be negative");
+
+		this.socket = socket;
+		this.pool = new Http1ConnectionPool(UnixSocketTransport::connect, maxIdle, IDLE_TIMEOUT_MILLIS, 1);
+	}
+
+	/** @return true if this JVM can open unix domain sockets */
+	public static boolean isSupported() {
+		return UNIX != null && ADDRESS_OF != null && OPEN != null;
+	}
+
+	/** @return a url for the path on the socket, eg {@code unix:///var/run/docker.sock:/containers/json} */
+	public static String url(final Path socket, final String path) {
+		return SCHEME + "://" + socket.toAbsolutePath() + ":" + path;
+	}
+
+	/** @return how many connections have been opened */
+	public long getConnectionsOpened() {
+		return pool.getOpenedCount();
+	}
+
+	/** @return how many requests were sent on a connection that was already open */
+	public long getConnectionsReused() {
+		return pool.getReusedCount();
+	}
+
+	@Override
+	public TransportResponse fetch(final HttpRequest request) throws IOException {
+		return Http1ConnectionPool.fetch(request, this::exchange, this::redirect);
+	}
+
+	/** Closes all pooled connections */
+	@Override
+	public void close() {
+		pool.close();
+	}
+
+	/** One hop */
+	private TransportResponse exchange(final HttpRequest request) throws IOException {
+		final URI uri = URI.create(request.toUrlString());
+
+		final Path socket;
+		final String target;
+		final String host;
+		if (SCHEME.equalsIgnoreCase(uri.getScheme())) {
+			socket = socketOf(uri);
+			target = NioTransport.target(URI.create(requestUrl(uri)));
+			host = "localhost";
+		} else {
+			Preconditions.checkArgument("http".equalsIgnoreCase(uri.getScheme()) && this.socket != null, "No unix socket for url: %s", uri);
+			socket = this.socket;
+			target = NioTransport.target(uri);
+			host = uri.getPort() < 0 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+		}
+
+		return pool.exchange(request, socket.toString(), target, host);
+	}
+
+	/** Relative locations stay on the socket, and the socket is the origin */
+	private HttpRequest redirect(final HttpRequest request, final int responseCode, final String location) {
+		final URI from = URI.create(request.toUrlString());
+		final Path socket = SCHEME.equalsIgnoreCase(from.getScheme()) ? socketOf(from) : this.socket;
+		final URI to = URI.create(resolve(from, socket, location));
+		return request.redirect(responseCode, to.toString(), isSameOrigin(from, socket, to));
+	}
+
+	/** @return the absolute url; a location relative to a unix: url has to stay on the same socket */
+	private static String resolve(final URI uri, final Path socket, final String location) {
+		if (!SCHEME.equalsIgnoreCase(uri.getScheme()) || URI.create(location).isAbsolute())
+			return uri.resolve(location).toString();
+
+		return url(socket, NioTransport.target(URI.create(requestUrl(uri)).resolve(location)));
+	}
+
+	/**
+	 * Unix urls have no host, so the origin is the socket: credentials may only follow a redirect to the same
+	 * one. Http urls (which all go to this transport's socket) are compared as usual.
+	 */
+	private static boolean isSameOrigin(final URI from, final Path socket, final URI to) {
+		if (SCHEME.equalsIgnoreCase(to.getScheme()))
+			return SCHEME.equalsIgnoreCase(from.getScheme()) && socketOf(to).equals(socket);
+
+		return HttpRequest.isSameOrigin(from, to);
+	}
+
+	/** The socket file named by a unix: url */
+	private static Path socketOf(final URI uri) {
+		final String raw = uri.getRawPath();
+		final int colon = raw.indexOf(':');
+		return Paths.get(colon < 0 ? raw : raw.substring(0, colon));
+	}
+
+	/** The part of a unix: url after the socket, as an http url so that it can be parsed and resolved normally */
+	private static String requestUrl(final URI uri) {
+		final String raw = uri.getRawPath();
+		final int colon = raw.indexOf(':');
+		final String path = colon < 0 ? "/" : raw.substring(colon + 1);
+		return "http://localhost" + path + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+	}
+
+	/** */
+	private static Http1Connection connect(final String socket, final int timeout) throws IOException {
+		final SocketChannel channel = (SocketChannel)invoke(OPEN, null, UNIX);
+		try {
+			final Http1Connection conn = new Http1Connection(channel, BUFFER_SIZE);
+			conn.connect((SocketAddress)invoke(ADDRESS_OF, null, Paths.get(socket)), timeout);
+			return conn;
+		} catch (IOException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/** */
+	private static Object invoke(final Method method, final Object target, final Object arg) throws IOException {
+		try {
+			return method.invoke(target, arg);
+		} catch (InvocationTargetException ex) {
+			if (ex.getCause() instanceof IOException)
+				throw (IOException)ex.getCause();
+			throw new IOException(ex.getCause());
+		} catch (IllegalAccessException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/** */
+	private static ProtocolFamily unixFamily() {
+		try {
+			return StandardProtocolFamily.valueOf("UNIX");
+		} catch (IllegalArgumentException ex) {
+			return null;
+		}
+	}
+
+	/** */
+	private static Method method(final String className, final String name, final Class<?> parameter) {
+		try {
+			return Class.forName(className).getMethod(name, parameter);
+		} catch (ClassNotFoundException | NoSuchMethodException ex) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.voodoodyne.hattery.util;
+
+import lombok.Getter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * <p>A bounded pool of fixed-size byte arrays. Acquiring never blocks; if the pool is empty a new array
+ * is allocated. Releasing never blocks either; if the pool is full the array is left for the GC.</p>
+ *
+ * <p>Arrays are not cleared when they are reused. Thread safe.</p>
+ */
+public class BufferPool {
+	/** 8K chunks, retaining at most 2MB */
+	public static final BufferPool DEFAULT = new BufferPool(8 * 1024, 256);
+
+	/** Size of every array in the pool */
+	@Getter
+	private final int chunkSize;
+
+	private final ArrayBlockingQueue<byte[]> free;
+
+	/**
+	 * @param chunkSize is the length of each array
+	 * @param maxRetained is the most arrays the pool will hold on to
+	 */
+	public BufferPool(final int chunkSize, final int maxRetained) {
+		if (chunkSize <= 0 || maxRetained <= 0)
+			throw new IllegalArgumentException("chunkSize and maxRetained must be positive");
+
+		this.chunkSize = chunkSize;
+		this.free = new ArrayBlockingQueue<>(maxRetained);
+	}
+
+	/** @return a pooled array if one is available, otherwise a new one */
+	public byte[] acquire() {
+		final byte[] chunk = free.poll();
+		return chunk != null ? chunk : new byte[chunkSize];
+	}
+
+	/** Return an array to the pool. The caller must not touch it afterwards. */
+	public void release(final byte[] chunk) {
+		if (chunk.length == chunkSize)
+			free.offer(chunk);
+	}
+
+	/** @return how many arrays are currently idle in the pool */
+	public int getIdleCount() {
+		return free.size();
+	}
+}
@@ -0,0 +1,83 @@
+package com.voodoodyne.hattery.util;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Publishes a fixed list of ByteBuffers, honoring demand. Every subscriber gets its own duplicates of
+ * the buffers, so the same content can be published more than once (ie, when a body is resent after
+ * a redirect).</p>
+ */
+public class ByteBufferPublisher implements Flow.Publisher<ByteBuffer> {
+
+	private final List<ByteBuffer> buffers;
+
+	/** The buffers' positions and limits are never changed */
+	public ByteBufferPublisher(final List<ByteBuffer> buffers) {
+		this.buffers = buffers;
+	}
+
+	@Override
+	public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+		subscriber.onSubscribe(new Subscription(subscriber));
+	}
+
+	/** */
+	private class Subscription implements Flow.Subscription {
+		private final Flow.Subscriber<? super ByteBuffer> subscriber;
+
+		private final AtomicLong demand = new AtomicLong();
+
+		/** Guards against reentrant and concurrent emission; only the thread which increments from 0 emits */
+		private final AtomicInteger wip = new AtomicInteger();
+
+		private int index;
+		private volatile boolean done;
+
+		/** */
+		Subscription(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(final long n) {
+			if (done)
+				return;
+
+			if (n <= 0) {
+				done = true;
+				subscriber.onError(new IllegalArgumentException("Demand must be positive, was " + n));
+				return;
+			}
+
+			demand.getAndAccumulate(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+			emit();
+		}
+
+		@Override
+		public void cancel() {
+			done = true;
+		}
+
+		/** */
+		private void emit() {
+			if (wip.getAndIncrement() != 0)
+				return;
+
+			do {
+				while (!done && index < buffers.size() && demand.get() > 0) {
+					demand.decrementAndGet();
+					subscriber.onNext(buffers.get(index++).duplicate());
+				}
+
+				if (!done && index == buffers.size()) {
+					done = true;
+					subscriber.onComplete();
+				}
+			} while (wip.decrementAndGet() != 0);
+		}
+	}
+}
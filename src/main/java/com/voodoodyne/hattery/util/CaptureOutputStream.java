@@ -0,0 +1,127 @@
+package com.voodoodyne.hattery.util;
+
+import lombok.Getter;
+import org.slf4j.Logger;
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>A sink with a fixed capacity, for logging what went over the wire. Keeps the first and the last
+ * {@code capacity} bytes written and counts (but drops) everything in between, so a capture of a
+ * multi-gigabyte body costs the same as a capture of a small one. Writing never allocates.</p>
+ *
+ * <p>Not thread safe.</p>
+ */
+public class CaptureOutputStream extends OutputStream {
+	/** How much of each end of a body we keep when debug logging */
+	private static final int DEBUG_CAPACITY = 500;
+
+	/** How much of each end of a body we keep when trace logging */
+	private static final int TRACE_CAPACITY = 32 * 1024;
+
+	/** A capture sized appropriately for the log level, or null if the logger isn't going to print bodies */
+	public static CaptureOutputStream forLogger(final Logger log) {
+		if (log.isTraceEnabled())
+			return new CaptureOutputStream(TRACE_CAPACITY);
+		else if (log.isDebugEnabled())
+			return new CaptureOutputStream(DEBUG_CAPACITY);
+		else
+			return null;
+	}
+
+	private final byte[] head;
+	private int headLength;
+
+	/** Ring buffer; the next write goes at tailCount % tail.length */
+	private final byte[] tail;
+	private long tailCount;
+
+	/** Total bytes written, including the ones we dropped */
+	@Getter
+	private long count;
+
+	/** */
+	public CaptureOutputStream(final int capacity) {
+		this.head = new byte[capacity];
+		this.tail = new byte[capacity];
+	}
+
+	@Override
+	public void write(final int b) {
+		count++;
+
+		if (headLength < head.length) {
+			head[headLength++] = (byte)b;
+		} else if (tail.length > 0) {
+			tail[(int)(tailCount % tail.length)] = (byte)b;
+			tailCount++;
+		}
+	}
+
+	@Override
+	public void write(final byte[] b, int off, int len) {
+		count += len;
+
+		final int toHead = Math.min(len, head.length - headLength);
+		System.arraycopy(b, off, head, headLength, toHead);
+		headLength += toHead;
+		off += toHead;
+		len -= toHead;
+
+		if (len == 0 || tail.length == 0)
+			return;
+
+		// Only the last tail.length bytes can possibly survive
+		if (len > tail.length) {
+			final int skip = len - tail.length;
+			tailCount += skip;
+			off += skip;
+			len -= skip;
+		}
+
+		while (len > 0) {
+			final int pos = (int)(tailCount % tail.length);
+			final int n = Math.min(len, tail.length - pos);
+			System.arraycopy(b, off, tail, pos, n);
+			tailCount += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/** @return the number of bytes which were counted but not kept */
+	public long getDropped() {
+		return count - headLength - Math.min(tailCount, tail.length);
+	}
+
+	/**
+	 * Decode what we kept; if anything was dropped, a marker goes between the head and the tail.
+	 * Multibyte characters at the edges of the gap may be mangled.
+	 */
+	public String toString(final Charset charset) {
+		final String headString = new String(head, 0, headLength, charset);
+		if (tailCount == 0)
+			return headString;
+
+		final int tailLength = (int)Math.min(tailCount, tail.length);
+		final int start = (int)((tailCount - tailLength) % tail.length);
+
+		final byte[] ordered = new byte[tailLength];
+		final int firstPiece = Math.min(tailLength, tail.length - start);
+		System.arraycopy(tail, start, ordered, 0, firstPiece);
+		System.arraycopy(tail, 0, ordered, firstPiece, tailLength - firstPiece);
+
+		final long dropped = getDropped();
+		final String gap = dropped > 0 ? "\u2026[" + dropped + " bytes omitted]\u2026" : "";
+
+		return headString + gap + new String(ordered, charset);
+	}
+
+	/** Decodes as UTF-8 */
+	@Override
+	public String toString() {
+		return toString(StandardCharsets.UTF_8);
+	}
+}
@@ -22,7 +22,7 @@
 
 package com.voodoodyne.hattery.util;
 
-import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
@@ -30,34 +30,31 @@ import com.google.common.collect.Multiset;
 import lombok.ToString;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
 /**
- * Unmodifiable; all write methods throw UnsupportedOperationException
+ * Unmodifiable; all write methods throw UnsupportedOperationException.
+ * Lookups use ASCII case folding (see HeaderName) and don't allocate.
  */
 @ToString(of="base")
 public class CaseInsensitiveListMultimap<V> implements ListMultimap<String, V> {
 	final ListMultimap<String, V> base;
-	final ListMultimap<String, V> normalized;
+	final HeaderMap<List<V>> normalized;
 
 	public CaseInsensitiveListMultimap(final ListMultimap<String, V> base) {
 		this.base = Multimaps.unmodifiableListMultimap(base);
-
-		final ArrayListMultimap<String, V> normalized = ArrayListMultimap.create();
-
-		for (final Entry<String, Collection<V>> entry : base.asMap().entrySet()) {
-			normalized.putAll(entry.getKey().toLowerCase(), entry.getValue());
-		}
-
-		this.normalized = Multimaps.unmodifiableListMultimap(normalized);
+		this.normalized = HeaderMap.copyOf(Multimaps.asMap(this.base),
+				(one, two) -> ImmutableList.<V>builder().addAll(one).addAll(two).build());
 	}
 
 	@Override
 	public List<V> get(final String s) {
-		return normalized.get(s.toLowerCase());
+		final List<V> values = normalized.get(s);
+		return values == null ? Collections.emptyList() : values;
 	}
 
 	@Override
@@ -102,7 +99,7 @@ public class CaseInsensitiveListMultimap<V> implements ListMultimap<String, V> {
 
 	@Override
 	public boolean containsKey(final Object o) {
-		return normalized.containsKey(((String)o).toLowerCase());
+		return normalized.containsKey(o);
 	}
 
 	@Override
@@ -112,7 +109,7 @@ public class CaseInsensitiveListMultimap<V> implements ListMultimap<String, V> {
 
 	@Override
 	public boolean containsEntry(final Object o, final Object o1) {
-		return normalized.containsEntry(((String)o).toLowerCase(), o1);
+		return get((String)o).contains(o1);
 	}
 
 	@Override
@@ -142,6 +139,6 @@ public class CaseInsensitiveListMultimap<V> implements ListMultimap<String, V> {
 
 	@Override
 	public Map<String, Collection<V>> asMap() {
-		return new CaseInsensitiveMap<>(base.asMap(), normalized.asMap());
+		return new CaseInsensitiveMap<>(base.asMap());
 	}
 }
\ No newline at end of file
@@ -22,34 +22,25 @@
 
 package com.voodoodyne.hattery.util;
 
-import lombok.RequiredArgsConstructor;
 import lombok.ToString;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
 /**
- * Unmodifiable; all write methods throw UnsupportedOperationException
+ * Unmodifiable; all write methods throw UnsupportedOperationException.
+ * Lookups use ASCII case folding (see HeaderName) and don't allocate.
  */
 @ToString(of="base")
-@RequiredArgsConstructor
 public class CaseInsensitiveMap<V> implements Map<String, V> {
 	final Map<String, V> base;
-	final Map<String, V> normalized;
+	final HeaderMap<V> normalized;
 
 	public CaseInsensitiveMap(final Map<String, V> base) {
 		this.base = Collections.unmodifiableMap(base);
-
-		final Map<String, V> normalized = new LinkedHashMap<>();
-
-		for (final Entry<String, V> entry : base.entrySet()) {
-			normalized.put(entry.getKey().toLowerCase(), entry.getValue());
-		}
-
-		this.normalized = Collections.unmodifiableMap(normalized);
+		this.normalized = HeaderMap.copyOf(base, (one, two) -> two);
 	}
 
 	@Override
@@ -64,7 +55,7 @@ public class CaseInsensitiveMap<V> implements Map<String, V> {
 
 	@Override
 	public boolean containsKey(final Object key) {
-		return normalized.containsKey(((String)key).toLowerCase());
+		return normalized.containsKey(key);
 	}
 
 	@Override
@@ -74,7 +65,7 @@ public class CaseInsensitiveMap<V> implements Map<String, V> {
 
 	@Override
 	public V get(final Object key) {
-		return normalized.get(((String)key).toLowerCase());
+		return normalized.get(key);
 	}
 
 	@Override
@@ -0,0 +1,206 @@
+package com.voodoodyne.hattery.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multiset;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * <p>A case insensitive, read-only ListMultimap view of a {@code Map<String, List<V>>}, such as the header
+ * maps from the JDK http clients. Nothing is copied up front.</p>
+ *
+ * <p>If the underlying map is already case insensitive (eg {@code java.net.http.HttpHeaders.map()}), lookups
+ * go straight to it. Otherwise an exact-case lookup is tried first, and a case insensitive index
+ * (a {@link HeaderMap}; no lookup allocates) is built the first time that misses. If the underlying map has the same key in several cases, an exact-case hit
+ * only returns the values for that case. Flattened collections (values, entries, keys) are built when
+ * someone asks for them. Null keys (HttpURLConnection uses one for the status line) are hidden.</p>
+ *
+ * <p>Unmodifiable; all write methods throw UnsupportedOperationException</p>
+ */
+public class CaseInsensitiveMultimapView<V> implements ListMultimap<String, V> {
+	private final Map<String, List<V>> base;
+	private final boolean baseIsCaseInsensitive;
+
+	/** Lazily built; case insensitive key to values */
+	private HeaderMap<List<V>> normalized;
+
+	/**
+	 * @param base must not be modified after this
+	 * @param baseIsCaseInsensitive true if base lookups already ignore case
+	 */
+	public CaseInsensitiveMultimapView(final Map<String, List<V>> base, final boolean baseIsCaseInsensitive) {
+		this.base = base;
+		this.baseIsCaseInsensitive = baseIsCaseInsensitive;
+	}
+
+	@Override
+	public List<V> get(final String key) {
+		if (key == null)
+			return Collections.emptyList();
+
+		final List<V> exact = base.get(key);
+		if (exact != null || baseIsCaseInsensitive)
+			return exact == null ? Collections.emptyList() : Collections.unmodifiableList(exact);
+
+		final List<V> found = normalized().get(key);
+		return found == null ? Collections.emptyList() : found;
+	}
+
+	/** Like get(String), but a miss on the exact case looks up the index without hashing */
+	public List<V> get(final HeaderName name) {
+		final List<V> exact = base.get(name.getName());
+		if (exact != null || baseIsCaseInsensitive)
+			return exact == null ? Collections.emptyList() : Collections.unmodifiableList(exact);
+
+		final List<V> found = normalized().get(name);
+		return found == null ? Collections.emptyList() : found;
+	}
+
+	private HeaderMap<List<V>> normalized() {
+		if (normalized == null) {
+			// HeaderMap is immutable with final fields, so publication is safe; skips the null key
+			normalized = HeaderMap.copyOf(base,
+					(one, two) -> ImmutableList.<V>builder().addAll(one).addAll(two).build());
+		}
+
+		return normalized;
+	}
+
+	/** The base without the null key; a view, not a copy */
+	private Map<String, List<V>> nonNull() {
+		return Maps.filterKeys(base, Objects::nonNull);
+	}
+
+	@Override
+	public Set<String> keySet() {
+		return Collections.unmodifiableSet(nonNull().keySet());
+	}
+
+	@Override
+	public Multiset<String> keys() {
+		final ImmutableMultiset.Builder<String> keys = ImmutableMultiset.builder();
+		for (final Entry<String, List<V>> entry : nonNull().entrySet())
+			keys.addCopies(entry.getKey(), entry.getValue().size());
+
+		return keys.build();
+	}
+
+	@Override
+	public Collection<V> values() {
+		final ImmutableList.Builder<V> values = ImmutableList.builder();
+		for (final List<V> list : nonNull().values())
+			values.addAll(list);
+
+		return values.build();
+	}
+
+	@Override
+	public Collection<Entry<String, V>> entries() {
+		final ImmutableList.Builder<Entry<String, V>> entries = ImmutableList.builder();
+		for (final Entry<String, List<V>> entry : nonNull().entrySet())
+			for (final V value : entry.getValue())
+				entries.add(new SimpleImmutableEntry<>(entry.getKey(), value));
+
+		return entries.build();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Map<String, Collection<V>> asMap() {
+		return Collections.unmodifiableMap((Map<String, Collection<V>>)(Map<String, ?>)nonNull());
+	}
+
+	@Override
+	public List<V> removeAll(final Object o) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (final List<V> list : nonNull().values())
+			size += list.size();
+
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return nonNull().isEmpty();
+	}
+
+	@Override
+	public boolean containsKey(final Object o) {
+		return o instanceof String && !get((String)o).isEmpty();
+	}
+
+	@Override
+	public boolean containsValue(final Object o) {
+		for (final List<V> list : nonNull().values())
+			if (list.contains(o))
+				return true;
+
+		return false;
+	}
+
+	@Override
+	public boolean containsEntry(final Object o, final Object o1) {
+		return o instanceof String && get((String)o).contains(o1);
+	}
+
+	@Override
+	public boolean put(final String s, final V v) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean remove(final Object o, final Object o1) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean putAll(final String s, final Iterable<? extends V> iterable) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean putAll(final Multimap<? extends String, ? extends V> multimap) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public List<V> replaceValues(final String s, final Iterable<? extends V> iterable) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		return o instanceof Multimap && asMap().equals(((Multimap<?, ?>)o).asMap());
+	}
+
+	@Override
+	public int hashCode() {
+		return asMap().hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return asMap().toString();
+	}
+}
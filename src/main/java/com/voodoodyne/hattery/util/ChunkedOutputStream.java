@@ -0,0 +1,92 @@
+package com.voodoodyne.hattery.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Collects written bytes in a list of chunks borrowed from a BufferPool. Unlike ByteArrayOutputStream,
+ * nothing is copied when the stream grows, and the content is handed out as ByteBuffers over the chunks
+ * rather than copied into one array.</p>
+ *
+ * <p>{@code close()} does nothing (serializers like to close their target); call {@code release()}
+ * to give the chunks back to the pool once nobody is reading the buffers. Not thread safe.</p>
+ */
+public class ChunkedOutputStream extends OutputStream {
+
+	private final BufferPool pool;
+
+	private final List<byte[]> chunks = new ArrayList<>();
+
+	/** Bytes used in the last chunk */
+	private int position;
+
+	/** */
+	public ChunkedOutputStream(final BufferPool pool) {
+		this.pool = pool;
+		this.position = pool.getChunkSize();	// so the first write acquires a chunk
+	}
+
+	@Override
+	public void write(final int b) {
+		if (position == pool.getChunkSize())
+			nextChunk();
+
+		chunks.get(chunks.size() - 1)[position++] = (byte)b;
+	}
+
+	@Override
+	public void write(final byte[] b, int off, int len) {
+		while (len > 0) {
+			if (position == pool.getChunkSize())
+				nextChunk();
+
+			final int count = Math.min(len, pool.getChunkSize() - position);
+			System.arraycopy(b, off, chunks.get(chunks.size() - 1), position, count);
+			position += count;
+			off += count;
+			len -= count;
+		}
+	}
+
+	/** */
+	private void nextChunk() {
+		chunks.add(pool.acquire());
+		position = 0;
+	}
+
+	/** @return the number of bytes written */
+	public long size() {
+		return chunks.isEmpty() ? 0 : (long)(chunks.size() - 1) * pool.getChunkSize() + position;
+	}
+
+	/**
+	 * @return read-only buffers over the content, in order. They share the pooled chunks, so they are only
+	 * valid until {@code release()}.
+	 */
+	public List<ByteBuffer> toByteBuffers() {
+		final List<ByteBuffer> buffers = new ArrayList<>(chunks.size());
+		for (int i = 0; i < chunks.size(); i++) {
+			final int length = (i == chunks.size() - 1) ? position : pool.getChunkSize();
+			buffers.add(ByteBuffer.wrap(chunks.get(i), 0, length).asReadOnlyBuffer());
+		}
+		return buffers;
+	}
+
+	/** Copy the content to the stream, straight from the chunks */
+	public void writeTo(final OutputStream output) throws IOException {
+		for (int i = 0; i < chunks.size(); i++)
+			output.write(chunks.get(i), 0, (i == chunks.size() - 1) ? position : pool.getChunkSize());
+	}
+
+	/** Give the chunks back to the pool and empty this stream */
+	public void release() {
+		for (final byte[] chunk : chunks)
+			pool.release(chunk);
+
+		chunks.clear();
+		position = pool.getChunkSize();
+	}
+}
@@ -0,0 +1,132 @@
+package com.voodoodyne.hattery.util;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Adapts a publisher of buffer lists (what HttpClient produces) to a publisher of single buffers.
+ * Upstream lists are requested one at a time, and only when a downstream demand can't be met from
+ * buffers already received, so backpressure reaches all the way back to the socket.</p>
+ *
+ * <p>Like the publishers it wraps, this supports only one subscriber.</p>
+ */
+public class FlatteningPublisher implements Flow.Publisher<ByteBuffer> {
+
+	private final Flow.Publisher<List<ByteBuffer>> upstream;
+
+	/** */
+	public FlatteningPublisher(final Flow.Publisher<List<ByteBuffer>> upstream) {
+		this.upstream = upstream;
+	}
+
+	@Override
+	public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+		upstream.subscribe(new Flattener(subscriber));
+	}
+
+	/** Subscribes upstream and is the subscription for downstream */
+	private static class Flattener implements Flow.Subscriber<List<ByteBuffer>>, Flow.Subscription {
+		private final Flow.Subscriber<? super ByteBuffer> downstream;
+
+		private Flow.Subscription upstream;
+
+		private final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+		private final AtomicLong demand = new AtomicLong();
+
+		/** True while we have asked upstream for a list and it hasn't arrived */
+		private final AtomicBoolean requested = new AtomicBoolean();
+
+		/** Only the thread which increments from 0 emits */
+		private final AtomicInteger wip = new AtomicInteger();
+
+		private volatile boolean upstreamDone;
+		private volatile Throwable error;
+		private volatile boolean cancelled;
+		private boolean terminated;
+
+		/** */
+		Flattener(final Flow.Subscriber<? super ByteBuffer> downstream) {
+			this.downstream = downstream;
+		}
+
+		@Override
+		public void onSubscribe(final Flow.Subscription subscription) {
+			this.upstream = subscription;
+			downstream.onSubscribe(this);
+		}
+
+		@Override
+		public void onNext(final List<ByteBuffer> items) {
+			queue.addAll(items);
+			requested.set(false);
+			drain();
+		}
+
+		@Override
+		public void onError(final Throwable throwable) {
+			error = throwable;
+			upstreamDone = true;
+			drain();
+		}
+
+		@Override
+		public void onComplete() {
+			upstreamDone = true;
+			drain();
+		}
+
+		@Override
+		public void request(final long n) {
+			if (n <= 0) {
+				cancel();
+				downstream.onError(new IllegalArgumentException("Demand must be positive, was " + n));
+				return;
+			}
+
+			demand.getAndAccumulate(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			upstream.cancel();
+		}
+
+		/** */
+		private void drain() {
+			if (wip.getAndIncrement() != 0)
+				return;
+
+			do {
+				if (cancelled || terminated) {
+					queue.clear();
+					continue;
+				}
+
+				ByteBuffer next;
+				while (demand.get() > 0 && (next = queue.poll()) != null) {
+					demand.decrementAndGet();
+					downstream.onNext(next);
+				}
+
+				if (queue.isEmpty() && upstreamDone) {
+					terminated = true;
+					if (error != null)
+						downstream.onError(error);
+					else
+						downstream.onComplete();
+				}
+				else if (queue.isEmpty() && demand.get() > 0 && requested.compareAndSet(false, true)) {
+					upstream.request(1);
+				}
+			} while (wip.decrementAndGet() != 0);
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package com.voodoodyne.hattery.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BinaryOperator;
+
+/**
+ * <p>An immutable, insertion-ordered map keyed by header name. Keys are case insensitive (ASCII folding,
+ * see {@link HeaderName}) and case preserving. Lookups hash and compare in place, so they never allocate;
+ * lookups with a {@link HeaderName} don't even need to hash.</p>
+ *
+ * <p>"Modification" methods like {@link #with(String, Object)} return a new map. The standard Map write
+ * methods throw UnsupportedOperationException. Null keys are not allowed.</p>
+ */
+public final class HeaderMap<V> extends AbstractMap<String, V> {
+
+	private static final HeaderMap<Object> EMPTY = new HeaderMap<>(new String[0], new Object[0], new int[0]);
+
+	/** */
+	@SuppressWarnings("unchecked")
+	public static <V> HeaderMap<V> empty() {
+		return (HeaderMap<V>)EMPTY;
+	}
+
+	/**
+	 * Copy a map. If there are keys which differ only by case, the last one wins.
+	 * @return the map itself if it is already a HeaderMap
+	 */
+	@SuppressWarnings("unchecked")
+	public static <V> HeaderMap<V> copyOf(final Map<String, ? extends V> map) {
+		if (map instanceof HeaderMap)
+			return (HeaderMap<V>)map;
+
+		return copyOf(map, (one, two) -> two);
+	}
+
+	/**
+	 * Copy a map, combining the values of keys which differ only by case. Null keys are skipped.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <V> HeaderMap<V> copyOf(final Map<String, ? extends V> map, final BinaryOperator<V> merge) {
+		final String[] keys = new String[map.size()];
+		final Object[] values = new Object[map.size()];
+		final int[] hashes = new int[map.size()];
+		int size = 0;
+
+		for (final Entry<String, ? extends V> entry : map.entrySet()) {
+			if (entry.getKey() == null)
+				continue;
+
+			final int hash = HeaderName.hash(entry.getKey());
+			final int existing = linearIndexOf(keys, hashes, size, entry.getKey(), hash);
+
+			if (existing >= 0) {
+				values[existing] = merge.apply((V)values[existing], entry.getValue());
+			} else {
+				keys[size] = entry.getKey();
+				values[size] = entry.getValue();
+				hashes[size] = hash;
+				size++;
+			}
+		}
+
+		return new HeaderMap<>(Arrays.copyOf(keys, size), Arrays.copyOf(values, size), Arrays.copyOf(hashes, size));
+	}
+
+	/** Only used while building; the table isn't there yet */
+	private static int linearIndexOf(final String[] keys, final int[] hashes, final int size, final String key, final int hash) {
+		for (int i = 0; i < size; i++)
+			if (hashes[i] == hash && HeaderName.equalsIgnoreCase(keys[i], key))
+				return i;
+
+		return -1;
+	}
+
+	/** In insertion order */
+	private final String[] keys;
+	private final Object[] values;
+	private final int[] hashes;
+
+	/** Open addressing; each slot is an index into keys plus one, or zero if empty. Length is a power of two. */
+	private final int[] table;
+
+	private HeaderMap(final String[] keys, final Object[] values, final int[] hashes) {
+		this.keys = keys;
+		this.values = values;
+		this.hashes = hashes;
+
+		int capacity = 2;
+		while (capacity < keys.length * 2)
+			capacity <<= 1;
+
+		this.table = new int[capacity];
+		for (int i = 0; i < keys.length; i++) {
+			int slot = spread(hashes[i]) & (table.length - 1);
+			while (table[slot] != 0)
+				slot = (slot + 1) & (table.length - 1);
+
+			table[slot] = i + 1;
+		}
+	}
+
+	private static int spread(final int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private int indexOf(final CharSequence key, final int hash) {
+		int slot = spread(hash) & (table.length - 1);
+		int index;
+		while ((index = table[slot]) != 0) {
+			if (hashes[index - 1] == hash && HeaderName.equalsIgnoreCase(keys[index - 1], key))
+				return index - 1;
+
+			slot = (slot + 1) & (table.length - 1);
+		}
+
+		return -1;
+	}
+
+	/** @return the value for the key, ignoring case */
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(final Object key) {
+		if (!(key instanceof String))
+			return null;
+
+		final int index = indexOf((String)key, HeaderName.hash((String)key));
+		return index < 0 ? null : (V)values[index];
+	}
+
+	/** @return the value for the header, without hashing */
+	@SuppressWarnings("unchecked")
+	public V get(final HeaderName name) {
+		final int index = indexOf(name.getName(), name.hashCode());
+		return index < 0 ? null : (V)values[index];
+	}
+
+	@Override
+	public boolean containsKey(final Object key) {
+		return key instanceof String && indexOf((String)key, HeaderName.hash((String)key)) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return keys.length;
+	}
+
+	/**
+	 * @param value null removes the key
+	 * @return a new map with the key set (or replaced, keeping its position but taking the new spelling)
+	 */
+	public HeaderMap<V> with(final String key, final V value) {
+		final int hash = HeaderName.hash(key);
+		final int index = indexOf(key, hash);
+
+		if (value == null) {
+			if (index < 0)
+				return this;
+
+			final String[] keys2 = new String[keys.length - 1];
+			final Object[] values2 = new Object[keys.length - 1];
+			final int[] hashes2 = new int[keys.length - 1];
+			System.arraycopy(keys, 0, keys2, 0, index);
+			System.arraycopy(keys, index + 1, keys2, index, keys.length - index - 1);
+			System.arraycopy(values, 0, values2, 0, index);
+			System.arraycopy(values, index + 1, values2, index, keys.length - index - 1);
+			System.arraycopy(hashes, 0, hashes2, 0, index);
+			System.arraycopy(hashes, index + 1, hashes2, index, keys.length - index - 1);
+			return new HeaderMap<>(keys2, values2, hashes2);
+		}
+
+		if (index >= 0) {
+			final String[] keys2 = keys.clone();
+			final Object[] values2 = values.clone();
+			keys2[index] = key;
+			values2[index] = value;
+			return new HeaderMap<>(keys2, values2, hashes);
+		}
+
+		final String[] keys2 = Arrays.copyOf(keys, keys.length + 1);
+		final Object[] values2 = Arrays.copyOf(values, values.length + 1);
+		final int[] hashes2 = Arrays.copyOf(hashes, hashes.length + 1);
+		keys2[keys.length] = key;
+		values2[keys.length] = value;
+		hashes2[keys.length] = hash;
+		return new HeaderMap<>(keys2, values2, hashes2);
+	}
+
+	@Override
+	public Set<Entry<String, V>> entrySet() {
+		return new AbstractSet<Entry<String, V>>() {
+			@Override
+			public Iterator<Entry<String, V>> iterator() {
+				return new Iterator<Entry<String, V>>() {
+					private int next;
+
+					@Override
+					public boolean hasNext() {
+						return next < keys.length;
+					}
+
+					@Override
+					@SuppressWarnings("unchecked")
+					public Entry<String, V> next() {
+						if (next >= keys.length)
+							throw new NoSuchElementException();
+
+						final int index = next++;
+						return new SimpleImmutableEntry<>(keys[index], (V)values[index]);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return keys.length;
+			}
+		};
+	}
+}
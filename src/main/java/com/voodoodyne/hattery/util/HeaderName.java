@@ -0,0 +1,93 @@
+package com.voodoodyne.hattery.util;
+
+import lombok.Getter;
+
+/**
+ * <p>An http header name, compared and hashed with ASCII case folding. Header names are ASCII tokens, so
+ * this is equivalent to (and much cheaper than) {@code toLowerCase()}; no hashing or comparison allocates.</p>
+ *
+ * <p>The well-known names are constants with precomputed hashes; use them for lookups in a {@link HeaderMap}.</p>
+ */
+public final class HeaderName {
+	public static final HeaderName ACCEPT = new HeaderName("Accept");
+	public static final HeaderName ACCEPT_ENCODING = new HeaderName("Accept-Encoding");
+	public static final HeaderName ACCEPT_RANGES = new HeaderName("Accept-Ranges");
+	public static final HeaderName AUTHORIZATION = new HeaderName("Authorization");
+	public static final HeaderName CACHE_CONTROL = new HeaderName("Cache-Control");
+	public static final HeaderName CONNECTION = new HeaderName("Connection");
+	public static final HeaderName CONTENT_ENCODING = new HeaderName("Content-Encoding");
+	public static final HeaderName CONTENT_LENGTH = new HeaderName("Content-Length");
+	public static final HeaderName CONTENT_RANGE = new HeaderName("Content-Range");
+	public static final HeaderName CONTENT_TYPE = new HeaderName("Content-Type");
+	public static final HeaderName COOKIE = new HeaderName("Cookie");
+	public static final HeaderName ETAG = new HeaderName("ETag");
+	public static final HeaderName IF_NONE_MATCH = new HeaderName("If-None-Match");
+	public static final HeaderName IF_RANGE = new HeaderName("If-Range");
+	public static final HeaderName LAST_MODIFIED = new HeaderName("Last-Modified");
+	public static final HeaderName LOCATION = new HeaderName("Location");
+	public static final HeaderName PROXY_AUTHORIZATION = new HeaderName("Proxy-Authorization");
+	public static final HeaderName RANGE = new HeaderName("Range");
+	public static final HeaderName RETRY_AFTER = new HeaderName("Retry-After");
+	public static final HeaderName SET_COOKIE = new HeaderName("Set-Cookie");
+	public static final HeaderName TRANSFER_ENCODING = new HeaderName("Transfer-Encoding");
+	public static final HeaderName USER_AGENT = new HeaderName("User-Agent");
+
+	/** The canonical spelling */
+	@Getter
+	private final String name;
+
+	/** Same as hash(name) */
+	private final int hash;
+
+	/** Use the constants if you can; this is for less common headers */
+	public HeaderName(final String name) {
+		this.name = name;
+		this.hash = hash(name);
+	}
+
+	/** @return true if the other name is the same as this one, ignoring ASCII case */
+	public boolean matches(final CharSequence other) {
+		return other != null && equalsIgnoreCase(name, other);
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		return o instanceof HeaderName && ((HeaderName)o).hash == hash && equalsIgnoreCase(name, ((HeaderName)o).name);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/** A case-folded hash; for ASCII this is the same as {@code toLowerCase().hashCode()} */
+	public static int hash(final CharSequence name) {
+		int h = 0;
+		for (int i = 0; i < name.length(); i++)
+			h = 31 * h + fold(name.charAt(i));
+
+		return h;
+	}
+
+	/** Compare ignoring ASCII case */
+	public static boolean equalsIgnoreCase(final CharSequence one, final CharSequence two) {
+		if (one.length() != two.length())
+			return false;
+
+		for (int i = 0; i < one.length(); i++)
+			if (fold(one.charAt(i)) != fold(two.charAt(i)))
+				return false;
+
+		return true;
+	}
+
+	/** ASCII lowercase; anything else is unchanged */
+	private static char fold(final char ch) {
+		return (ch >= 'A' && ch <= 'Z') ? (char)(ch + ('a' - 'A')) : ch;
+	}
+}
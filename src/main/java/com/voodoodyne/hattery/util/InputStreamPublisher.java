@@ -0,0 +1,111 @@
+package com.voodoodyne.hattery.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Publishes the content of a stream in chunks, reading only as much as has been requested. Reads
+ * happen (and block) on whichever thread calls {@code request()}. The stream is closed when it is
+ * exhausted, fails, or the subscription is cancelled.</p>
+ *
+ * <p>Supports only one subscriber, since the stream can only be read once.</p>
+ */
+public class InputStreamPublisher implements Flow.Publisher<ByteBuffer> {
+
+	private static final int CHUNK_SIZE = 8 * 1024;
+
+	private final InputStream input;
+
+	/** */
+	public InputStreamPublisher(final InputStream input) {
+		this.input = input;
+	}
+
+	@Override
+	public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+		subscriber.onSubscribe(new Subscription(subscriber));
+	}
+
+	/** */
+	private class Subscription implements Flow.Subscription {
+		private final Flow.Subscriber<? super ByteBuffer> subscriber;
+
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger wip = new AtomicInteger();
+
+		private volatile boolean done;
+
+		/** */
+		Subscription(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(final long n) {
+			if (done)
+				return;
+
+			if (n <= 0) {
+				finish();
+				subscriber.onError(new IllegalArgumentException("Demand must be positive, was " + n));
+				return;
+			}
+
+			demand.getAndAccumulate(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+			emit();
+		}
+
+		@Override
+		public void cancel() {
+			finish();
+		}
+
+		/** */
+		private void emit() {
+			if (wip.getAndIncrement() != 0)
+				return;
+
+			do {
+				while (!done && demand.get() > 0) {
+					final byte[] chunk = new byte[CHUNK_SIZE];
+					final int read;
+					try {
+						read = input.read(chunk);
+					} catch (IOException | RuntimeException e) {
+						finish();
+						subscriber.onError(e);
+						break;
+					}
+
+					if (read < 0) {
+						finish();
+						subscriber.onComplete();
+						break;
+					}
+
+					if (read > 0) {
+						demand.decrementAndGet();
+						subscriber.onNext(ByteBuffer.wrap(chunk, 0, read));
+					}
+				}
+			} while (wip.decrementAndGet() != 0);
+		}
+
+		/** */
+		private void finish() {
+			if (done)
+				return;
+
+			done = true;
+			try {
+				input.close();
+			} catch (IOException e) {
+				// nothing useful to do
+			}
+		}
+	}
+}
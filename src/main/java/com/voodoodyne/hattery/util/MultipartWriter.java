@@ -25,15 +25,25 @@ package com.voodoodyne.hattery.util;
 import com.voodoodyne.hattery.BinaryAttachment;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 /**
  * <p>Tool which writes multipart/form-data to a stream.</p>
  *
+ * <p>Internally the body is broken into segments; literal byte chunks (boundaries, part headers, text values)
+ * and the binary attachments in between them. This lets us compute the exact length of a body made of
+ * file attachments, and stream it without ever holding the whole thing in memory.</p>
+ *
  * <p>See <a href="http://www.w3.org/TR/html401/interact/forms.html#h-17.13.4">http://www.w3.org/TR/html401/interact/forms.html#h-17.13.4</a>.</p>
  *
  * @author Jeff Schnitzer
@@ -63,60 +73,129 @@ public class MultipartWriter {
 	 * Note that the Content-Disposition name is not urlencoded.
 	 */
 	public void write(final Map<String, Object> params) throws IOException {
-		final LineWriter writer = new LineWriter(this.out);
 		try {
-			for (final Map.Entry<String, Object> param: params.entrySet()) {
-
-				final Iterable<?> values = param.getValue() instanceof Iterable
-						? (Iterable<?>)param.getValue()
-						: Collections.singleton(param.getValue());
+			for (final Object segment : segments(params)) {
+				logSegment(segment);
 
-				for (final Object value : values) {
-					writeParam(writer, param.getKey(), value);
+				if (segment instanceof byte[]) {
+					this.out.write((byte[])segment);
+				} else {
+					writeAttachment((BinaryAttachment)segment);
 				}
 			}
 
-			writer.println(MULTIPART_BOUNDARY_END);
-			writer.flush();
+			this.out.flush();
 		} finally {
-			writer.close();
+			this.out.close();
 		}
 	}
 
-	private void writeParam(final LineWriter writer, final String key, final Object value) throws IOException {
-		writer.println(MULTIPART_BOUNDARY_SEPARATOR);
-
-		if (value instanceof BinaryAttachment) {
-			final BinaryAttachment ba = (BinaryAttachment)value;
-			final String headers =
-					"Content-Disposition: form-data; name=\"" + escapeQuotes(key) + "\"; filename=\"" + escapeQuotes(ba.getFilename()) + "\"" + LineWriter.CRLF
-					+ "Content-Type: " + ba.getContentType() + LineWriter.CRLF
-					;
-
-			log.debug("Writing binary part:\n" + headers);
-
-			writer.print(headers);
-			writer.println();	// Extra blank line required after headers
-			writer.flush();
-
+	private void writeAttachment(final BinaryAttachment ba) throws IOException {
+		final InputStream data = ba.openStream();
+		try {
 			// Now output the binary part to the raw stream
 			int read;
 			final byte[] chunk = new byte[8192];
-			while ((read = ba.getData().read(chunk)) > 0)
+			while ((read = data.read(chunk)) > 0)
 				this.out.write(chunk, 0, read);
+		} finally {
+			// We only own the stream if we opened it
+			if (ba.getPath() != null)
+				data.close();
+		}
+	}
 
-			// Yes, even with binary, a blank line is expected
-			writer.println();
-		} else {
-			final String part =
-					"Content-Disposition: form-data; name=\"" + escapeQuotes(key) + "\"" + LineWriter.CRLF
-					+ LineWriter.CRLF
-					+ value.toString();	// how to encode this?
+	/**
+	 * @return the exact length of the multipart/form-data body, or -1 if it includes stream attachments
+	 * whose length cannot be known without reading them.
+	 */
+	public static long contentLength(final Map<String, Object> params) throws IOException {
+		long total = 0;
 
-			log.debug("Writing part:\n" + part);
+		for (final Object segment : segments(params)) {
+			if (segment instanceof byte[]) {
+				total += ((byte[])segment).length;
+			} else {
+				final long length = ((BinaryAttachment)segment).getLength();
+				if (length < 0)
+					return -1;
 
-			writer.println(part);
+				total += length;
+			}
 		}
+
+		return total;
+	}
+
+	/**
+	 * The params as a multipart/form-data body which is produced as it is read. File attachments are
+	 * opened only when reading reaches them, and closed when finished.
+	 */
+	public static InputStream toInputStream(final Map<String, Object> params) {
+		return new SegmentInputStream(segments(params).iterator());
+	}
+
+	/**
+	 * Breaks the params into literal byte[] chunks and the BinaryAttachments that go between them.
+	 */
+	private static List<Object> segments(final Map<String, Object> params) {
+		final List<Object> segments = new ArrayList<>();
+		final StringBuilder text = new StringBuilder();
+
+		for (final Map.Entry<String, Object> param: params.entrySet()) {
+
+			final Iterable<?> values = param.getValue() instanceof Iterable
+					? (Iterable<?>)param.getValue()
+					: Collections.singleton(param.getValue());
+
+			for (final Object value : values) {
+				text.append(MULTIPART_BOUNDARY_SEPARATOR).append(LineWriter.CRLF);
+
+				if (value instanceof BinaryAttachment) {
+					final BinaryAttachment ba = (BinaryAttachment)value;
+					final String headers =
+							"Content-Disposition: form-data; name=\"" + escapeQuotes(param.getKey()) + "\"; filename=\"" + escapeQuotes(ba.getFilename()) + "\"" + LineWriter.CRLF
+							+ "Content-Type: " + ba.getContentType() + LineWriter.CRLF
+							;
+
+					text.append(headers);
+					text.append(LineWriter.CRLF);	// Extra blank line required after headers
+
+					segments.add(text.toString().getBytes(StandardCharsets.UTF_8));
+					text.setLength(0);
+
+					segments.add(ba);
+
+					// Yes, even with binary, a blank line is expected
+					text.append(LineWriter.CRLF);
+				} else {
+					final String part =
+							"Content-Disposition: form-data; name=\"" + escapeQuotes(param.getKey()) + "\"" + LineWriter.CRLF
+							+ LineWriter.CRLF
+							+ value.toString();	// how to encode this?
+
+					text.append(part).append(LineWriter.CRLF);
+				}
+			}
+		}
+
+		text.append(MULTIPART_BOUNDARY_END).append(LineWriter.CRLF);
+		segments.add(text.toString().getBytes(StandardCharsets.UTF_8));
+
+		return segments;
+	}
+
+	/**
+	 * Logged as the body is actually produced, since segments() also runs just to compute the length.
+	 */
+	private static void logSegment(final Object segment) {
+		if (!log.isDebugEnabled())
+			return;
+
+		if (segment instanceof byte[])
+			log.debug("Writing parts:\n" + new String((byte[])segment, StandardCharsets.UTF_8));
+		else
+			log.debug("Writing binary attachment: " + ((BinaryAttachment)segment).getFilename());
 	}
 
 	/**
@@ -126,7 +205,81 @@ public class MultipartWriter {
 	 *     <li>" -> \"</li>
 	 * </ul>
 	 */
-	private String escapeQuotes(final String value) {
+	private static String escapeQuotes(final String value) {
 		return value.replace("\\", "\\\\").replace("\"", "\\\"");
 	}
+
+	/**
+	 * Reads through the segments in order, opening each attachment only when we get to it.
+	 */
+	private static class SegmentInputStream extends InputStream {
+		private final Iterator<Object> segments;
+
+		/** Null when we need to advance to the next segment */
+		private InputStream current;
+
+		/** True if we opened current and must close it */
+		private boolean owned;
+
+		SegmentInputStream(final Iterator<Object> segments) {
+			this.segments = segments;
+		}
+
+		/** @return false if there are no more segments */
+		private boolean advance() throws IOException {
+			closeCurrent();
+
+			if (!segments.hasNext())
+				return false;
+
+			final Object segment = segments.next();
+			logSegment(segment);
+
+			if (segment instanceof byte[]) {
+				current = new ByteArrayInputStream((byte[])segment);
+				owned = false;
+			} else {
+				final BinaryAttachment ba = (BinaryAttachment)segment;
+				current = ba.openStream();
+				owned = ba.getPath() != null;
+			}
+
+			return true;
+		}
+
+		private void closeCurrent() throws IOException {
+			if (current != null && owned)
+				current.close();
+
+			current = null;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : (one[0] & 0xff);
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (len == 0)
+				return 0;
+
+			while (current != null || advance()) {
+				final int read = current.read(b, off, len);
+				if (read > 0)
+					return read;
+
+				if (read < 0)
+					closeCurrent();
+			}
+
+			return -1;
+		}
+
+		@Override
+		public void close() throws IOException {
+			closeCurrent();
+		}
+	}
 }
\ No newline at end of file
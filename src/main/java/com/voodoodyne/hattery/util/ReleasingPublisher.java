@@ -0,0 +1,145 @@
+package com.voodoodyne.hattery.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>Wraps a publisher of pooled buffers, and runs a release action once nobody can still be reading them:
+ * the owner has called {@code finish()} and every subscription has completed, failed, or been cancelled.
+ * HttpClient may still be sending a request body after the response has arrived (on HTTP/2, or after an
+ * early error response), so the end of the exchange alone doesn't mean the buffers are free.</p>
+ *
+ * <p>A subscription which is abandoned without being cancelled keeps the buffers out of the pool for good;
+ * that only costs the GC.</p>
+ */
+public class ReleasingPublisher implements Flow.Publisher<ByteBuffer> {
+
+	private final Flow.Publisher<ByteBuffer> upstream;
+	private final Runnable release;
+
+	/** Subscriptions which haven't ended; guarded by this */
+	private int active;
+	private boolean finished;
+	private boolean released;
+
+	/** */
+	public ReleasingPublisher(final Flow.Publisher<ByteBuffer> upstream, final Runnable release) {
+		this.upstream = upstream;
+		this.release = release;
+	}
+
+	@Override
+	public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+		final boolean late;
+		synchronized (this) {
+			late = released;
+			if (!late)
+				active++;
+		}
+
+		if (late) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(final long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("The buffers have already been released"));
+			return;
+		}
+
+		upstream.subscribe(new Tracker(subscriber));
+	}
+
+	/** The owner is done; release as soon as the subscribers are too */
+	public void finish() {
+		synchronized (this) {
+			finished = true;
+			if (!readyToRelease())
+				return;
+		}
+
+		release.run();
+	}
+
+	/** */
+	private void ended() {
+		synchronized (this) {
+			active--;
+			if (!readyToRelease())
+				return;
+		}
+
+		release.run();
+	}
+
+	/** Marks released if it is time; call while synchronized */
+	private boolean readyToRelease() {
+		if (!finished || active > 0 || released)
+			return false;
+
+		released = true;
+		return true;
+	}
+
+	/** Notices the end of one subscription, however it happens */
+	private class Tracker implements Flow.Subscriber<ByteBuffer>, Flow.Subscription {
+		private final Flow.Subscriber<? super ByteBuffer> downstream;
+		private final AtomicBoolean ended = new AtomicBoolean();
+		private Flow.Subscription subscription;
+
+		Tracker(final Flow.Subscriber<? super ByteBuffer> downstream) {
+			this.downstream = downstream;
+		}
+
+		@Override
+		public void onSubscribe(final Flow.Subscription subscription) {
+			this.subscription = subscription;
+			downstream.onSubscribe(this);
+		}
+
+		@Override
+		public void onNext(final ByteBuffer item) {
+			downstream.onNext(item);
+		}
+
+		@Override
+		public void onError(final Throwable throwable) {
+			try {
+				downstream.onError(throwable);
+			} finally {
+				end();
+			}
+		}
+
+		@Override
+		public void onComplete() {
+			try {
+				downstream.onComplete();
+			} finally {
+				end();
+			}
+		}
+
+		@Override
+		public void request(final long n) {
+			subscription.request(n);
+		}
+
+		@Override
+		public void cancel() {
+			subscription.cancel();
+			end();
+		}
+
+		/** */
+		private void end() {
+			if (ended.compareAndSet(false, true))
+				ended();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.voodoodyne.hattery.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Copies everything read from an input stream to an output stream as well. Runs a callback once,
+ * when the input is exhausted or closed (whichever comes first). Skipped bytes are not copied.
+ */
+public class TeeInputStream extends FilterInputStream {
+	private final OutputStream copy;
+
+	/** Null once it has run */
+	private Runnable onFinish;
+
+	public TeeInputStream(final InputStream in, final OutputStream copy, final Runnable onFinish) {
+		super(in);
+		this.copy = copy;
+		this.onFinish = onFinish;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int b = super.read();
+		if (b >= 0)
+			copy.write(b);
+		else
+			finish();
+
+		return b;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		final int read = super.read(b, off, len);
+		if (read > 0)
+			copy.write(b, off, read);
+		else if (read < 0)
+			finish();
+
+		return read;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			super.close();
+		} finally {
+			finish();
+		}
+	}
+
+	private void finish() {
+		if (onFinish != null) {
+			final Runnable run = onFinish;
+			onFinish = null;
+			run.run();
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.voodoodyne.hattery;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.voodoodyne.hattery.test.Snoop.SNOOP;
+
+/**
+ */
+class AccessLogTest {
+
+	/** */
+	@Test
+	void exchangesAreRecorded() throws Exception {
+		final List<AccessLogRecord> records = new ArrayList<>();
+
+		SNOOP
+				.path("/foo")
+				.param("bar", "baz")
+				.accessLog(records::add)
+				.fetch().succeed();
+
+		assertThat(records).hasSize(1);
+
+		final AccessLogRecord record = records.get(0);
+		assertThat(record.getMethod()).isEqualTo("GET");
+		assertThat(record.getPath()).isEqualTo("/foo");
+		assertThat(record.getStatus()).isEqualTo(200);
+	}
+
+	/** */
+	@Test
+	void unsampledExchangesAreNotRecorded() throws Exception {
+		final List<AccessLogRecord> records = new ArrayList<>();
+		final AccessLog log = records::add;
+
+		SNOOP
+				.accessLog(log.sampled(0))
+				.fetch().succeed();
+
+		assertThat(records).isEmpty();
+	}
+
+	/** */
+	@Test
+	void asyncRecordsAfterCloseAreCountedAsDropped() throws Exception {
+		final List<AccessLogRecord> records = Collections.synchronizedList(new ArrayList<>());
+		final AsyncAccessLog log = new AsyncAccessLog(records::add, 10);
+
+		SNOOP.accessLog(log).fetch().succeed();
+		log.close();
+
+		assertThat(records).hasSize(1);
+		assertThat(log.getDropped()).isEqualTo(0);
+
+		SNOOP.accessLog(log).fetch().succeed();
+
+		assertThat(records).hasSize(1);
+		assertThat(log.getDropped()).isEqualTo(1);
+	}
+}
@@ -22,9 +22,22 @@
 
 package com.voodoodyne.hattery;
 
+import com.google.common.io.ByteStreams;
 import com.voodoodyne.hattery.test.Snoop;
+import com.voodoodyne.hattery.util.ByteBufferPublisher;
+import com.voodoodyne.hattery.util.MultipartWriter;
 import lombok.Data;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.voodoodyne.hattery.test.Snoop.SNOOP;
@@ -49,4 +62,134 @@ class BodyTest {
 		assertThat(snoop.getContentType()).isEqualTo("application/json");
 		assertThat(snoop.getBody().toString()).isEqualTo("{\"foo\":\"bar\"}");
 	}
+
+	@Test
+	void pathBodyIsSubmittedAsFileContents(@TempDir final Path dir) throws Exception {
+		final Path file = dir.resolve("body.json");
+		Files.write(file, "{\"foo\":\"bar\"}".getBytes(StandardCharsets.UTF_8));
+
+		final Snoop snoop = SNOOP
+				.POST()
+				.body(file)
+				.fetch().as(Snoop.class);
+
+		assertThat(snoop.getContentType()).isEqualTo("application/json");
+		assertThat(snoop.getBody().toString()).isEqualTo("{\"foo\":\"bar\"}");
+	}
+
+	@Test
+	void publisherBodyIsSubmittedAsItsBuffers() throws Exception {
+		final List<ByteBuffer> buffers = List.of(
+				ByteBuffer.wrap("{\"foo\":".getBytes(StandardCharsets.UTF_8)),
+				ByteBuffer.wrap("\"bar\"}".getBytes(StandardCharsets.UTF_8)));
+
+		for (final Transport transport : List.of(new Java11Transport(), new URLConnectionTransport())) {
+			try (transport) {
+				final Snoop snoop = SNOOP
+						.transport(transport)
+						.POST()
+						.body(new ByteBufferPublisher(buffers))
+						.fetch().as(Snoop.class);
+
+				assertThat(snoop.getBody().toString()).isEqualTo("{\"foo\":\"bar\"}");
+			}
+		}
+	}
+
+	/** */
+	@Test
+	void urlConnectionStreamsSizedBodiesWithContentLength() throws Exception {
+		final Snoop json = SNOOP
+				.transport(new URLConnectionTransport())
+				.POST()
+				.body(new SomeBody("bar"))
+				.fetch().as(Snoop.class);
+
+		assertThat(json.getHeaders()).containsEntry("Content-Length", "13");
+		assertThat(json.getHeaders()).doesNotContainKey("Transfer-Encoding");
+
+		final Snoop form = SNOOP
+				.transport(new URLConnectionTransport())
+				.POST()
+				.param("foo", "bar")
+				.fetch().as(Snoop.class);
+
+		assertThat(form.getHeaders()).containsEntry("Content-Length", "7");
+		assertThat(form.getFormParams()).containsEntry("foo", "bar");
+	}
+
+	/** */
+	@Test
+	void urlConnectionStreamsUnsizedBodiesChunked() throws Exception {
+		final Snoop snoop = SNOOP
+				.transport(new URLConnectionTransport())
+				.POST()
+				.body(new ByteArrayInputStream("{\"foo\":\"bar\"}".getBytes(StandardCharsets.UTF_8)))
+				.fetch().as(Snoop.class);
+
+		assertThat(snoop.getHeaders()).containsEntry("Transfer-Encoding", "chunked");
+		assertThat(snoop.getBody().toString()).isEqualTo("{\"foo\":\"bar\"}");
+	}
+
+	/** The params of a multipart form with one attachment, in order */
+	private static Map<String, Object> multipart(final BinaryAttachment attachment) {
+		final Map<String, Object> params = new LinkedHashMap<>();
+		params.put("foo", "bar");
+		params.put("file", attachment);
+		return params;
+	}
+
+	/** */
+	@Test
+	void multipartWithAFileIsSentWithItsExactLength(@TempDir final Path dir) throws Exception {
+		final Path file = dir.resolve("data.txt");
+		Files.write(file, "file contents".getBytes(StandardCharsets.UTF_8));
+		final Map<String, Object> params = multipart(new BinaryAttachment(file, "text/plain", "data.txt"));
+
+		final long length = MultipartWriter.contentLength(params);
+		final byte[] expected = ByteStreams.toByteArray(MultipartWriter.toInputStream(params));
+		assertThat(length).isEqualTo(expected.length);
+
+		for (final Transport transport : List.of(new Java11Transport(), new URLConnectionTransport())) {
+			try (transport) {
+				try (transport) {
+					HttpRequest request = SNOOP.transport(transport).POST();
+					for (final Map.Entry<String, Object> param : params.entrySet())
+						request = request.param(param.getKey(), param.getValue());
+
+					assertThat(request.getContentLength()).isEqualTo(length);
+
+					final Snoop snoop = request.fetch().as(Snoop.class);
+					assertThat(snoop.getHeaders()).containsEntry("Content-Length", Long.toString(length));
+					assertThat(snoop.getHeaders()).doesNotContainKey("Transfer-Encoding");
+					assertThat(snoop.getBody().asText()).isEqualTo(new String(expected, StandardCharsets.UTF_8));
+				}
+			}
+		}
+	}
+
+	/** A stream attachment has no length up front; URLConnectionTransport streams it chunked, Java11Transport serializes it first */
+	@Test
+	void multipartWithAStreamHasNoLength() throws Exception {
+		final Map<String, Object> params = multipart(new BinaryAttachment(new ByteArrayInputStream(new byte[0]), "text/plain", "data.txt"));
+		assertThat(MultipartWriter.contentLength(params)).isEqualTo(-1);
+
+		try (final URLConnectionTransport transport = new URLConnectionTransport()) {
+			final Snoop snoop = SNOOP.transport(transport).POST().param("foo", "bar").param("file", streamAttachment()).fetch().as(Snoop.class);
+			assertThat(snoop.getHeaders()).containsEntry("Transfer-Encoding", "chunked");
+			assertThat(snoop.getBody().asText()).contains("stream contents");
+		}
+
+		try (final Java11Transport transport = new Java11Transport()) {
+			final Snoop snoop = SNOOP.transport(transport).POST().param("foo", "bar").param("file", streamAttachment()).fetch().as(Snoop.class);
+			final String body = snoop.getBody().asText();
+			assertThat(snoop.getHeaders()).containsEntry("Content-Length", Integer.toString(body.getBytes(StandardCharsets.UTF_8).length));
+			assertThat(body).contains("stream contents");
+		}
+	}
+
+	/** */
+	private static BinaryAttachment streamAttachment() {
+		return new BinaryAttachment(new ByteArrayInputStream("stream contents".getBytes(StandardCharsets.UTF_8)), "text/plain", "data.txt");
+	}
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+package com.voodoodyne.hattery;
+
+import com.google.common.base.Strings;
+import com.voodoodyne.hattery.test.Snoop;
+import com.voodoodyne.hattery.util.BufferPool;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.voodoodyne.hattery.HttpRequest.HTTP;
+import static com.voodoodyne.hattery.test.Snoop.SNOOP;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ */
+class BufferedBodyTest {
+
+	/** Counts how many times it is serialized */
+	public static class CountingBody {
+		static final AtomicInteger serialized = new AtomicInteger();
+
+		public String getFoo() {
+			serialized.incrementAndGet();
+			return "bar";
+		}
+	}
+
+	/** */
+	@Test
+	void objectBodyIsSerializedOnce() throws Exception {
+		CountingBody.serialized.set(0);
+
+		try (final Java11Transport transport = new Java11Transport()) {
+			final Snoop snoop = SNOOP
+					.POST()
+					.body(new CountingBody())
+					.transport(request -> {
+						// Like a transport retrying
+						final ByteArrayOutputStream first = new ByteArrayOutputStream();
+						final ByteArrayOutputStream second = new ByteArrayOutputStream();
+						request.writeBody(first);
+						request.writeBody(second);
+						assertThat(second.toByteArray()).isEqualTo(first.toByteArray());
+
+						return transport.fetch(request);
+					})
+					.fetch().as(Snoop.class);
+
+			assertThat(CountingBody.serialized.get()).isEqualTo(1);
+			assertThat(snoop.getContentType()).isEqualTo("application/json");
+			assertThat(snoop.getBody().toString()).isEqualTo("{\"foo\":\"bar\"}");
+		}
+	}
+
+	/** */
+	@Test
+	void formBodyKeepsItsContentType() throws Exception {
+		final Snoop snoop = SNOOP
+				.POST()
+				.param("foo", "bar")
+				.transport(request -> {
+					assertThat(request.getBody()).isInstanceOf(BufferedBody.class);
+					return new URLConnectionTransport().fetch(request);
+				})
+				.fetch().as(Snoop.class);
+
+		assertThat(snoop.getContentType()).startsWith("application/x-www-form-urlencoded");
+		assertThat(snoop.getFormParams()).containsEntry("foo", "bar");
+		assertThat(snoop.getQueryParams()).isEmpty();
+	}
+
+	/** */
+	@Test
+	void largeBodiesSpillToAFileWhichIsDeletedAfterwards() throws Exception {
+		final String big = Strings.repeat("abcdefgh", (int)(BufferedBody.SPILL_THRESHOLD / 8) + 1000);
+		final AtomicReference<Path> spilled = new AtomicReference<>();
+
+		for (final Transport transport : List.of(new Java11Transport(), new URLConnectionTransport())) {
+			try (transport) {
+				final Snoop snoop = SNOOP
+						.POST()
+						.contentType("text/plain")
+						.body(big)
+						.transport(request -> {
+							final BufferedBody body = (BufferedBody)request.getBody();
+							assertThat(body.isInMemory()).isFalse();
+							assertThat(body.getLength()).isEqualTo(big.length());
+							spilled.set(body.getFile());
+							return transport.fetch(request);
+						})
+						.fetch().as(Snoop.class);
+
+				assertThat(snoop.getBody().asText()).isEqualTo(big);
+				assertThat(Files.exists(spilled.get())).isFalse();
+			}
+		}
+	}
+
+	/** */
+	@Test
+	void chunksAreKeptUntilEveryHolderReleases() throws Exception {
+		final BufferedBody body = BufferedBody.of(SNOOP.POST().body(Map.of("foo", "bar")));
+		final int idle = BufferPool.DEFAULT.getIdleCount();
+
+		body.retain();
+		body.release(true);
+		assertThat(BufferPool.DEFAULT.getIdleCount()).isEqualTo(idle);
+		assertThat(body.toByteBuffers().get(0).get(0)).isEqualTo((byte)'{');
+
+		body.release(true);
+		assertThat(BufferPool.DEFAULT.getIdleCount()).isEqualTo(idle + 1);
+	}
+
+	/** */
+	@Test
+	void chunksAreNotReusedIfAnyHolderFailed() throws Exception {
+		final BufferedBody body = BufferedBody.of(SNOOP.POST().body(Map.of("foo", "bar")));
+		final int idle = BufferPool.DEFAULT.getIdleCount();
+
+		body.retain();
+		body.release(false);
+		body.release(true);
+		assertThat(BufferPool.DEFAULT.getIdleCount()).isEqualTo(idle);
+	}
+
+	/** */
+	@Test
+	void streamBodiesAreNotRetried() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger();
+		final LoadBalancingTransport transport = new LoadBalancingTransport(request -> {
+			attempts.incrementAndGet();
+			throw new SocketTimeoutException("Read timed out");
+		}, List.of("http://a", "http://b", "http://c"));
+
+		final HttpRequest request = HTTP.transport(transport).url("http://placeholder/").POST().retries(2);
+
+		assertThrows(IORuntimeException.class, () -> request.body(Map.of("foo", "bar")).fetch());
+		assertThat(attempts.get()).isEqualTo(3);
+
+		attempts.set(0);
+		assertThrows(IORuntimeException.class, () -> request.body(new ByteArrayInputStream(new byte[10])).fetch());
+		assertThat(attempts.get()).isEqualTo(1);
+		assertThat(request.body(new ByteArrayInputStream(new byte[10])).isReplayable()).isFalse();
+	}
+}
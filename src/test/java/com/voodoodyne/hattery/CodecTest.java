@@ -0,0 +1,117 @@
+package com.voodoodyne.hattery;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.voodoodyne.hattery.test.Snoop;
+import lombok.Value;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.voodoodyne.hattery.test.Snoop.SNOOP;
+
+/**
+ * Uses snake_case json as a stand-in for a binary format, so that a plain json mapper can't read it
+ */
+class CodecTest {
+
+	/** */
+	private static final Codec SNAKE = Codec.of("application/x-snake", new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE));
+
+	/** Like formats whose factories can't parse without blocking */
+	@SuppressWarnings("serial")
+	private static final Codec BLOCKING_SNAKE = Codec.of("application/x-snake", new ObjectMapper(new JsonFactory() {
+		@Override
+		public boolean canParseAsync() {
+			return false;
+		}
+	}).setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE));
+
+	@Value
+	public static class Thing {
+		String someName;
+		int someCount;
+	}
+
+	/** */
+	@Test
+	void bodyIsSentInTheCodecFormat() throws Exception {
+		final Snoop snoop = SNOOP
+				.POST()
+				.codec(SNAKE)
+				.body(new Thing("foo", 3))
+				.fetch().as(Snoop.class);
+
+		assertThat(snoop.getContentType()).isEqualTo("application/x-snake");
+		assertThat(snoop.getHeaders().get("Accept")).isEqualTo("application/x-snake, application/json;q=0.5");
+		assertThat(snoop.getBody().asText()).isEqualTo("{\"some_name\":\"foo\",\"some_count\":3}");
+	}
+
+	/** */
+	@Test
+	void jsonIsStillTheDefault() throws Exception {
+		final Snoop snoop = SNOOP
+				.POST()
+				.registerCodec(SNAKE)
+				.body(new Thing("foo", 3))
+				.fetch().as(Snoop.class);
+
+		assertThat(snoop.getContentType()).isEqualTo("application/json");
+		assertThat(snoop.getHeaders()).doesNotContainKey("Accept");
+		assertThat(snoop.getBody().toString()).isEqualTo("{\"someName\":\"foo\",\"someCount\":3}");
+	}
+
+	/** */
+	@Test
+	void responseIsDecodedByItsContentType() throws Exception {
+		for (final Transport transport : List.of(new Java11Transport(), new URLConnectionTransport())) {
+			try (transport) {
+				final HttpResponse response = SNOOP
+						.transport(transport)
+						.path("/mirror")
+						.POST()
+						.codec(SNAKE)
+						.body(new Thing("foo", 3))
+						.fetch();
+
+				assertThat(response.getContentType()).hasValue("application/x-snake");
+				assertThat(response.as(Thing.class)).isEqualTo(new Thing("foo", 3));
+			}
+		}
+	}
+
+	/** */
+	@Test
+	void explicitContentTypeUsesTheRegisteredCodec() throws Exception {
+		final Thing thing = SNOOP
+				.path("/mirror")
+				.POST()
+				.registerCodec(SNAKE)
+				.contentType("application/x-snake; charset=utf-8")
+				.body(new Thing("foo", 3))
+				.fetch().as(Thing.class);
+
+		assertThat(thing).isEqualTo(new Thing("foo", 3));
+	}
+
+	/** */
+	@Test
+	void fetchAsyncDecodesWithTheCodec() throws Exception {
+		try (final Java11Transport transport = new Java11Transport()) {
+			for (final Codec codec : List.of(SNAKE, BLOCKING_SNAKE)) {
+				final Thing thing = SNOOP
+						.transport(transport)
+						.path("/mirror")
+						.POST()
+						.codec(codec)
+						.body(new Thing("foo", 3))
+						.fetchAsync(Thing.class)
+						.join();
+
+				assertThat(thing).isEqualTo(new Thing("foo", 3));
+			}
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.voodoodyne.hattery;
+
+import com.voodoodyne.hattery.test.Snoop;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.voodoodyne.hattery.HttpRequest.HTTP;
+import static com.voodoodyne.hattery.test.Snoop.SNOOP;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ */
+class DeadlineTest {
+
+	/** */
+	@Test
+	void deadlineCoversAllRetries() throws Exception {
+		for (final Transport transport : List.of(new Java11Transport(), new URLConnectionTransport())) {
+			try (transport) {
+				final long start = System.nanoTime();
+
+				assertThrows(DeadlineExceededException.class, () -> SNOOP
+						.transport(transport)
+						.path("/delay/3000")
+						.timeout(1000)
+						.retries(5)
+						.deadline(Duration.ofMillis(1500))
+						.fetch());
+
+				assertThat((System.nanoTime() - start) / 1_000_000).isLessThan(2500L);
+			}
+		}
+	}
+
+	/** */
+	@Test
+	void passedDeadlineNeverReachesTheTransport() throws Exception {
+		final HttpRequest request = HTTP
+				.url("http://example.invalid/")
+				.transport(req -> {
+					throw new AssertionError("Transport should not be called");
+				})
+				.deadline(Instant.now().minusSeconds(1));
+
+		assertThrows(DeadlineExceededException.class, request::fetch);
+	}
+
+	/** */
+	@Test
+	void attemptTimeoutIsClippedToTheDeadline() throws Exception {
+		assertThat(HTTP.timeout(1000).getAttemptTimeout()).isEqualTo(1000);
+		assertThat(HTTP.timeout(1000).deadline(Instant.now().plusSeconds(60)).getAttemptTimeout()).isEqualTo(1000);
+		assertThat(HTTP.timeout(10000).deadline(Instant.now().plusSeconds(2)).getAttemptTimeout()).isAtMost(2000);
+		assertThat(HTTP.deadline(Instant.now().plusSeconds(2)).getAttemptTimeout()).isGreaterThan(0);
+	}
+
+	/** */
+	@Test
+	void asyncDeadline() throws Exception {
+		final CompletionException e = assertThrows(CompletionException.class, () -> SNOOP
+				.path("/delay/3000")
+				.deadline(Duration.ofMillis(500))
+				.fetchAsync(Snoop.class)
+				.join());
+
+		assertThat(e.getCause()).isInstanceOf(DeadlineExceededException.class);
+	}
+}
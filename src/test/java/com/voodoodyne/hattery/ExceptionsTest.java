@@ -38,7 +38,7 @@ class ExceptionsTest {
 	void jacksonExceptionsProduceIORException() {
 		assertThrows(IORuntimeException.class, () -> {
 			SNOOP
-					.url("http://example.com")
+					.path("/status/200")
 					.fetch().as(Snoop.class);	// wrong response
 		});
 	}
@@ -46,8 +46,8 @@ class ExceptionsTest {
 	@Test
 	void canTranslateErrorsIntoSpecialExceptions() {
 		assertThrows(UnsupportedOperationException.class, () -> {
-			HttpRequest.HTTP
-					.url("http://example.com/doesnotexist")
+			SNOOP
+					.path("/status/404")
 					.errorTranslator(UnsupportedOperationException::new)
 					.fetch().asNode();
 		});
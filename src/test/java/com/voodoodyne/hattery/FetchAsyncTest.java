@@ -0,0 +1,60 @@
+package com.voodoodyne.hattery;
+
+import com.voodoodyne.hattery.test.Snoop;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.voodoodyne.hattery.test.Snoop.SNOOP;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ */
+class FetchAsyncTest {
+
+	/** */
+	@Test
+	void bodyIsBoundAsItArrives() throws Exception {
+		final Snoop snoop = SNOOP.path("/foo").param("a", "b").fetchAsync(Snoop.class).join();
+
+		assertThat(snoop.getPath()).isEqualTo("/foo");
+		assertThat(snoop.getQueryParams()).containsEntry("a", "b");
+	}
+
+	/** */
+	@Test
+	void urlConnectionTransportFallsBackToBlockingFetch() throws Exception {
+		final Snoop snoop = SNOOP.transport(new URLConnectionTransport()).path("/foo").fetchAsync(Snoop.class).join();
+
+		assertThat(snoop.getPath()).isEqualTo("/foo");
+	}
+
+	/** */
+	@Test
+	void errorsCompleteWithHttpException() throws Exception {
+		final CompletionException e = assertThrows(CompletionException.class, () -> SNOOP.path("/status/404").fetchAsync(Snoop.class).join());
+
+		assertThat(e.getCause()).isInstanceOf(HttpException.class);
+		assertThat(((HttpException)e.getCause()).getCode()).isEqualTo(404);
+	}
+
+	/** */
+	@Test
+	void bodiesWhichAreNotJsonAreBufferedForPostflight() throws Exception {
+		final AtomicReference<String> seen = new AtomicReference<>();
+
+		final String value = SNOOP.path("/mirror").POST()
+				.contentType("text/plain")
+				.body("\"hello\"")
+				.postflight(response -> {
+					seen.set(response.getContentString());
+					return response;
+				})
+				.fetchAsync(String.class).join();
+
+		assertThat(seen.get()).isEqualTo("\"hello\"");
+		assertThat(value).isEqualTo("hello");
+	}
+}
@@ -57,6 +57,16 @@ class HeadersTest {
 		assertThat(snoop.getHeaders()).containsEntry("Foo", "yyy");
 	}
 
+	/** */
+	@Test
+	void headerNamesAreCaseInsensitive() throws Exception {
+		final HttpRequest request = SNOOP
+				.header("Foo", "zzz")
+				.header("foo", "yyy");
+
+		assertThat(request.getHeaders()).containsExactly("foo", "yyy");
+	}
+
 	/** */
 	@Test
 	void contentTypeCanBeSpecified() throws Exception {
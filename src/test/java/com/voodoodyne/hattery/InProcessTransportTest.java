@@ -0,0 +1,167 @@
+package com.voodoodyne.hattery;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import lombok.Value;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.voodoodyne.hattery.HttpRequest.HTTP;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ */
+class InProcessTransportTest {
+
+	@Value
+	public static class Thing {
+		String name;
+		int count;
+	}
+
+	/** Echoes the method, uri, Content-Type, and body as json, like a tiny snoop */
+	private static void echo(final HttpExchange exchange) throws IOException {
+		final Map<String, Object> echo = new LinkedHashMap<>();
+		echo.put("method", exchange.getRequestMethod());
+		echo.put("uri", exchange.getRequestURI().toString());
+		echo.put("contextPath", exchange.getHttpContext().getPath());
+		echo.put("host", exchange.getRequestHeaders().getFirst("Host"));
+		echo.put("contentType", exchange.getRequestHeaders().getFirst("Content-Type"));
+		echo.put("body", new String(ByteStreams.toByteArray(exchange.getRequestBody()), StandardCharsets.UTF_8));
+
+		final byte[] content = new ObjectMapper().writeValueAsBytes(echo);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, content.length);
+		try (final OutputStream out = exchange.getResponseBody()) {
+			out.write(content);
+		}
+	}
+
+	/** */
+	@Test
+	void objectsPassThroughWithoutSerialization() throws Exception {
+		final Thing thing = new Thing("foo", 3);
+		final InProcessTransport transport = new InProcessTransport()
+				.register("http://things", request -> {
+					final Thing received = InProcessTransport.bodyAs(request, Thing.class);
+					assertThat(received).isSameInstanceAs(thing);
+					return InProcessTransport.respond(200, received);
+				});
+
+		final HttpResponse response = HTTP.transport(transport).url("http://things/foo").POST().body(thing).fetch();
+
+		assertThat(response.as(Thing.class)).isSameInstanceAs(thing);
+		assertThat(response.as(Map.class)).containsEntry("name", "foo");
+		assertThat(response.getContentString()).isEqualTo("{\"name\":\"foo\",\"count\":3}");
+		assertThat(response.getContentType()).hasValue("application/json");
+	}
+
+	/** Wrappers ask the transport they wrap whether to serialize */
+	@Test
+	void objectsPassThroughWrappers() throws Exception {
+		final Thing thing = new Thing("foo", 3);
+		final InProcessTransport inProcess = new InProcessTransport()
+				.register("http://things", request -> InProcessTransport.respond(200, InProcessTransport.bodyAs(request, Thing.class)));
+
+		final Transport lazy = new LazyTransport(() -> inProcess);
+		assertThat(HTTP.transport(lazy).url("http://things").POST().body(thing).fetch().as(Thing.class)).isSameInstanceAs(thing);
+
+		final Transport balanced = new LoadBalancingTransport(inProcess, List.of("http://things"));
+		assertThat(HTTP.transport(balanced).url("http://things").POST().body(thing).fetch().as(Thing.class)).isSameInstanceAs(thing);
+	}
+
+	/** */
+	@Test
+	void bodiesOfOtherTypesAreConverted() throws Exception {
+		final InProcessTransport transport = new InProcessTransport()
+				.register("http://things", request -> InProcessTransport.respond(200, InProcessTransport.bodyAs(request, Thing.class)));
+
+		final Thing converted = HTTP.transport(transport).url("http://things").POST().body(Map.of("name", "foo", "count", 3)).fetch().as(Thing.class);
+		assertThat(converted).isEqualTo(new Thing("foo", 3));
+
+		final Thing parsed = HTTP.transport(transport).url("http://things").POST().body("{\"name\":\"bar\",\"count\":4}".getBytes(StandardCharsets.UTF_8)).fetch().as(Thing.class);
+		assertThat(parsed).isEqualTo(new Thing("bar", 4));
+	}
+
+	/** */
+	@Test
+	void errorsAreTranslated() throws Exception {
+		final InProcessTransport transport = new InProcessTransport()
+				.register("http://things", request -> InProcessTransport.respond(404, "text/plain", "nope".getBytes(StandardCharsets.UTF_8)));
+
+		final HttpException ex = assertThrows(HttpException.class, () -> HTTP.transport(transport).url("http://things/1").fetch().as(Thing.class));
+		assertThat(ex.getCode()).isEqualTo(404);
+
+		assertThrows(UnsupportedOperationException.class, () -> HTTP.transport(transport).url("http://things/1")
+				.errorTranslator(UnsupportedOperationException::new)
+				.fetch().succeed());
+	}
+
+	/** */
+	@Test
+	void runsHttpHandlers() throws Exception {
+		final InProcessTransport transport = new InProcessTransport().registerHttpHandler("http://localhost:8080/api", InProcessTransportTest::echo);
+
+		final Map<?, ?> get = HTTP.transport(transport).url("http://localhost:8080/api/things").param("a", "b").fetch().as(Map.class);
+		assertThat(get).containsEntry("method", "GET");
+		assertThat(get).containsEntry("uri", "/api/things?a=b");
+		assertThat(get).containsEntry("contextPath", "/api");
+		assertThat(get).containsEntry("host", "localhost:8080");
+		assertThat(get).containsEntry("body", "");
+
+		final Map<?, ?> post = HTTP.transport(transport).url("http://localhost:8080/api").POST().body(new Thing("foo", 3)).fetch().as(Map.class);
+		assertThat(post).containsEntry("contentType", "application/json");
+		assertThat(post).containsEntry("body", "{\"name\":\"foo\",\"count\":3}");
+
+		final Map<?, ?> stream = HTTP.transport(transport).url("http://localhost:8080/api").POST()
+				.contentType("text/plain")
+				.body(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)))
+				.fetch().as(Map.class);
+		assertThat(stream).containsEntry("body", "hello");
+	}
+
+	/** */
+	@Test
+	void enforcesMaxResponseBytes() throws Exception {
+		final InProcessTransport transport = new InProcessTransport().registerHttpHandler("http://localhost", InProcessTransportTest::echo);
+
+		assertThrows(ResponseTooLargeException.class, () -> HTTP.transport(transport).url("http://localhost").maxResponseBytes(10).fetch());
+	}
+
+	/** */
+	@Test
+	void routesByLongestPrefixOnSegmentBoundaries() throws Exception {
+		final InProcessTransport transport = new InProcessTransport()
+				.register("http://things", request -> InProcessTransport.respond(200, "short"))
+				.register("http://things/special", request -> InProcessTransport.respond(200, "long"));
+
+		assertThat(HTTP.transport(transport).url("http://things/ordinary").fetch().as(String.class)).isEqualTo("short");
+		assertThat(HTTP.transport(transport).url("http://things/special/1").fetch().as(String.class)).isEqualTo("long");
+		assertThat(HTTP.transport(transport).url("http://things/specialist").fetch().as(String.class)).isEqualTo("short");
+
+		final IORuntimeException missing = assertThrows(IORuntimeException.class, () -> HTTP.transport(transport).url("http://things2").fetch());
+		assertThat(missing.getCause()).isInstanceOf(ConnectException.class);
+	}
+
+	/** */
+	@Test
+	void handlerExceptionsAreTheCause() throws Exception {
+		final InProcessTransport transport = new InProcessTransport()
+				.register("http://things", request -> {
+					throw new IllegalStateException("broken");
+				});
+
+		final IORuntimeException ex = assertThrows(IORuntimeException.class, () -> HTTP.transport(transport).url("http://things").fetch());
+		assertThat(ex.getCause().getCause()).isInstanceOf(IllegalStateException.class);
+	}
+}
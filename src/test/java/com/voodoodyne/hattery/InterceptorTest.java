@@ -0,0 +1,92 @@
+package com.voodoodyne.hattery;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.voodoodyne.hattery.test.Snoop;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.voodoodyne.hattery.HttpRequest.HTTP;
+import static com.voodoodyne.hattery.test.Snoop.SNOOP;
+
+/**
+ */
+class InterceptorTest {
+
+	/** A canned 200 response */
+	private static TransportResponse cached(final String body) {
+		final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+		return new TransportResponse() {
+			@Override
+			public int getResponseCode() {
+				return 200;
+			}
+
+			@Override
+			public InputStream getContentStream() {
+				return new ByteArrayInputStream(bytes);
+			}
+
+			@Override
+			public byte[] getContentBytes() {
+				return bytes;
+			}
+
+			@Override
+			public ListMultimap<String, String> getHeaders() {
+				return ArrayListMultimap.create();
+			}
+		};
+	}
+
+	/** */
+	@Test
+	void interceptorCanRewriteTheRequestAndSeeTheResponse() throws Exception {
+		final List<Integer> codes = new ArrayList<>();
+
+		final Snoop snoop = SNOOP
+				.interceptor(chain -> {
+					final TransportResponse response = chain.proceed(chain.request().header("Foo", "intercepted"));
+					codes.add(response.getResponseCode());
+					return response;
+				})
+				.fetch().as(Snoop.class);
+
+		assertThat(snoop.getHeaders()).containsEntry("Foo", "intercepted");
+		assertThat(codes).containsExactly(200);
+	}
+
+	/** */
+	@Test
+	void interceptorsRunInOrderAndCanShortCircuit() throws Exception {
+		final List<String> order = new ArrayList<>();
+
+		final HttpRequest request = HTTP
+				.url("http://example.invalid/")
+				.transport(req -> {
+					throw new AssertionError("Transport should not be called");
+				})
+				.interceptor(chain -> {
+					order.add("first");
+					return chain.proceed(chain.request());
+				})
+				.interceptor(chain -> {
+					order.add("second");
+					return cached("\"from cache\"");
+				});
+
+		assertThat(request.fetch().as(String.class)).isEqualTo("from cache");
+		assertThat(order).containsExactly("first", "second").inOrder();
+
+		order.clear();
+		assertThat(request.fetchAsync(String.class).join()).isEqualTo("from cache");
+		assertThat(order).containsExactly("first", "second").inOrder();
+	}
+}
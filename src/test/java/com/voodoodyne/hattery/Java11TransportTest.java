@@ -0,0 +1,36 @@
+package com.voodoodyne.hattery;
+
+import com.voodoodyne.hattery.Java11Transport.ShardSelection;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpClient;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.voodoodyne.hattery.test.Snoop.SNOOP;
+
+/**
+ */
+class Java11TransportTest {
+
+	/** */
+	@Test
+	void roundRobinSpreadsRequestsAcrossShards() throws Exception {
+		try (final Java11Transport transport = new Java11Transport(HttpClient.newBuilder(), 2, ShardSelection.ROUND_ROBIN)) {
+			SNOOP.transport(transport).fetch().succeed();
+			SNOOP.transport(transport).version(HttpVersion.HTTP_1_1).fetch().succeed();
+
+			assertThat(transport.getShardRequests()).asList().containsExactly(1L, 1L);
+		}
+	}
+
+	/** */
+	@Test
+	void hostHashKeepsAHostOnOneShard() throws Exception {
+		try (final Java11Transport transport = new Java11Transport(HttpClient.newBuilder(), 4, ShardSelection.HOST_HASH)) {
+			SNOOP.transport(transport).fetch().succeed();
+			SNOOP.transport(transport).version(HttpVersion.HTTP_2).fetch().succeed();
+
+			assertThat(transport.getShardRequests()).asList().contains(2L);
+		}
+	}
+}
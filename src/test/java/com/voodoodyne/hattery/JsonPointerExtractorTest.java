@@ -0,0 +1,79 @@
+package com.voodoodyne.hattery;
+
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.voodoodyne.hattery.test.Snoop.SNOOP;
+
+/**
+ */
+class JsonPointerExtractorTest {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/** */
+	private static Map<JsonPointer, JsonNode> extract(final String json, final String... pointers) throws Exception {
+		final JsonPointer[] compiled = new JsonPointer[pointers.length];
+		for (int i = 0; i < pointers.length; i++)
+			compiled[i] = JsonPointer.compile(pointers[i]);
+
+		return new JsonPointerExtractor(MAPPER, compiled).extract(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/** */
+	@Test
+	void extractsNestedValuesAndArrayElements() throws Exception {
+		final String json = "{\"skip\":{\"deep\":[1,2,3]},\"data\":{\"total\":42,\"items\":[{\"id\":\"a\"},{\"id\":\"b\"}]},\"after\":null}";
+
+		final Map<JsonPointer, JsonNode> found = extract(json, "/data/total", "/data/items/1/id", "/data/items", "/missing", "/after");
+
+		assertThat(found.get(JsonPointer.compile("/data/total")).asLong()).isEqualTo(42L);
+		assertThat(found.get(JsonPointer.compile("/data/items/1/id")).asText()).isEqualTo("b");
+		assertThat(found.get(JsonPointer.compile("/data/items")).size()).isEqualTo(2);
+		assertThat(found.get(JsonPointer.compile("/missing")).isMissingNode()).isTrue();
+		assertThat(found.get(JsonPointer.compile("/after")).isNull()).isTrue();
+	}
+
+	/** */
+	@Test
+	void stopsReadingOnceEverythingIsFound() throws Exception {
+		// Anything after the first value is not even valid json
+		final Map<JsonPointer, JsonNode> found = extract("{\"a\":{\"b\":1},\"c\": this is not json", "/a/b");
+
+		assertThat(found.get(JsonPointer.compile("/a/b")).asInt()).isEqualTo(1);
+	}
+
+	/** */
+	@Test
+	void missingPathsAreSettledWhenTheirParentEnds() throws Exception {
+		final Map<JsonPointer, JsonNode> found = extract("{\"a\":{\"b\":1},\"c\": this is not json", "/a/b", "/a/x");
+
+		assertThat(found.get(JsonPointer.compile("/a/x")).isMissingNode()).isTrue();
+	}
+
+	/** */
+	@Test
+	void atBindsFromTheResponse() throws Exception {
+		final HttpResponse response = SNOOP
+				.POST()
+				.body(ImmutableMap.of("data", ImmutableMap.of("total", 42)))
+				.fetch();
+
+		assertThat(response.at("/body/data/total", Long.class)).isEqualTo(42L);
+	}
+
+	/** */
+	@Test
+	void atReturnsNullWhenMissing() throws Exception {
+		assertThat(SNOOP.fetch().at("/nope/nada", String.class)).isNull();
+		assertThat(SNOOP.fetch().at("/method", String.class)).isEqualTo("GET");
+	}
+}
@@ -0,0 +1,49 @@
+package com.voodoodyne.hattery;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.voodoodyne.hattery.HttpRequest.HTTP;
+
+/**
+ */
+class LazyTransportTest {
+
+	/** */
+	@Test
+	void transportIsCreatedOnFirstFetchAndRecreatedAfterClose() throws Exception {
+		final AtomicInteger created = new AtomicInteger();
+		final AtomicInteger closed = new AtomicInteger();
+
+		final LazyTransport lazy = new LazyTransport(() -> {
+			created.incrementAndGet();
+			return new Transport() {
+				@Override
+				public TransportResponse fetch(final HttpRequest request) {
+					return null;
+				}
+
+				@Override
+				public void close() {
+					closed.incrementAndGet();
+				}
+			};
+		});
+
+		lazy.close();
+		assertThat(created.get()).isEqualTo(0);
+		assertThat(closed.get()).isEqualTo(0);
+
+		lazy.fetch(HTTP);
+		lazy.fetch(HTTP);
+		assertThat(created.get()).isEqualTo(1);
+
+		lazy.close();
+		assertThat(closed.get()).isEqualTo(1);
+
+		lazy.fetch(HTTP);
+		assertThat(created.get()).isEqualTo(2);
+	}
+}
@@ -0,0 +1,141 @@
+package com.voodoodyne.hattery;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.voodoodyne.hattery.HttpRequest.HTTP;
+
+/**
+ */
+class LoadBalancingTransportTest {
+
+	/** Records the urls it is asked for, refusing connections to the bad origin */
+	private static class FakeTransport implements Transport {
+		final List<String> urls = Collections.synchronizedList(new ArrayList<>());
+		final String bad;
+
+		FakeTransport(final String bad) {
+			this.bad = bad;
+		}
+
+		@Override
+		public TransportResponse fetch(final HttpRequest request) throws ConnectException {
+			assertThat(request.getRetries()).isEqualTo(0);
+			urls.add(request.toUrlString());
+
+			if (bad != null && request.getUrl().startsWith(bad))
+				throw new ConnectException("Connection refused");
+
+			return new TransportResponse() {
+				@Override
+				public int getResponseCode() {
+					return 200;
+				}
+
+				@Override
+				public InputStream getContentStream() {
+					return new ByteArrayInputStream(getContentBytes());
+				}
+
+				@Override
+				public byte[] getContentBytes() {
+					return new byte[0];
+				}
+
+				@Override
+				public ListMultimap<String, String> getHeaders() {
+					return ArrayListMultimap.create();
+				}
+			};
+		}
+	}
+
+	/** */
+	@Test
+	void requestsAreSpreadAndRewritten() throws Exception {
+		final FakeTransport fake = new FakeTransport(null);
+		final LoadBalancingTransport transport = new LoadBalancingTransport(fake, List.of("http://a:8080", "http://b:8080/"));
+
+		for (int i = 0; i < 100; i++)
+			HTTP.transport(transport).url("https://placeholder/foo").param("bar", "baz").fetch().succeed();
+
+		assertThat(fake.urls).contains("http://a:8080/foo?bar=baz");
+		assertThat(fake.urls).contains("http://b:8080/foo?bar=baz");
+		assertThat(fake.urls).hasSize(100);
+
+		HTTP.transport(transport).url("/relative").fetch().succeed();
+		assertThat(fake.urls.get(100)).endsWith(":8080/relative");
+	}
+
+	/** */
+	@Test
+	void failingReplicaIsRetriedElsewhereAndEjected() throws Exception {
+		final FakeTransport fake = new FakeTransport("http://bad");
+		final LoadBalancingTransport transport = new LoadBalancingTransport(fake, List.of("http://bad", "http://good1", "http://good2"),
+				1, Duration.ofMinutes(1), Duration.ZERO);
+
+		for (int i = 0; i < 50; i++)
+			HTTP.transport(transport).url("http://placeholder/").retries(1).fetch().succeed();
+
+		final LoadBalancingTransport.ReplicaStatus bad = transport.getStatus().get(0);
+		assertThat(bad.getOrigin()).isEqualTo("http://bad");
+		assertThat(bad.isEjected()).isTrue();
+		assertThat(bad.getFailures()).isEqualTo(1);
+		assertThat(bad.getInFlight()).isEqualTo(0);
+	}
+
+	/** Ejections grow longer while a replica keeps failing, and shrink again once it has stayed healthy */
+	@Test
+	void ejectionTimeDecays() throws Exception {
+		final LoadBalancingTransport.Replica replica = new LoadBalancingTransport.Replica("http://flaky");
+
+		replica.eject(0, 100, 0);
+		assertThat(replica.isEjected(99)).isTrue();
+		assertThat(replica.isEjected(100)).isFalse();
+
+		// Failed again as soon as it came back
+		replica.eject(100, 100, 0);
+		assertThat(replica.isEjected(299)).isTrue();
+		assertThat(replica.isEjected(300)).isFalse();
+
+		// Two ejection times in service forgive both, so this is like the first ejection
+		replica.eject(500, 100, 0);
+		assertThat(replica.isEjected(599)).isTrue();
+		assertThat(replica.isEjected(600)).isFalse();
+
+		// Less than one ejection time in service forgives nothing
+		replica.eject(650, 100, 0);
+		assertThat(replica.isEjected(849)).isTrue();
+		assertThat(replica.isEjected(850)).isFalse();
+
+		// A replica which fails every time it comes back is ejected for at most ten ejection times
+		long now = 850;
+		for (int i = 0; i < 20; i++) {
+			replica.eject(now, 100, 0);
+			while (replica.isEjected(now))
+				now += 100;
+		}
+		replica.eject(now, 100, 0);
+		assertThat(replica.isEjected(now + 999)).isTrue();
+		assertThat(replica.isEjected(now + 1000)).isFalse();
+	}
+
+	/** */
+	@Test
+	void pathOf() throws Exception {
+		assertThat(LoadBalancingTransport.pathOf("https://host:443/a/b?c=d")).isEqualTo("/a/b?c=d");
+		assertThat(LoadBalancingTransport.pathOf("https://host?c=d")).isEqualTo("/?c=d");
+		assertThat(LoadBalancingTransport.pathOf("https://host")).isEqualTo("");
+		assertThat(LoadBalancingTransport.pathOf("a/b")).isEqualTo("/a/b");
+	}
+}
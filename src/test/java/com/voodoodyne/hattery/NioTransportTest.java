@@ -0,0 +1,257 @@
+package com.voodoodyne.hattery;
+
+import com.google.common.base.Strings;
+import com.voodoodyne.hattery.test.Snoop;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.voodoodyne.hattery.test.Snoop.SNOOP;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ */
+class NioTransportTest {
+
+	/** */
+	@Test
+	void getsAndPosts() throws Exception {
+		try (final NioTransport transport = new NioTransport()) {
+			final Snoop get = SNOOP.transport(transport).path("/foo").param("a", "b").header("X-Foo", "bar").fetch().as(Snoop.class);
+			assertThat(get.getMethod()).isEqualTo("GET");
+			assertThat(get.getPath()).isEqualTo("/foo");
+			assertThat(get.getQueryParams()).containsEntry("a", "b");
+			assertThat(get.getHeaders()).containsEntry("X-Foo", "bar");
+
+			final Snoop post = SNOOP.transport(transport).POST().body(Map.of("foo", "bar")).fetch().as(Snoop.class);
+			assertThat(post.getContentType()).isEqualTo("application/json");
+			assertThat(post.getBody().toString()).isEqualTo("{\"foo\":\"bar\"}");
+
+			final Snoop form = SNOOP.transport(transport).POST().param("foo", "bar").fetch().as(Snoop.class);
+			assertThat(form.getFormParams()).containsEntry("foo", "bar");
+		}
+	}
+
+	/** Bodies of unknown length go out chunked; big ones spill to a file and are sent from there */
+	@Test
+	void streamsAndFileBodies() throws Exception {
+		try (final NioTransport transport = new NioTransport()) {
+			final Snoop streamed = SNOOP.transport(transport)
+					.POST()
+					.contentType("text/plain")
+					.body(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)))
+					.fetch().as(Snoop.class);
+
+			assertThat(streamed.getHeaders()).containsEntry("Transfer-Encoding", "chunked");
+			assertThat(streamed.getBody().asText()).isEqualTo("hello");
+
+			final String big = Strings.repeat("abcdefgh", (int)(BufferedBody.SPILL_THRESHOLD / 8) + 1000);
+			final Snoop spilled = SNOOP.transport(transport).POST().contentType("text/plain").body(big).fetch().as(Snoop.class);
+			assertThat(spilled.getBody().asText()).isEqualTo(big);
+		}
+	}
+
+	/** */
+	@Test
+	void readsFixedAndChunkedBodies() throws Exception {
+		try (final NioTransport transport = new NioTransport()) {
+			for (final String path : List.of("/bytes/100000", "/chunked/100000", "/bytes/0", "/chunked/0", "/bytes/3000000")) {
+				final byte[] bytes = SNOOP.transport(transport).path(path).fetch().getContentBytes();
+				final int length = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+
+				assertThat(bytes.length).isEqualTo(length);
+				// The server writes the alphabet in 64k pieces
+				for (int i = 0; i < bytes.length; i++)
+					assertThat(bytes[i]).isEqualTo((byte)('a' + (i % (64 * 1024) % 26)));
+			}
+		}
+	}
+
+	/** Something a misbehaving server writes after reading the request */
+	private interface Misbehavior {
+		void write(OutputStream out) throws IOException;
+	}
+
+	/** Answers one request by misbehaving; @return the cause of the IORuntimeException the fetch throws */
+	private static Throwable fetchFrom(final Misbehavior misbehavior) throws Exception {
+		try (final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+			 final NioTransport transport = new NioTransport()) {
+
+			final Thread liar = new Thread(() -> {
+				try (final Socket socket = server.accept()) {
+					socket.getInputStream().read(new byte[8192]);
+					misbehavior.write(socket.getOutputStream());
+				} catch (IOException e) {
+					// The client hung up on us, as it should
+				}
+			});
+			liar.start();
+
+			final IORuntimeException ex = assertThrows(IORuntimeException.class,
+					() -> HttpRequest.HTTP.transport(transport).url("http://127.0.0.1:" + server.getLocalPort()).fetch());
+
+			liar.join();
+			return ex.getCause();
+		}
+	}
+
+	/** A server which claims a huge body and hangs up must not cost a huge array */
+	@Test
+	void distrustsContentLength() throws Exception {
+		final Throwable cause = fetchFrom(out -> out.write("HTTP/1.1 200 OK\r\nContent-Length: 2000000000\r\n\r\nhello".getBytes(StandardCharsets.US_ASCII)));
+		assertThat(cause).isInstanceOf(EOFException.class);
+	}
+
+	/** Nor may a header line that never ends, or headers that never end */
+	@Test
+	void limitsTheResponseHead() throws Exception {
+		final Throwable endlessLine = fetchFrom(out -> {
+			out.write("HTTP/1.1 200 OK\r\nX-Endless: ".getBytes(StandardCharsets.US_ASCII));
+			final byte[] more = Strings.repeat("a", 8192).getBytes(StandardCharsets.US_ASCII);
+			for (int i = 0; i < 1000; i++)
+				out.write(more);
+		});
+		assertThat(endlessLine.getMessage()).contains("larger than");
+
+		final Throwable endlessHeaders = fetchFrom(out -> {
+			out.write("HTTP/1.1 200 OK\r\n".getBytes(StandardCharsets.US_ASCII));
+			for (int i = 0; i < 10_000; i++)
+				out.write(("X-Header-" + i + ": x\r\n").getBytes(StandardCharsets.US_ASCII));
+		});
+		assertThat(endlessHeaders.getMessage()).contains("header lines");
+	}
+
+	/** */
+	@Test
+	void headAndErrors() throws Exception {
+		try (final NioTransport transport = new NioTransport()) {
+			final HttpResponse head = SNOOP.transport(transport).HEAD().path("/bytes/1000").fetch();
+			assertThat(head.getContentBytes()).isEmpty();
+
+			final HttpResponse missing = SNOOP.transport(transport).path("/status/404").fetch();
+			assertThat(missing.getResponseCode()).isEqualTo(404);
+			assertThat(missing.getContentType()).hasValue("text/html; charset=utf-8");
+
+			// The connection was fine for all of that
+			assertThat(SNOOP.transport(transport).fetch().getResponseCode()).isEqualTo(200);
+			assertThat(transport.getConnectionsOpened()).isEqualTo(1);
+		}
+	}
+
+	/** */
+	@Test
+	void rejectsHeadersWhichWouldBreakTheHead() throws Exception {
+		try (final NioTransport transport = new NioTransport()) {
+			assertThrows(IllegalArgumentException.class, () -> SNOOP.transport(transport).header("X-Foo", "bar\r\nX-Injected: true").fetch());
+			assertThrows(IllegalArgumentException.class, () -> SNOOP.transport(transport).header("X-Foo\r\nX-Injected", "true").fetch());
+			assertThrows(IllegalArgumentException.class, () -> SNOOP.transport(transport).header("X-Foo", "\u20ac").fetch());
+
+			final Snoop latin1 = SNOOP.transport(transport).header("X-Foo", "caf\u00e9").fetch().as(Snoop.class);
+			assertThat(latin1.getHeaders()).containsEntry("X-Foo", "caf\u00e9");
+		}
+	}
+
+	/** */
+	@Test
+	void reusesConnections() throws Exception {
+		try (final NioTransport transport = new NioTransport()) {
+			for (int i = 0; i < 10; i++)
+				SNOOP.transport(transport).path("/bytes/1000").fetch().getContentBytes();
+
+			assertThat(transport.getConnectionsOpened()).isEqualTo(1);
+			assertThat(transport.getConnectionsReused()).isEqualTo(9);
+		}
+	}
+
+	/** */
+	@Test
+	void followsRedirects() throws Exception {
+		try (final NioTransport transport = new NioTransport()) {
+			for (final String code : List.of("301", "303", "307")) {
+				final Snoop snoop = SNOOP.transport(transport).path("/" + code).POST().body(Map.of("foo", "bar")).fetch().as(Snoop.class);
+				assertThat(snoop.getPath()).isEqualTo("/destination");
+			}
+
+			final HttpResponse unfollowed = SNOOP.transport(transport).path("/301").followRedirects(false).fetch();
+			assertThat(unfollowed.getResponseCode()).isEqualTo(301);
+		}
+	}
+
+	/** */
+	@Test
+	void credentialsAreNotSentToAnotherOrigin() throws Exception {
+		try (final NioTransport transport = new NioTransport()) {
+			final HttpRequest request = SNOOP.transport(transport).path("/302").header("Authorization", "Bearer secret");
+
+			final Snoop sameOrigin = request.fetch().as(Snoop.class);
+			assertThat(sameOrigin.getHeaders()).containsEntry("Authorization", "Bearer secret");
+
+			final Snoop otherOrigin = request.param("to", RedirectsTest.otherOrigin()).fetch().as(Snoop.class);
+			assertThat(otherOrigin.getHeaders().get("Host")).startsWith("localhost");
+			assertThat(otherOrigin.getHeaders()).doesNotContainKey("Authorization");
+		}
+	}
+
+	/** */
+	@Test
+	void httpsGoesToTheSecureTransport() throws Exception {
+		try (final NioTransport transport = new NioTransport()) {
+			assertThrows(IllegalArgumentException.class, () -> HttpRequest.HTTP.transport(transport).url("https://things").fetch());
+		}
+
+		final InProcessTransport secure = new InProcessTransport().register("https://things", request -> InProcessTransport.respond(200, "secure"));
+		try (final NioTransport transport = new NioTransport(NioTransport.Options.DEFAULT, secure)) {
+			assertThat(HttpRequest.HTTP.transport(transport).url("https://things").fetch().as(String.class)).isEqualTo("secure");
+		}
+	}
+
+	/** */
+	@Test
+	void timesOut() throws Exception {
+		try (final NioTransport transport = new NioTransport()) {
+			assertThrows(IORuntimeException.class, () -> SNOOP.transport(transport).path("/delay/2000").timeout(100).fetch().getContentBytes());
+
+			// The connection that timed out was not reused
+			assertThat(SNOOP.transport(transport).fetch().getResponseCode()).isEqualTo(200);
+		}
+	}
+
+	/** */
+	@Test
+	void enforcesMaxResponseBytes() throws Exception {
+		try (final NioTransport transport = new NioTransport()) {
+			assertThrows(ResponseTooLargeException.class, () -> SNOOP.transport(transport).path("/bytes/10000").maxResponseBytes(1000).fetch());
+			assertThrows(ResponseTooLargeException.class, () -> SNOOP.transport(transport).path("/chunked/10000").maxResponseBytes(1000).fetch());
+			assertThat(SNOOP.transport(transport).path("/bytes/1000").maxResponseBytes(1000).fetch().getContentBytes()).hasLength(1000);
+		}
+	}
+
+	/** */
+	@Test
+	void pipelinesConcurrentRequests() throws Exception {
+		try (final NioTransport pipelining = new NioTransport(NioTransport.Options.DEFAULT.pipelining(true).pipelineDepth(4))) {
+			final List<CompletableFuture<Snoop>> futures = new ArrayList<>();
+			for (int i = 0; i < 40; i++) {
+				final HttpRequest request = SNOOP.transport(pipelining).path("/delay/" + (i % 3) * 10).param("i", Integer.toString(i));
+				futures.add(CompletableFuture.supplyAsync(() -> request.fetch().as(Snoop.class)));
+			}
+
+			for (int i = 0; i < futures.size(); i++)
+				assertThat(futures.get(i).join().getQueryParams()).containsEntry("i", Integer.toString(i));
+
+			assertThat(pipelining.getConnectionsOpened()).isLessThan(40L);
+		}
+	}
+}
@@ -25,6 +25,7 @@ package com.voodoodyne.hattery;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
 import com.voodoodyne.hattery.test.Snoop;
+import com.voodoodyne.hattery.test.SnoopServer;
 import org.junit.jupiter.api.Test;
 
 import static com.google.common.truth.Truth.assertThat;
@@ -47,6 +48,6 @@ class PostflightTest {
 				})
 				.fetch().succeed();
 
-		assertThat(headers).containsEntry("server", "Google Frontend");
+		assertThat(headers).containsEntry("server", SnoopServer.SERVER_NAME);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,148 @@
+package com.voodoodyne.hattery;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.voodoodyne.hattery.HttpRequest.HTTP;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * fetchToFileParallel() against an in-process server which supports (or pretends to support) byte ranges
+ */
+class RangedDownloadTest {
+
+	/** */
+	private static final byte[] CONTENT = new byte[100_000];
+	static {
+		for (int i = 0; i < CONTENT.length; i++)
+			CONTENT[i] = (byte)(i * 31);
+	}
+
+	/** Serves CONTENT, recording the Range headers it gets */
+	private static class RangeServer {
+		final List<String> ranges = new CopyOnWriteArrayList<>();
+		final AtomicInteger gets = new AtomicInteger();
+
+		/** The ETag of the nth GET */
+		IntFunction<String> etag = n -> "\"v1\"";
+
+		/** If false, GETs answer 200 with everything, like a server that ignores Range */
+		boolean honorRanges = true;
+
+		/** Serve this much later in the resource than asked for, saying so in Content-Range */
+		int shift = 0;
+
+		void handle(final HttpExchange exchange) throws IOException {
+			exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+			if (exchange.getRequestMethod().equals("HEAD")) {
+				exchange.getResponseHeaders().set("ETag", etag.apply(0));
+				exchange.getResponseHeaders().set("Content-Length", Integer.toString(CONTENT.length));
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+
+			exchange.getResponseHeaders().set("ETag", etag.apply(gets.incrementAndGet()));
+
+			final String range = exchange.getRequestHeaders().getFirst("Range");
+			byte[] body = CONTENT;
+			int code = 200;
+
+			if (range != null) {
+				ranges.add(range);
+
+				if (honorRanges) {
+					final String[] bounds = range.substring("bytes=".length()).split("-");
+					final int first = Math.min(Integer.parseInt(bounds[0]) + shift, CONTENT.length - 1);
+					final int last = Math.min(Integer.parseInt(bounds[1]) + shift, CONTENT.length - 1);
+					body = Arrays.copyOfRange(CONTENT, first, last + 1);
+					code = 206;
+					exchange.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + last + "/" + CONTENT.length);
+				}
+			}
+
+			exchange.sendResponseHeaders(code, body.length);
+			try (final OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+
+		HttpRequest request() {
+			return HTTP.transport(new InProcessTransport().registerHttpHandler("http://files", this::handle)).url("http://files/big");
+		}
+	}
+
+	/** */
+	@Test
+	void splitsIntoRangesAndReassembles(@TempDir final Path dir) throws Exception {
+		final RangeServer server = new RangeServer();
+		final Path file = dir.resolve("big");
+
+		final HttpResponse probe = server.request().fetchToFileParallel(file, 4);
+
+		assertThat(probe.getResponseCode()).isEqualTo(200);
+		assertThat(server.ranges).containsExactly("bytes=0-24999", "bytes=25000-49999", "bytes=50000-74999", "bytes=75000-99999");
+		assertThat(Files.readAllBytes(file)).isEqualTo(CONTENT);
+	}
+
+	/** */
+	@Test
+	void unevenLengthsGetAShorterLastRange(@TempDir final Path dir) throws Exception {
+		final RangeServer server = new RangeServer();
+		final Path file = dir.resolve("big");
+
+		server.request().fetchToFileParallel(file, 3);
+
+		assertThat(server.ranges).containsExactly("bytes=0-33333", "bytes=33334-66667", "bytes=66668-99999");
+		assertThat(Files.readAllBytes(file)).isEqualTo(CONTENT);
+	}
+
+	/** */
+	@Test
+	void changedEtagAbortsWithoutRetrying(@TempDir final Path dir) throws Exception {
+		final RangeServer server = new RangeServer();
+		server.etag = n -> n == 0 ? "\"v1\"" : "\"v2\"";
+
+		final IORuntimeException ex = assertThrows(IORuntimeException.class, () -> server.request().fetchToFileParallel(dir.resolve("big"), 4));
+
+		assertThat(ex.getMessage()).contains("changed");
+		assertThat(server.gets.get()).isAtMost(4);
+	}
+
+	/** */
+	@Test
+	void serverIgnoringRangesFallsBackToOneFetch(@TempDir final Path dir) throws Exception {
+		final RangeServer server = new RangeServer();
+		server.honorRanges = false;
+		final Path file = dir.resolve("big");
+
+		final HttpResponse response = server.request().fetchToFileParallel(file, 4);
+
+		assertThat(response.getResponseCode()).isEqualTo(200);
+		assertThat(Files.readAllBytes(file)).isEqualTo(CONTENT);
+	}
+
+	/** */
+	@Test
+	void shiftedRangeAbortsWithoutRetrying(@TempDir final Path dir) throws Exception {
+		final RangeServer server = new RangeServer();
+		server.shift = 10;
+
+		final IORuntimeException ex = assertThrows(IORuntimeException.class, () -> server.request().fetchToFileParallel(dir.resolve("big"), 4));
+
+		assertThat(ex.getMessage()).contains("Content-Range");
+		assertThat(server.gets.get()).isAtMost(4);
+	}
+}
@@ -25,7 +25,11 @@ package com.voodoodyne.hattery;
 import com.voodoodyne.hattery.test.Snoop;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+import java.util.Map;
+
 import static com.google.common.truth.Truth.assertThat;
+import static com.voodoodyne.hattery.HttpRequest.HTTP;
 import static com.voodoodyne.hattery.test.Snoop.SNOOP;
 
 /**
@@ -58,4 +62,76 @@ class RedirectsTest {
 		assertThat(response.getResponseCode()).isEqualTo(301);
 		assertThat(response.getHeaders().get("Location").get(0)).isEqualTo("/destination");
 	}
+
+	/** */
+	@Test
+	void redirectsOfPostsWithBodies() throws Exception {
+		for (final Transport transport : List.of(new Java11Transport(), new URLConnectionTransport())) {
+			try (transport) {
+				final HttpRequest post = SNOOP.transport(transport).POST().body(Map.of("foo", "bar"));
+
+				final Snoop seeOther = post.path("/303").fetch().as(Snoop.class);
+				assertThat(seeOther.getPath()).isEqualTo("/destination");
+				assertThat(seeOther.getMethod()).isEqualTo("GET");
+
+				for (final String code : List.of("307", "308")) {
+					final Snoop temporary = post.path("/" + code).fetch().as(Snoop.class);
+					assertThat(temporary.getPath()).isEqualTo("/destination");
+					assertThat(temporary.getMethod()).isEqualTo("POST");
+					assertThat(temporary.getBody().toString()).isEqualTo("{\"foo\":\"bar\"}");
+				}
+			}
+		}
+	}
+
+	/** SNOOP is on 127.0.0.1; the same server as localhost is another origin */
+	static String otherOrigin() {
+		return SNOOP.toUrlString().replace("127.0.0.1", "localhost") + "/destination";
+	}
+
+	/** */
+	@Test
+	void credentialsAreNotSentToAnotherOrigin() throws Exception {
+		final HttpRequest post = SNOOP.transport(new URLConnectionTransport()).POST().body(Map.of("foo", "bar"))
+				.header("Authorization", "Bearer secret")
+				.header("Cookie", "session=secret")
+				.header("X-Other", "kept");
+
+		final Snoop sameOrigin = post.path("/307").fetch().as(Snoop.class);
+		assertThat(sameOrigin.getHeaders()).containsEntry("Authorization", "Bearer secret");
+		assertThat(sameOrigin.getHeaders()).containsEntry("Cookie", "session=secret");
+
+		final Snoop otherOrigin = post.path("/307").param("to", otherOrigin()).fetch().as(Snoop.class);
+		assertThat(otherOrigin.getHeaders().get("Host")).startsWith("localhost");
+		assertThat(otherOrigin.getHeaders()).doesNotContainKey("Authorization");
+		assertThat(otherOrigin.getHeaders()).doesNotContainKey("Cookie");
+		assertThat(otherOrigin.getHeaders()).containsEntry("X-Other", "kept");
+	}
+
+	/** */
+	@Test
+	void redirectsWhichDropTheBodyDropContentHeaders() throws Exception {
+		final HttpRequest post = HTTP.url("http://example.com/a").POST().body(Map.of("foo", "bar"))
+				.header("Content-Language", "en")
+				.header("X-Other", "kept");
+
+		final HttpRequest next = post.redirect(303, "/b");
+		assertThat(next.getMethod()).isEqualTo("GET");
+		assertThat(next.getContentType()).isNull();
+		assertThat(next.getHeaders()).doesNotContainKey("Content-Language");
+		assertThat(next.getHeaders()).containsEntry("X-Other", "kept");
+
+		assertThat(post.redirect(307, "/b").getHeaders()).containsEntry("Content-Language", "en");
+	}
+
+	/** */
+	@Test
+	void httpsIsNotDowngradedToHttp() throws Exception {
+		final HttpRequest request = HTTP.url("https://example.com/a").header("Authorization", "Bearer secret");
+
+		assertThat(request.redirect(302, "http://example.com/b")).isNull();
+		assertThat(request.redirect(302, "https://example.com/b").getHeaders()).containsKey("Authorization");
+		assertThat(request.redirect(302, "https://example.com:8443/b").getHeaders()).doesNotContainKey("Authorization");
+		assertThat(HTTP.url("http://example.com/a").header("Authorization", "x").redirect(302, "http://example.com:80/b").getHeaders()).containsKey("Authorization");
+	}
 }
\ No newline at end of file
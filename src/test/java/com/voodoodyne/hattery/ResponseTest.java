@@ -23,14 +23,22 @@
 package com.voodoodyne.hattery;
 
 import com.google.common.io.ByteStreams;
+import com.voodoodyne.hattery.test.SnoopServer;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.truth.Truth.assertThat;
-import static com.voodoodyne.hattery.HttpRequest.HTTP;
 import static com.voodoodyne.hattery.test.Snoop.SNOOP;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -44,7 +52,7 @@ class ResponseTest {
 	void getHeaders() throws Exception {
 		final HttpResponse response = SNOOP.fetch().succeed();
 
-		assertThat(response.getHeaders()).containsEntry("Server", "Google Frontend");
+		assertThat(response.getHeaders()).containsEntry("Server", SnoopServer.SERVER_NAME);
 	}
 
 	/** */
@@ -52,7 +60,7 @@ class ResponseTest {
 	void headersAreCaseInsensitive() throws Exception {
 		final HttpResponse response = SNOOP.fetch().succeed();
 
-		assertThat(response.getHeaders().get("server")).containsExactly("Google Frontend");
+		assertThat(response.getHeaders().get("server")).containsExactly(SnoopServer.SERVER_NAME);
 	}
 
 	/** */
@@ -65,7 +73,7 @@ class ResponseTest {
 	/** */
 	@Test
 	void getContentBytesForError() throws Exception {
-		final HttpResponse response = HTTP.url("https://www.google.com/doesnotexist").fetch();
+		final HttpResponse response = SNOOP.path("/status/404").fetch();
 		assertThat(new String(response.getContentBytes(), StandardCharsets.UTF_8)).startsWith("<!DOCTYPE html>");
 	}
 
@@ -79,7 +87,7 @@ class ResponseTest {
 	/** */
 	@Test
 	void getContentStringForError() throws Exception {
-		final HttpResponse response = HTTP.url("https://www.google.com/doesnotexist").fetch();
+		final HttpResponse response = SNOOP.path("/status/404").fetch();
 		assertThat(response.getContentString()).startsWith("<!DOCTYPE html>");
 	}
 
@@ -108,11 +116,144 @@ class ResponseTest {
 	@Test
 	void succeedCanBeUnsuccessful() throws Exception {
 		try {
-			HTTP.url("https://www.google.com/doesnotexist").fetch().succeed();
+			SNOOP.path("/status/404").fetch().succeed();
 			fail();
 		} catch (final HttpException e) {
 			assertThat(e.getCode()).isEqualTo(404);
 			assertThat(e.getMessage()).startsWith("404: <!DOCTYPE html>");
 		}
 	}
+
+	/** */
+	@Test
+	void fetchToFile(@TempDir final Path dir) throws Exception {
+		final Path file = dir.resolve("snoop.json");
+		SNOOP.fetchToFile(file);
+		assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).startsWith("{\"body\":");
+	}
+
+	/** */
+	@Test
+	void fetchToFileDoesNotWriteErrors(@TempDir final Path dir) throws Exception {
+		final Path file = dir.resolve("error.html");
+		final HttpException e = assertThrows(HttpException.class, () -> SNOOP.path("/status/404").fetchToFile(file));
+		assertThat(e.getCode()).isEqualTo(404);
+		assertThat(Files.exists(file)).isFalse();
+	}
+
+	/** */
+	@Test
+	void closingUnreadResponseDrainsSmallBodies() throws Exception {
+		final URLConnectionTransport transport = new URLConnectionTransport();
+		SNOOP.transport(transport).fetch().close();
+		assertThat(transport.getReusableCount()).isEqualTo(1);
+		assertThat(transport.getDisconnectedCount()).isEqualTo(0);
+	}
+
+	/** */
+	@Test
+	void closingUnreadResponseDisconnectsLargeBodies() throws Exception {
+		final URLConnectionTransport transport = new URLConnectionTransport(0);
+		try (final HttpResponse response = SNOOP.transport(transport).fetch()) {
+			assertThat(response.getResponseCode()).isEqualTo(200);
+		}
+		assertThat(transport.getReusableCount()).isEqualTo(0);
+		assertThat(transport.getDisconnectedCount()).isEqualTo(1);
+	}
+
+	/** */
+	@Test
+	void closingAStreamTheCallerAlreadyClosedDoesNotDisconnect() throws Exception {
+		final URLConnectionTransport transport = new URLConnectionTransport(0);
+		try (final HttpResponse response = SNOOP.transport(transport).fetch()) {
+			response.getContentStream().close();
+		}
+		assertThat(transport.getDisconnectedCount()).isEqualTo(0);
+	}
+
+	/** */
+	@Test
+	void oversizedResponsesAreRejected() throws Exception {
+		final ResponseTooLargeException e = assertThrows(ResponseTooLargeException.class, () -> SNOOP.maxResponseBytes(10).fetch().getContentBytes());
+		assertThat(e.getLimit()).isEqualTo(10);
+	}
+
+	/** */
+	@Test
+	void oversizedResponsesAreRejectedByURLConnectionTransport() throws Exception {
+		final HttpRequest request = SNOOP.transport(new URLConnectionTransport()).maxResponseBytes(10);
+		assertThrows(ResponseTooLargeException.class, () -> request.fetch().getContentBytes());
+	}
+
+	/** */
+	@Test
+	void responsesWithinTheLimitAreRead() throws Exception {
+		final byte[] content = SNOOP.maxResponseBytes(1024 * 1024).fetch().asBytes();
+		assertThat(content.length).isGreaterThan(0);
+	}
+
+	/** Past the preallocation limit, both transports grow the array and still get every byte */
+	@Test
+	void bodiesBiggerThanThePreallocationAreRead() throws Exception {
+		final int length = 3 * HttpRequest.MAX_PREALLOCATE + 100;
+		final byte[] expected = new byte[length];
+		for (int i = 0; i < length; i++)
+			expected[i] = (byte)('a' + (i % (64 * 1024) % 26));
+
+		assertThat(SNOOP.path("/bytes/" + length).fetch().getContentBytes()).isEqualTo(expected);
+
+		try (final URLConnectionTransport transport = new URLConnectionTransport()) {
+			assertThat(SNOOP.transport(transport).path("/bytes/" + length).fetch().getContentBytes()).isEqualTo(expected);
+		}
+	}
+
+	/** Collects everything a publisher emits, requesting one buffer at a time */
+	private static CompletableFuture<byte[]> collect(final Flow.Publisher<ByteBuffer> publisher) {
+		final CompletableFuture<byte[]> result = new CompletableFuture<>();
+		final ByteArrayOutputStream collected = new ByteArrayOutputStream();
+
+		publisher.subscribe(new Flow.Subscriber<ByteBuffer>() {
+			private Flow.Subscription subscription;
+
+			@Override
+			public void onSubscribe(final Flow.Subscription subscription) {
+				this.subscription = subscription;
+				subscription.request(1);
+			}
+
+			@Override
+			public void onNext(final ByteBuffer item) {
+				final byte[] bytes = new byte[item.remaining()];
+				item.get(bytes);
+				collected.write(bytes, 0, bytes.length);
+				subscription.request(1);
+			}
+
+			@Override
+			public void onError(final Throwable throwable) {
+				result.completeExceptionally(throwable);
+			}
+
+			@Override
+			public void onComplete() {
+				result.complete(collected.toByteArray());
+			}
+		});
+
+		return result;
+	}
+
+	/** */
+	@Test
+	void asPublisherWhenStreaming() throws Exception {
+		final byte[] content = collect(SNOOP.fetchStreaming().asPublisher()).get(30, TimeUnit.SECONDS);
+		assertThat(new String(content, StandardCharsets.UTF_8)).startsWith("{\"body\":");
+	}
+
+	/** */
+	@Test
+	void asPublisherAfterNormalFetch() throws Exception {
+		final byte[] content = collect(SNOOP.transport(new URLConnectionTransport()).fetch().asPublisher()).get(30, TimeUnit.SECONDS);
+		assertThat(new String(content, StandardCharsets.UTF_8)).startsWith("{\"body\":");
+	}
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+package com.voodoodyne.hattery;
+
+import com.google.common.io.ByteStreams;
+import com.voodoodyne.hattery.test.Snoop;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.voodoodyne.hattery.test.Snoop.SNOOP;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks the special endpoints of the local snoop server, through both transports
+ */
+class SnoopServerTest {
+
+	/** */
+	private static final List<Transport> TRANSPORTS = List.of(new Java11Transport(), new URLConnectionTransport());
+
+	/** */
+	@Test
+	void largeBodiesWithAndWithoutContentLength() throws Exception {
+		for (final Transport transport : TRANSPORTS) {
+			final byte[] sized = SNOOP.transport(transport).path("/bytes/1000000").fetch().succeed().asBytes();
+			assertThat(sized.length).isEqualTo(1000000);
+			assertThat(sized[27]).isEqualTo((byte)'b');
+
+			final byte[] chunked = SNOOP.transport(transport).path("/chunked/1000000").fetch().succeed().asBytes();
+			assertThat(chunked).isEqualTo(sized);
+		}
+	}
+
+	/** */
+	@Test
+	void gzippedEcho() throws Exception {
+		for (final Transport transport : TRANSPORTS) {
+			final HttpResponse response = SNOOP.transport(transport).path("/gzip").param("foo", "bar").fetch().succeed();
+			assertThat(response.getHeaders().get("Content-Encoding")).containsExactly("gzip");
+
+			final byte[] json = ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(response.asBytes())));
+			final Snoop snoop = SNOOP.getMapper().readValue(json, Snoop.class);
+			assertThat(snoop.getQueryParams()).containsEntry("foo", "bar");
+		}
+	}
+
+	/** */
+	@Test
+	void delayCanTimeOut() throws Exception {
+		for (final Transport transport : TRANSPORTS) {
+			assertThat(SNOOP.transport(transport).path("/delay/10").timeout(5000).fetch().as(Snoop.class).getPath()).isEqualTo("/delay/10");
+			assertThrows(IORuntimeException.class, () -> SNOOP.transport(transport).path("/delay/2000").timeout(200).fetch().succeed());
+		}
+	}
+
+	/** */
+	@Test
+	void statusCodes() throws Exception {
+		for (final Transport transport : TRANSPORTS) {
+			final HttpException e = assertThrows(HttpException.class, () -> SNOOP.transport(transport).path("/status/503").fetch().succeed());
+			assertThat(e.getCode()).isEqualTo(503);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package com.voodoodyne.hattery;
+
+import com.voodoodyne.hattery.test.Snoop;
+import com.voodoodyne.hattery.test.SnoopServer;
+import com.voodoodyne.hattery.test.SocketProxy;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.voodoodyne.hattery.HttpRequest.HTTP;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Talks to the SnoopServer through a proxy on a unix socket. Does nothing on JVMs without unix sockets.
+ */
+class UnixSocketTransportTest {
+
+	/** */
+	@Test
+	void unixUrls() throws Exception {
+		assumeTrue(UnixSocketTransport.isSupported());
+
+		try (final SocketProxy proxy = SocketProxy.unix(SnoopServer.shared().getAddress());
+			 final UnixSocketTransport transport = new UnixSocketTransport()) {
+
+			final HttpRequest base = HTTP.transport(transport).url(UnixSocketTransport.url(proxy.getSocket(), "/foo"));
+
+			final Snoop get = base.path("/bar").param("a", "b").fetch().as(Snoop.class);
+			assertThat(get.getPath()).isEqualTo("/foo/bar");
+			assertThat(get.getQueryParams()).containsEntry("a", "b");
+			assertThat(get.getHeaders()).containsEntry("Host", "localhost");
+
+			final Snoop post = base.POST().body(Map.of("foo", "bar")).fetch().as(Snoop.class);
+			assertThat(post.getBody().toString()).isEqualTo("{\"foo\":\"bar\"}");
+
+			assertThat(transport.getConnectionsOpened()).isEqualTo(1);
+			assertThat(transport.getConnectionsReused()).isEqualTo(1);
+		}
+	}
+
+	/** */
+	@Test
+	void httpUrlsGoToTheSocket() throws Exception {
+		assumeTrue(UnixSocketTransport.isSupported());
+
+		try (final SocketProxy proxy = SocketProxy.unix(SnoopServer.shared().getAddress());
+			 final UnixSocketTransport transport = new UnixSocketTransport(proxy.getSocket())) {
+
+			final Snoop snoop = HTTP.transport(transport).url("http://docker/containers/json").fetch().as(Snoop.class);
+			assertThat(snoop.getPath()).isEqualTo("/containers/json");
+			assertThat(snoop.getHeaders()).containsEntry("Host", "docker");
+		}
+	}
+
+	/** A relative Location stays on the socket */
+	@Test
+	void followsRedirects() throws Exception {
+		assumeTrue(UnixSocketTransport.isSupported());
+
+		try (final SocketProxy proxy = SocketProxy.unix(SnoopServer.shared().getAddress());
+			 final UnixSocketTransport transport = new UnixSocketTransport()) {
+
+			final HttpResponse response = HTTP.transport(transport).url(UnixSocketTransport.url(proxy.getSocket(), "/302")).fetch();
+			assertThat(response.getResponseCode()).isEqualTo(200);
+			assertThat(response.as(Snoop.class).getPath()).isEqualTo("/destination");
+		}
+	}
+
+	/** The socket is the origin: credentials follow a redirect on the same socket, but not to another */
+	@Test
+	void credentialsStayOnTheSocket() throws Exception {
+		assumeTrue(UnixSocketTransport.isSupported());
+
+		try (final SocketProxy proxy = SocketProxy.unix(SnoopServer.shared().getAddress());
+			 final SocketProxy other = SocketProxy.unix(SnoopServer.shared().getAddress());
+			 final UnixSocketTransport transport = new UnixSocketTransport()) {
+
+			final HttpRequest request = HTTP.transport(transport).url(UnixSocketTransport.url(proxy.getSocket(), "/302"))
+					.header("Authorization", "Bearer secret");
+
+			final Snoop sameSocket = request.fetch().as(Snoop.class);
+			assertThat(sameSocket.getHeaders()).containsEntry("Authorization", "Bearer secret");
+
+			final Snoop otherSocket = request.param("to", UnixSocketTransport.url(other.getSocket(), "/destination")).fetch().as(Snoop.class);
+			assertThat(otherSocket.getPath()).isEqualTo("/destination");
+			assertThat(otherSocket.getHeaders()).doesNotContainKey("Authorization");
+		}
+	}
+}
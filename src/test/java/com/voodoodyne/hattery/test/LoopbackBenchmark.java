@@ -0,0 +1,127 @@
+package com.voodoodyne.hattery.test;
+
+import com.voodoodyne.hattery.HttpRequest;
+import com.voodoodyne.hattery.Java11Transport;
+import com.voodoodyne.hattery.NioTransport;
+import com.voodoodyne.hattery.Transport;
+import com.voodoodyne.hattery.URLConnectionTransport;
+import com.voodoodyne.hattery.UnixSocketTransport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * <p>Compares the transports against a SnoopServer on loopback. Not a test; run it by hand:</p>
+ *
+ * <pre>java -cp ... com.voodoodyne.hattery.test.LoopbackBenchmark [requests] [threads] [path]</pre>
+ *
+ * <p>Each transport is warmed up first, then timed sequentially (latency) and from several threads
+ * (throughput). On Java 16+ a second table compares TCP loopback with a unix socket, each through the same
+ * kind of relay in front of the server. Numbers from loopback only show the client's own overhead; don't read them as network
+ * latency.</p>
+ */
+public class LoopbackBenchmark {
+
+	/** */
+	public static void main(final String[] args) throws Exception {
+		final int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+		final int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		final String path = args.length > 2 ? args[2] : "/bytes/100";
+
+		final Map<String, Supplier<Transport>> transports = new LinkedHashMap<>();
+		transports.put("Java11Transport", Java11Transport::new);
+		transports.put("URLConnectionTransport", URLConnectionTransport::new);
+		transports.put("NioTransport", NioTransport::new);
+		transports.put("NioTransport (pipelining)", () -> new NioTransport(NioTransport.Options.DEFAULT.pipelining(true)));
+
+		// Otherwise the JDK server's small writes wait out delayed ACKs and every transport measures ~40ms
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+
+		try (final SnoopServer server = new SnoopServer()) {
+			System.out.printf("%d requests of %s, %d threads%n%n", requests, path, threads);
+			header(threads);
+
+			for (final Map.Entry<String, Supplier<Transport>> entry : transports.entrySet()) {
+				try (final Transport transport = entry.getValue().get()) {
+					run(entry.getKey(), HttpRequest.HTTP.transport(transport).url(server.getUrl()).path(path), requests, threads);
+				}
+			}
+
+			// Sidecar traffic: the same relay in front of the server, listening on TCP or on a unix socket
+			if (UnixSocketTransport.isSupported()) {
+				System.out.printf("%nThrough a relay on TCP loopback vs a unix socket%n%n");
+				header(threads);
+
+				try (final SocketProxy tcp = SocketProxy.tcp(server.getAddress());
+					 final SocketProxy unix = SocketProxy.unix(server.getAddress())) {
+
+					try (final Transport transport = new Java11Transport()) {
+						run("Java11Transport (tcp)", HttpRequest.HTTP.transport(transport).url(tcp.getUrl()).path(path), requests, threads);
+					}
+					try (final Transport transport = new NioTransport()) {
+						run("NioTransport (tcp)", HttpRequest.HTTP.transport(transport).url(tcp.getUrl()).path(path), requests, threads);
+					}
+					try (final Transport transport = new UnixSocketTransport(unix.getSocket(), threads)) {
+						run("UnixSocketTransport", HttpRequest.HTTP.transport(transport).url("http://localhost").path(path), requests, threads);
+					}
+				}
+			}
+		}
+	}
+
+	/** */
+	private static void header(final int threads) {
+		System.out.printf("%-28s %10s %10s %10s %14s%n", "", "p50 us", "p99 us", "mean us", "req/s (" + threads + "t)");
+	}
+
+	/** Warm up, then time sequential and concurrent requests and print a row */
+	private static void run(final String name, final HttpRequest request, final int requests, final int threads) throws Exception {
+		sequential(request, requests / 4);
+		final long[] latencies = sequential(request, requests);
+		final double throughput = concurrent(request, requests, threads);
+
+		Arrays.sort(latencies);
+		System.out.printf("%-28s %10.1f %10.1f %10.1f %14.0f%n", name,
+				latencies[latencies.length / 2] / 1000.0,
+				latencies[(int)(latencies.length * 0.99)] / 1000.0,
+				Arrays.stream(latencies).average().orElse(0) / 1000.0,
+				throughput);
+	}
+
+	/** @return the nanos taken by each request */
+	private static long[] sequential(final HttpRequest request, final int count) {
+		final long[] latencies = new long[count];
+		for (int i = 0; i < count; i++) {
+			final long start = System.nanoTime();
+			request.fetch().getContentBytes();
+			latencies[i] = System.nanoTime() - start;
+		}
+		return latencies;
+	}
+
+	/** @return requests per second */
+	private static double concurrent(final HttpRequest request, final int count, final int threads) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final long start = System.nanoTime();
+
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < threads; t++)
+				futures.add(executor.submit(() -> sequential(request, count / threads)));
+
+			for (final Future<?> future : futures)
+				future.get();
+
+			return (count / threads) * threads / ((System.nanoTime() - start) / 1e9);
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
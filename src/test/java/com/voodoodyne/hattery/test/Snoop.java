@@ -38,8 +38,11 @@ import java.util.Map;
 @Value
 public class Snoop {
 
-	/** */
-	public static HttpRequest SNOOP = HttpRequest.HTTP.url("https://hattery-snoop.appspot.com");
+	/**
+	 * Points at an in-JVM SnoopServer, so tests run offline. Set the system property {@code snoop.url}
+	 * (ie, to https://hattery-snoop.appspot.com) to test against a real snoop service instead.
+	 */
+	public static HttpRequest SNOOP = HttpRequest.HTTP.url(System.getProperty("snoop.url", SnoopServer.shared().getUrl()));
 
 	 String url;
 	 String method;
@@ -0,0 +1,279 @@
+package com.voodoodyne.hattery.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>An in-JVM version of the snoop service, listening on loopback. Any path echoes the request back as
+ * {@link Snoop} json, except for a few which exercise particular behavior:</p>
+ *
+ * <ul>
+ *     <li>{@code /301}, {@code /302}, {@code /303}, {@code /307}, {@code /308} redirect to {@code /destination}</li>
+ *     <li>{@code /delay/{millis}} echoes after sleeping</li>
+ *     <li>{@code /bytes/{n}} returns n bytes with a Content-Length</li>
+ *     <li>{@code /chunked/{n}} returns n bytes with chunked transfer encoding</li>
+ *     <li>{@code /gzip} echoes, gzipped, with {@code Content-Encoding: gzip}</li>
+ *     <li>{@code /status/{code}} returns that code with a small html page</li>
+ *     <li>{@code /mirror} returns the request body as-is, with the request's Content-Type</li>
+ * </ul>
+ *
+ * <p>Tests use a shared instance through {@link Snoop#SNOOP}; benchmarks can start their own.</p>
+ */
+public class SnoopServer implements AutoCloseable {
+
+	/** Sent as the Server header */
+	public static final String SERVER_NAME = "Hattery Snoop";
+
+	private static final Pattern REDIRECT = Pattern.compile("/(301|302|303|307|308)");
+	private static final Pattern DELAY = Pattern.compile("/delay/(\\d+)");
+	private static final Pattern BYTES = Pattern.compile("/bytes/(\\d+)");
+	private static final Pattern CHUNKED = Pattern.compile("/chunked/(\\d+)");
+	private static final Pattern STATUS = Pattern.compile("/status/(\\d{3})");
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/** */
+	private static SnoopServer shared;
+
+	/** The instance shared by the whole test run; started on first use and never stopped */
+	public static synchronized SnoopServer shared() {
+		if (shared == null)
+			shared = new SnoopServer();
+
+		return shared;
+	}
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	/** Starts a server on an ephemeral loopback port */
+	public SnoopServer() {
+		try {
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		executor = Executors.newCachedThreadPool(runnable -> {
+			final Thread thread = new Thread(runnable, "snoop-server");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	/** @return like {@code http://127.0.0.1:12345}, without a trailing slash */
+	public String getUrl() {
+		return "http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort();
+	}
+
+	/** The loopback address and port the server listens on */
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	/** */
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/** */
+	private void handle(final HttpExchange exchange) throws IOException {
+		try {
+			final byte[] body = ByteStreams.toByteArray(exchange.getRequestBody());
+			final String path = exchange.getRequestURI().getPath();
+			exchange.getResponseHeaders().set("Server", SERVER_NAME);
+
+			Matcher matcher;
+			if ((matcher = REDIRECT.matcher(path)).matches()) {
+				// ?to= redirects somewhere else, ie to another origin
+				final List<String> to = parse(exchange.getRequestURI().getRawQuery() == null ? "" : exchange.getRequestURI().getRawQuery()).get("to");
+				exchange.getResponseHeaders().set("Location", to == null ? "/destination" : to.get(0));
+				exchange.sendResponseHeaders(Integer.parseInt(matcher.group(1)), -1);
+			}
+			else if ((matcher = DELAY.matcher(path)).matches()) {
+				try {
+					Thread.sleep(Long.parseLong(matcher.group(1)));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				send(exchange, 200, "application/json", echo(exchange, body), false);
+			}
+			else if ((matcher = BYTES.matcher(path)).matches()) {
+				sendBytes(exchange, Long.parseLong(matcher.group(1)), false);
+			}
+			else if ((matcher = CHUNKED.matcher(path)).matches()) {
+				sendBytes(exchange, Long.parseLong(matcher.group(1)), true);
+			}
+			else if (path.equals("/gzip")) {
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				exchange.getResponseHeaders().set("Content-Type", "application/json");
+				exchange.sendResponseHeaders(200, 0);
+				try (final OutputStream out = new GZIPOutputStream(exchange.getResponseBody())) {
+					out.write(echo(exchange, body));
+				}
+			}
+			else if ((matcher = STATUS.matcher(path)).matches()) {
+				final int code = Integer.parseInt(matcher.group(1));
+				final String html = "<!DOCTYPE html>\n<html><body><h1>" + code + "</h1></body></html>\n";
+				send(exchange, code, "text/html; charset=utf-8", html.getBytes(StandardCharsets.UTF_8), false);
+			}
+			else if (path.equals("/mirror")) {
+				final String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+				send(exchange, 200, contentType == null ? "application/octet-stream" : contentType, body, false);
+			}
+			else {
+				send(exchange, 200, "application/json", echo(exchange, body), false);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/** */
+	private void send(final HttpExchange exchange, final int code, final String contentType, final byte[] content, final boolean chunked) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			exchange.sendResponseHeaders(code, -1);
+			return;
+		}
+
+		exchange.sendResponseHeaders(code, chunked ? 0 : content.length);
+		exchange.getResponseBody().write(content);
+	}
+
+	/** A repeating alphabet, so that large bodies are easy to check */
+	private void sendBytes(final HttpExchange exchange, final long length, final boolean chunked) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			exchange.getResponseHeaders().set("Content-Length", Long.toString(length));
+			exchange.sendResponseHeaders(200, -1);
+			return;
+		}
+
+		exchange.sendResponseHeaders(200, chunked ? 0 : (length == 0 ? -1 : length));
+
+		final byte[] chunk = new byte[64 * 1024];
+		for (int i = 0; i < chunk.length; i++)
+			chunk[i] = (byte)('a' + (i % 26));
+
+		final OutputStream out = exchange.getResponseBody();
+		for (long remaining = length; remaining > 0; ) {
+			final int n = (int)Math.min(remaining, chunk.length);
+			out.write(chunk, 0, n);
+			remaining -= n;
+		}
+	}
+
+	/** The snoop json; body comes first, just like the real thing */
+	private byte[] echo(final HttpExchange exchange, final byte[] body) throws IOException {
+		final String query = exchange.getRequestURI().getRawQuery() == null ? "" : exchange.getRequestURI().getRawQuery();
+		final String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+		final String text = new String(body, StandardCharsets.UTF_8);
+
+		final Map<String, List<String>> formParams = (contentType != null && contentType.startsWith("application/x-www-form-urlencoded"))
+				? parse(text)
+				: new LinkedHashMap<>();
+
+		final Map<String, Object> snoop = new LinkedHashMap<>();
+		snoop.put("body", bodyNode(contentType, body, text));
+		snoop.put("url", getUrl() + exchange.getRequestURI());
+		snoop.put("method", exchange.getRequestMethod());
+		snoop.put("path", exchange.getRequestURI().getPath());
+		snoop.put("query", query);
+		snoop.put("queryParams", first(parse(query)));
+		snoop.put("queryParamsAll", parse(query));
+		snoop.put("formParams", first(formParams));
+		snoop.put("formParamsAll", formParams);
+		snoop.put("headers", headers(exchange));
+
+		return MAPPER.writeValueAsBytes(snoop);
+	}
+
+	/** Json bodies are echoed as json, anything else as a string */
+	private JsonNode bodyNode(final String contentType, final byte[] body, final String text) {
+		if (body.length == 0)
+			return NullNode.getInstance();
+
+		if (contentType != null && contentType.contains("json")) {
+			try {
+				return MAPPER.readTree(body);
+			} catch (IOException e) {
+				// fall through to text
+			}
+		}
+
+		return TextNode.valueOf(text);
+	}
+
+	/** The JDK server normalizes header names to "Content-type"; put them back to "Content-Type" */
+	private Map<String, String> headers(final HttpExchange exchange) {
+		final Map<String, String> headers = new LinkedHashMap<>();
+		exchange.getRequestHeaders().forEach((name, values) -> headers.put(canonical(name), String.join(", ", values)));
+		return headers;
+	}
+
+	/** */
+	private static String canonical(final String name) {
+		final StringBuilder builder = new StringBuilder(name.length());
+		boolean upper = true;
+		for (final char c : name.toCharArray()) {
+			builder.append(upper ? Character.toUpperCase(c) : Character.toLowerCase(c));
+			upper = (c == '-');
+		}
+		return builder.toString();
+	}
+
+	/** Parse urlencoded params, keeping every value */
+	private static Map<String, List<String>> parse(final String encoded) {
+		final Map<String, List<String>> params = new LinkedHashMap<>();
+		if (encoded.isEmpty())
+			return params;
+
+		for (final String pair : encoded.split("&")) {
+			final int eq = pair.indexOf('=');
+			final String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+			final String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+			params.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+		}
+
+		return params;
+	}
+
+	/** */
+	private static Map<String, String> first(final Map<String, List<String>> params) {
+		final Map<String, String> first = new LinkedHashMap<>();
+		params.forEach((name, values) -> first.put(name, values.get(0)));
+		return first;
+	}
+}
@@ -0,0 +1,135 @@
+package com.voodoodyne.hattery.test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * <p>Relays connections on a unix domain socket (or a TCP port) to a TCP server, so that the SnoopServer can be
+ * reached over a unix socket. The JDK classes for unix sockets are found by reflection, since the tests compile
+ * for Java 11; {@link #unix(InetSocketAddress)} throws if they aren't there.</p>
+ */
+public class SocketProxy implements AutoCloseable {
+
+	private final ServerSocketChannel listener;
+	private final SocketAddress target;
+
+	/** The socket file, or null for TCP */
+	private final Path socket;
+
+	/** Listens on a new socket file in a temp directory */
+	public static SocketProxy unix(final InetSocketAddress target) {
+		try {
+			final Path socket = Files.createTempDirectory("hattery").resolve("snoop.sock");
+			final ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+			final ServerSocketChannel listener = (ServerSocketChannel)ServerSocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+			listener.bind((SocketAddress)Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class).invoke(null, socket));
+			return new SocketProxy(listener, target, socket);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (ReflectiveOperationException | IllegalArgumentException e) {
+			throw new UnsupportedOperationException("Unix domain sockets require Java 16+", e);
+		}
+	}
+
+	/** Listens on an ephemeral loopback port */
+	public static SocketProxy tcp(final InetSocketAddress target) {
+		try {
+			final ServerSocketChannel listener = ServerSocketChannel.open();
+			listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			return new SocketProxy(listener, target, null);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/** */
+	private SocketProxy(final ServerSocketChannel listener, final SocketAddress target, final Path socket) {
+		this.listener = listener;
+		this.target = target;
+		this.socket = socket;
+		daemon(this::accept, "proxy-accept");
+	}
+
+	/** @return the socket file, for unix proxies */
+	public Path getSocket() {
+		return socket;
+	}
+
+	/** @return like {@code http://127.0.0.1:12345}, for TCP proxies */
+	public String getUrl() throws IOException {
+		final InetSocketAddress address = (InetSocketAddress)listener.getLocalAddress();
+		return "http://" + address.getAddress().getHostAddress() + ":" + address.getPort();
+	}
+
+	/** */
+	@Override
+	public void close() throws IOException {
+		listener.close();
+		if (socket != null) {
+			Files.deleteIfExists(socket);
+			Files.deleteIfExists(socket.getParent());
+		}
+	}
+
+	/** */
+	private void accept() {
+		try {
+			while (true) {
+				final SocketChannel client = listener.accept();
+				if (socket == null)
+					client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+				final SocketChannel server = SocketChannel.open(target);
+				server.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+				daemon(() -> relay(client, server), "proxy-up");
+				daemon(() -> relay(server, client), "proxy-down");
+			}
+		} catch (ClosedChannelException e) {
+			// closed
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/** Copy until either side closes, then close both */
+	private static void relay(final SocketChannel from, final SocketChannel to) {
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+		try {
+			while (from.read(buffer) >= 0) {
+				buffer.flip();
+				while (buffer.hasRemaining())
+					to.write(buffer);
+				buffer.clear();
+			}
+		} catch (IOException e) {
+			// one side went away
+		} finally {
+			try {
+				from.close();
+				to.close();
+			} catch (IOException e) {
+				// already closing
+			}
+		}
+	}
+
+	/** */
+	private static void daemon(final Runnable runnable, final String name) {
+		final Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+}
@@ -0,0 +1,51 @@
+package com.voodoodyne.hattery.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ */
+class CaptureOutputStreamTest {
+
+	private static void write(final CaptureOutputStream capture, final String value) {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		capture.write(bytes, 0, bytes.length);
+	}
+
+	/** */
+	@Test
+	void smallBodiesAreKeptWhole() {
+		final CaptureOutputStream capture = new CaptureOutputStream(4);
+		write(capture, "abcdefg");
+
+		assertThat(capture.toString()).isEqualTo("abcdefg");
+		assertThat(capture.getCount()).isEqualTo(7);
+		assertThat(capture.getDropped()).isEqualTo(0);
+	}
+
+	/** */
+	@Test
+	void middleOfLargeBodiesIsDropped() {
+		final CaptureOutputStream capture = new CaptureOutputStream(4);
+		write(capture, "abcdefg");
+		write(capture, "hijklmnop");
+		capture.write('q');
+
+		assertThat(capture.toString()).isEqualTo("abcd…[9 bytes omitted]…nopq");
+		assertThat(capture.getCount()).isEqualTo(17);
+		assertThat(capture.getDropped()).isEqualTo(9);
+	}
+
+	/** */
+	@Test
+	void singleByteWritesWrapAround() {
+		final CaptureOutputStream capture = new CaptureOutputStream(3);
+		for (final char ch : "abcdefghij".toCharArray())
+			capture.write(ch);
+
+		assertThat(capture.toString()).isEqualTo("abc…[4 bytes omitted]…hij");
+	}
+}
@@ -0,0 +1,59 @@
+package com.voodoodyne.hattery.util;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ */
+class CaseInsensitiveMultimapViewTest {
+
+	/** Looks like HttpURLConnection.getHeaderFields() */
+	private static Map<String, List<String>> connectionHeaders() {
+		final Map<String, List<String>> map = new HashMap<>();
+		map.put(null, ImmutableList.of("HTTP/1.1 200 OK"));
+		map.put("Content-Type", ImmutableList.of("text/plain"));
+		map.put("Set-Cookie", Arrays.asList("a=1", "b=2"));
+		return map;
+	}
+
+	/** */
+	@Test
+	void lookupsIgnoreCase() {
+		final CaseInsensitiveMultimapView<String> view = new CaseInsensitiveMultimapView<>(connectionHeaders(), false);
+
+		assertThat(view.get("Content-Type")).containsExactly("text/plain");
+		assertThat(view.get("content-type")).containsExactly("text/plain");
+		assertThat(view.containsEntry("SET-COOKIE", "b=2")).isTrue();
+		assertThat(view.get("missing")).isEmpty();
+	}
+
+	/** */
+	@Test
+	void nullKeyIsHidden() {
+		final CaseInsensitiveMultimapView<String> view = new CaseInsensitiveMultimapView<>(connectionHeaders(), false);
+
+		assertThat(view.keySet()).containsExactly("Content-Type", "Set-Cookie");
+		assertThat(view.size()).isEqualTo(3);
+		assertThat(view.entries()).hasSize(3);
+		assertThat(view.values()).doesNotContain("HTTP/1.1 200 OK");
+	}
+
+	/** */
+	@Test
+	void headerNameLookupsIgnoreCase() {
+		final Map<String, List<String>> headers = connectionHeaders();
+		headers.put("content-length", ImmutableList.of("5"));
+		final CaseInsensitiveMultimapView<String> view = new CaseInsensitiveMultimapView<>(headers, false);
+
+		assertThat(view.get(HeaderName.CONTENT_TYPE)).containsExactly("text/plain");
+		assertThat(view.get(HeaderName.CONTENT_LENGTH)).containsExactly("5");
+		assertThat(view.get(HeaderName.LOCATION)).isEmpty();
+	}
+}
@@ -0,0 +1,98 @@
+package com.voodoodyne.hattery.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ */
+class ChunkedOutputStreamTest {
+
+	private static String toString(final List<ByteBuffer> buffers) {
+		final StringBuilder bld = new StringBuilder();
+		for (final ByteBuffer buffer : buffers)
+			bld.append(StandardCharsets.UTF_8.decode(buffer.duplicate()));
+
+		return bld.toString();
+	}
+
+	/** */
+	@Test
+	void contentIsSplitAcrossChunks() {
+		final ChunkedOutputStream out = new ChunkedOutputStream(new BufferPool(4, 10));
+		final byte[] bytes = "abcdefghij".getBytes(StandardCharsets.UTF_8);
+		out.write(bytes, 0, bytes.length);
+		out.write('k');
+
+		final List<ByteBuffer> buffers = out.toByteBuffers();
+		assertThat(out.size()).isEqualTo(11);
+		assertThat(buffers).hasSize(3);
+		assertThat(buffers.get(2).remaining()).isEqualTo(3);
+		assertThat(toString(buffers)).isEqualTo("abcdefghijk");
+	}
+
+	/** */
+	@Test
+	void writeToCopiesEveryChunk() throws Exception {
+		final ChunkedOutputStream out = new ChunkedOutputStream(new BufferPool(4, 10));
+		final byte[] bytes = "abcdefghij".getBytes(StandardCharsets.UTF_8);
+		out.write(bytes, 0, bytes.length);
+
+		final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+		out.writeTo(copy);
+		assertThat(copy.toByteArray()).isEqualTo(bytes);
+	}
+
+	/** */
+	@Test
+	void releasedChunksAreReused() {
+		final BufferPool pool = new BufferPool(4, 10);
+		final ChunkedOutputStream out = new ChunkedOutputStream(pool);
+		out.write(new byte[9], 0, 9);
+		out.release();
+
+		assertThat(pool.getIdleCount()).isEqualTo(3);
+		assertThat(out.size()).isEqualTo(0);
+
+		out.write('x');
+		assertThat(pool.getIdleCount()).isEqualTo(2);
+	}
+
+	/** */
+	@Test
+	void publisherHonorsDemandAndCanBeResubscribed() {
+		final ChunkedOutputStream out = new ChunkedOutputStream(new BufferPool(2, 10));
+		final byte[] bytes = "abcde".getBytes(StandardCharsets.UTF_8);
+		out.write(bytes, 0, bytes.length);
+
+		final ByteBufferPublisher publisher = new ByteBufferPublisher(out.toByteBuffers());
+
+		for (int round = 0; round < 2; round++) {
+			final List<ByteBuffer> received = new ArrayList<>();
+			final boolean[] completed = new boolean[1];
+			final Flow.Subscription[] subscription = new Flow.Subscription[1];
+
+			publisher.subscribe(new Flow.Subscriber<ByteBuffer>() {
+				@Override public void onSubscribe(final Flow.Subscription s) { subscription[0] = s; }
+				@Override public void onNext(final ByteBuffer item) { received.add(item); }
+				@Override public void onError(final Throwable throwable) { throw new AssertionError(throwable); }
+				@Override public void onComplete() { completed[0] = true; }
+			});
+
+			subscription[0].request(2);
+			assertThat(received).hasSize(2);
+			assertThat(completed[0]).isFalse();
+
+			subscription[0].request(10);
+			assertThat(completed[0]).isTrue();
+			assertThat(toString(received)).isEqualTo("abcde");
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.voodoodyne.hattery.util;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ */
+class HeaderMapTest {
+
+	/** */
+	@Test
+	void lookupsIgnoreCase() {
+		final HeaderMap<String> map = HeaderMap.<String>empty()
+				.with("Content-Type", "text/plain")
+				.with("X-Foo", "bar");
+
+		assertThat(map.get("content-type")).isEqualTo("text/plain");
+		assertThat(map.get(HeaderName.CONTENT_TYPE)).isEqualTo("text/plain");
+		assertThat(map.get("X-FOO")).isEqualTo("bar");
+		assertThat(map.containsKey("x-foo")).isTrue();
+		assertThat(map.get("missing")).isNull();
+	}
+
+	/** */
+	@Test
+	void replacingKeepsOrderAndTakesNewSpelling() {
+		final HeaderMap<String> map = HeaderMap.<String>empty()
+				.with("A", "1")
+				.with("B", "2")
+				.with("a", "3");
+
+		assertThat(map.keySet()).containsExactly("a", "B").inOrder();
+		assertThat(map.get("A")).isEqualTo("3");
+	}
+
+	/** */
+	@Test
+	void nullValueRemoves() {
+		final HeaderMap<String> map = HeaderMap.<String>empty()
+				.with("A", "1")
+				.with("B", "2")
+				.with("b", null);
+
+		assertThat(map).containsExactly("A", "1");
+	}
+
+	/** */
+	@Test
+	void copyMergesKeysDifferingByCase() {
+		final HeaderMap<String> map = HeaderMap.copyOf(ImmutableMap.of("Foo", "1", "foo", "2"), (one, two) -> one + two);
+
+		assertThat(map).containsExactly("Foo", "12");
+	}
+}
@@ -0,0 +1,104 @@
+package com.voodoodyne.hattery.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ */
+class ReleasingPublisherTest {
+
+	/** Requests one buffer at a time, and keeps the subscription so the test can cancel it */
+	private static class Subscriber implements Flow.Subscriber<ByteBuffer> {
+		Flow.Subscription subscription;
+		boolean complete;
+
+		@Override
+		public void onSubscribe(final Flow.Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(final ByteBuffer item) {
+		}
+
+		@Override
+		public void onError(final Throwable throwable) {
+		}
+
+		@Override
+		public void onComplete() {
+			complete = true;
+		}
+	}
+
+	/** */
+	private static final List<ByteBuffer> BUFFERS = List.of(ByteBuffer.wrap(new byte[] { 1 }), ByteBuffer.wrap(new byte[] { 2 }));
+
+	/** */
+	@Test
+	void waitsForTheSubscriberToComplete() {
+		final AtomicInteger released = new AtomicInteger();
+		final ReleasingPublisher publisher = new ReleasingPublisher(new ByteBufferPublisher(BUFFERS), released::incrementAndGet);
+
+		final Subscriber subscriber = new Subscriber();
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(1);
+
+		publisher.finish();
+		assertThat(released.get()).isEqualTo(0);
+
+		subscriber.subscription.request(1);
+		assertThat(subscriber.complete).isTrue();
+		assertThat(released.get()).isEqualTo(1);
+	}
+
+	/** */
+	@Test
+	void waitsForTheOwnerToFinish() {
+		final AtomicInteger released = new AtomicInteger();
+		final ReleasingPublisher publisher = new ReleasingPublisher(new ByteBufferPublisher(BUFFERS), released::incrementAndGet);
+
+		final Subscriber subscriber = new Subscriber();
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		assertThat(released.get()).isEqualTo(0);
+
+		publisher.finish();
+		assertThat(released.get()).isEqualTo(1);
+	}
+
+	/** */
+	@Test
+	void cancelledAndRepeatedSubscriptionsAllCount() {
+		final AtomicInteger released = new AtomicInteger();
+		final ReleasingPublisher publisher = new ReleasingPublisher(new ByteBufferPublisher(BUFFERS), released::incrementAndGet);
+
+		final Subscriber first = new Subscriber();
+		final Subscriber second = new Subscriber();
+		publisher.subscribe(first);
+		publisher.subscribe(second);
+
+		publisher.finish();
+		first.subscription.cancel();
+		assertThat(released.get()).isEqualTo(0);
+
+		second.subscription.cancel();
+		second.subscription.cancel();
+		assertThat(released.get()).isEqualTo(1);
+	}
+
+	/** */
+	@Test
+	void releasesImmediatelyIfNeverSubscribed() {
+		final AtomicInteger released = new AtomicInteger();
+		new ReleasingPublisher(new ByteBufferPublisher(BUFFERS), released::incrementAndGet).finish();
+
+		assertThat(released.get()).isEqualTo(1);
+	}
+}